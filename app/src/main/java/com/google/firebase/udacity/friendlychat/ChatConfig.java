@@ -0,0 +1,150 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import timber.log.Timber;
+
+// Remote configuration of the chat, readable synchronously at startup.
+//
+// The last fetched values are kept in shared preferences and served until
+// they are older than CACHE_TTL_MS; refresh() then fetches them again in the
+// background and notifies the listeners of the values that changed. The
+// schedule, with its backoff on failures, is ConfigCache's. Only used on the
+// main thread.
+public class ChatConfig {
+
+    public interface Listener {
+        void onConfigChanged(ChatConfig config);
+    }
+
+    public static final String KEY_MSG_LENGTH = "max_msg_length";
+    public static final int DEFAULT_MSG_LENGTH = 1000;
+
+    static final long CACHE_TTL_MS = BuildConfig.DEBUG ? 60 * 1000 : 12 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "config";
+    private static final String PREF_VALUES = "values";
+    private static final String PREF_FETCHED_AT = "fetchedAt";
+    private static final String PREF_FAILURES = "failures";
+    private static final String PREF_NEXT_ATTEMPT_AT = "nextAttemptAt";
+
+    private static ChatConfig sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, String> mDefaults = new HashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final ConfigCache mCache;
+
+    public static synchronized ChatConfig getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChatConfig(context.getApplicationContext(), new FirebaseConfigBackend());
+        }
+        return sInstance;
+    }
+
+    ChatConfig(Context context, ConfigBackend backend) {
+        this.mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mDefaults.put(KEY_MSG_LENGTH, String.valueOf(DEFAULT_MSG_LENGTH));
+        this.mCache = new ConfigCache(backend, CACHE_TTL_MS, new MainThreadTimer(), new Random(), new ConfigCache.Callback() {
+            @Override
+            public void onStateChanged() {
+                save();
+            }
+
+            @Override
+            public void onValuesChanged() {
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onConfigChanged(ChatConfig.this);
+                }
+            }
+
+            @Override
+            public void onFetchFailed(Exception e, long delayMs) {
+                Timber.w(e, "refresh: failed, retrying in %d ms", delayMs);
+            }
+        });
+        restore();
+    }
+
+    public long getLong(String key) {
+        String value = mCache.getValues().get(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                Timber.w("getLong: %s is not a number: %s", key, value);
+            }
+        }
+        return Long.parseLong(mDefaults.get(key));
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // Fetches the values if they are stale and no backoff is pending
+    public void refresh() {
+        mCache.refresh();
+    }
+
+    // Network round trips made, successful or not
+    public int getFetchCount() {
+        return mCache.getFetchCount();
+    }
+
+    public int getFailedFetchCount() {
+        return mCache.getFailedFetchCount();
+    }
+
+    // Age of the values in use, -1 if they are the defaults
+    public long getAgeMs() {
+        return mCache.getAgeMs();
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putString(PREF_VALUES, new JSONObject(mCache.getValues()).toString())
+                .putLong(PREF_FETCHED_AT, mCache.getFetchedAt())
+                .putInt(PREF_FAILURES, mCache.getFailures())
+                .putLong(PREF_NEXT_ATTEMPT_AT, mCache.getNextAttemptAt())
+                .apply();
+    }
+
+    private void restore() {
+        long fetchedAt = mPrefs.getLong(PREF_FETCHED_AT, 0);
+        int failures = mPrefs.getInt(PREF_FAILURES, 0);
+        long nextAttemptAt = mPrefs.getLong(PREF_NEXT_ATTEMPT_AT, 0);
+        Map<String, String> values = new HashMap<>();
+        String saved = mPrefs.getString(PREF_VALUES, null);
+        if (saved != null) {
+            try {
+                JSONObject json = new JSONObject(saved);
+                Iterator<String> keys = json.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    values.put(key, json.getString(key));
+                }
+            } catch (JSONException e) {
+                Timber.e(e, "restore: discarding saved values");
+                values.clear();
+                fetchedAt = 0;
+            }
+        }
+        mCache.restore(values, fetchedAt, failures, nextAttemptAt);
+    }
+}
@@ -0,0 +1,129 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+
+// Latency histograms and counters of the chat, shown by MetricsActivity and
+// printed by "adb shell dumpsys activity com.google.firebase.udacity.friendlychat".
+// Recording is allocation free and safe from any thread.
+public final class ChatMetrics {
+
+    // sendButtonClick to the database acknowledging the write, on the sender
+    public static final LatencyHistogram SEND_TO_ACK = new LatencyHistogram("send->ack", "ms");
+    // sendButtonClick to onChildAdded, on any client, by the server clock
+    public static final LatencyHistogram SEND_TO_RECEIVE = new LatencyHistogram("send->receive", "ms");
+    // server timestamp of the message to onChildAdded
+    public static final LatencyHistogram SERVER_TO_RECEIVE = new LatencyHistogram("server->receive", "ms");
+    // onChildAdded to the first frame drawn with the row
+    public static final LatencyHistogram RECEIVE_TO_DRAW = new LatencyHistogram("receive->draw", "ms");
+    public static final LatencyHistogram BIND = new LatencyHistogram("bind", "us");
+    // photo request to the photo being ready, from any cache or the network
+    public static final LatencyHistogram IMAGE_LOAD = new LatencyHistogram("image load", "ms");
+    public static final LatencyHistogram INGEST_BATCH = new LatencyHistogram("ingest batch", "msg");
+    // list set up for the signed in user to its first row drawn
+    public static final LatencyHistogram SIGN_IN_TO_DRAW = new LatencyHistogram("sign-in->draw", "ms");
+    // SearchIndex answering a query
+    public static final LatencyHistogram SEARCH = new LatencyHistogram("search", "us");
+
+    private static final LatencyHistogram[] HISTOGRAMS = {
+            SEND_TO_ACK, SEND_TO_RECEIVE, SERVER_TO_RECEIVE, RECEIVE_TO_DRAW, BIND, IMAGE_LOAD, INGEST_BATCH,
+            SIGN_IN_TO_DRAW, SEARCH
+    };
+
+    // process start to the first frame drawn with messages in the list
+    private static long sStartupMs;
+    private static long sIngestedCount;
+    private static long sFirstIngestTimeMs;
+    private static long sLastIngestTimeMs;
+    // rows taken from MessageRowPool, and inflated on the main thread
+    private static long sPooledRowCount;
+    private static long sInflatedRowCount;
+
+    private ChatMetrics() {
+    }
+
+    // Records the latencies of a message delivered by the live listener.
+    // Messages sent before since, server time, were sent while nobody was
+    // listening and would skew the histograms.
+    public static void onMessageReceived(FriendlyMessage message, long since) {
+        long now = ServerClock.now();
+        if (message.getSentAt() >= since) {
+            SEND_TO_RECEIVE.record(now - message.getSentAt());
+        }
+        if (message.getTimestamp() >= since) {
+            SERVER_TO_RECEIVE.record(now - message.getTimestamp());
+        }
+    }
+
+    public static synchronized void onStartupListDrawn(long startupMs) {
+        sStartupMs = startupMs;
+    }
+
+    public static synchronized void onIngested(int count) {
+        long now = SystemClock.elapsedRealtime();
+        if (sFirstIngestTimeMs == 0) {
+            sFirstIngestTimeMs = now;
+        }
+        sLastIngestTimeMs = now;
+        sIngestedCount += count;
+        INGEST_BATCH.record(count);
+    }
+
+    public static synchronized void onRowCreated(boolean pooled) {
+        if (pooled) {
+            sPooledRowCount++;
+        } else {
+            sInflatedRowCount++;
+        }
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        synchronized (ChatMetrics.class) {
+            sIngestedCount = 0;
+            sFirstIngestTimeMs = 0;
+            sLastIngestTimeMs = 0;
+            sPooledRowCount = 0;
+            sInflatedRowCount = 0;
+        }
+    }
+
+    public static void dump(Context context, PrintWriter writer) {
+        writer.printf("uptime %d s%n", FriendlyChatApplication.getUptimeMs() / 1000);
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.print(writer);
+        }
+        synchronized (ChatMetrics.class) {
+            writer.printf("startup: message list drawn after %d ms%n", sStartupMs);
+            long elapsed = sLastIngestTimeMs - sFirstIngestTimeMs;
+            writer.printf("ingested %d messages, %.1f msg/s%n", sIngestedCount,
+                    elapsed <= 0 ? (double) sIngestedCount : sIngestedCount * 1000.0 / elapsed);
+            writer.printf("rows: %d prewarmed, %d inflated on the main thread%n", sPooledRowCount, sInflatedRowCount);
+        }
+
+        MessageOutbox outbox = MessageOutbox.getInstance(context);
+        writer.printf("outbox: %d pending, %d acknowledged in %d batches, %d failed, latency last %d ms avg %d ms%n",
+                outbox.getPendingCount(), outbox.getAcknowledgedCount(), outbox.getBatchCount(),
+                outbox.getFailedBatchCount(), outbox.getLastFlushLatencyMs(), outbox.getAverageFlushLatencyMs());
+
+        ChatConfig config = ChatConfig.getInstance(context);
+        writer.printf("config: %d fetches, %d failed, age %d s%n", config.getFetchCount(),
+                config.getFailedFetchCount(), config.getAgeMs() / 1000);
+
+        TextLayoutCache layouts = TextLayoutCache.getInstance();
+        writer.printf("text layouts: %d hits, %d misses, %d prefetched%n", layouts.getHitCount(),
+                layouts.getMissCount(), layouts.getPrefetchCount());
+
+        MemoryBudget.getInstance(context).dump(writer);
+
+        PhotoUploadQueue uploads = PhotoUploadQueue.getInstance(context);
+        writer.printf("uploads: %d pending, %d completed, %d reused, %d failed attempts, %d dropped, %d B/s%n",
+                uploads.getPendingCount(), uploads.getCompletedCount(), uploads.getReusedCount(),
+                uploads.getFailedAttemptCount(), uploads.getDroppedCount(), uploads.getThroughput());
+        writer.flush();
+    }
+}
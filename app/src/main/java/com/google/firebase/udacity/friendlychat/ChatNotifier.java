@@ -0,0 +1,105 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import java.util.List;
+
+// Notifies the messages pushed while the chat is not on screen.
+//
+// A burst of messages collapses into one InboxStyle notification listing the
+// newest ones, paced by NotificationThrottle. Showing the chat clears it,
+// dismissing the notification clears the messages it listed.
+// State is only touched on the main thread.
+public class ChatNotifier {
+
+    static final String CHANNEL_ID = "messages";
+    private static final int NOTIFICATION_ID = 1;
+
+    private static ChatNotifier sInstance;
+
+    private final Context mContext;
+    private final NotificationManagerCompat mNotificationManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final NotificationThrottle mThrottle;
+
+    public static synchronized ChatNotifier getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChatNotifier(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    ChatNotifier(Context context) {
+        this.mContext = context;
+        this.mNotificationManager = NotificationManagerCompat.from(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.messages_channel), NotificationManager.IMPORTANCE_DEFAULT);
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+        this.mThrottle = new NotificationThrottle(new MainThreadTimer(), new NotificationThrottle.Display() {
+            @Override
+            public void show(List<String> lines, int count, boolean alert) {
+                ChatNotifier.this.show(lines, count, alert);
+            }
+
+            @Override
+            public void cancel() {
+                mNotificationManager.cancel(NOTIFICATION_ID);
+            }
+        });
+    }
+
+    // Adds the message to the notification, from any thread
+    public void onMessage(FriendlyMessage message) {
+        String text = message.getText() != null ? message.getText() : mContext.getString(R.string.photo_message);
+        final String line = mContext.getString(R.string.notification_line, message.getName(), text);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mThrottle.add(line);
+            }
+        });
+    }
+
+    // While the chat is on screen nothing is notified, call from the main thread
+    public void setForeground(boolean foreground) {
+        mThrottle.setForeground(foreground);
+    }
+
+    // The notification was dismissed, call from the main thread
+    public void clear() {
+        mThrottle.clear();
+    }
+
+    private void show(List<String> lines, int count, boolean alert) {
+        String title = mContext.getResources().getQuantityString(R.plurals.new_messages, count, count);
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle().setBigContentTitle(title);
+        for (String line : lines) {
+            style.addLine(line);
+        }
+        Intent intent = new Intent(mContext, MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        Intent dismissed = new Intent(mContext, NotificationDismissedReceiver.class);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_notify_chat)
+                .setContentTitle(title)
+                .setContentText(lines.get(lines.size() - 1))
+                .setStyle(style)
+                .setNumber(count)
+                .setOnlyAlertOnce(!alert)
+                .setAutoCancel(true)
+                .setContentIntent(PendingIntent.getActivity(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT))
+                .setDeleteIntent(PendingIntent.getBroadcast(mContext, 0, dismissed, 0));
+        mNotificationManager.notify(NOTIFICATION_ID, builder.build());
+    }
+}
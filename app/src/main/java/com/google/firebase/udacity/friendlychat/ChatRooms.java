@@ -0,0 +1,129 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ServerValue;
+
+import java.util.Locale;
+import java.util.Map;
+
+// Rooms of the chat and where their data lives in the database.
+//
+// The messages of a room are under "room_messages/<room id>", except those
+// of DEFAULT_ROOM, which keeps the "messages" node so its history and older
+// clients keep working. "rooms/<room id>" is the room index: the name of the
+// room and a summary of its last message, small enough to read every room
+// without any of their messages. MessageOutbox updates the summary in the
+// same write as the message.
+public final class ChatRooms {
+
+    public static final String DEFAULT_ROOM = "general";
+
+    private static final String LEGACY_MESSAGES_NODE = "messages";
+    private static final String ROOM_MESSAGES_NODE = "room_messages";
+    static final String ROOMS_NODE = "rooms";
+
+    // room index fields
+    static final String FIELD_NAME = "name";
+    static final String FIELD_LAST_TEXT = "lastText";
+    static final String FIELD_LAST_NAME = "lastName";
+    static final String FIELD_LAST_TIMESTAMP = "lastTimestamp";
+
+    private static final String PREFS_NAME = "rooms";
+    private static final String PREF_CURRENT_ROOM = "currentRoom";
+
+    private ChatRooms() {
+    }
+
+    // Path of the messages of the room
+    public static String messagesPath(String roomId) {
+        return DEFAULT_ROOM.equals(roomId) ? LEGACY_MESSAGES_NODE : ROOM_MESSAGES_NODE + "/" + roomId;
+    }
+
+    // Room of a path returned by messagesPath
+    public static String roomOf(String messagesPath) {
+        return messagesPath.startsWith(ROOM_MESSAGES_NODE + "/")
+                ? messagesPath.substring(ROOM_MESSAGES_NODE.length() + 1)
+                : DEFAULT_ROOM;
+    }
+
+    // Room of the messages node at messages, the parent of every message
+    public static String roomOf(DatabaseReference messages) {
+        DatabaseReference parent = messages.getParent();
+        return parent != null && ROOM_MESSAGES_NODE.equals(parent.getKey()) ? messages.getKey() : DEFAULT_ROOM;
+    }
+
+    public static String roomPath(String roomId) {
+        return ROOMS_NODE + "/" + roomId;
+    }
+
+    // Room id of the name typed by a user, null if nothing usable is left.
+    // Ids are lower case and hold none of the characters keys cannot hold.
+    @Nullable
+    public static String roomId(String name) {
+        String id = name.trim().toLowerCase(Locale.US).replaceAll("[.#$\\[\\]/\\s]+", "-");
+        id = id.replaceAll("^-+|-+$", "");
+        return id.isEmpty() ? null : id;
+    }
+
+    // Updates of the room index for message, relative to the root, for a multi-path write
+    static void putSummary(Map<String, Object> updates, String roomId, FriendlyMessage message) {
+        String path = roomPath(roomId) + "/";
+        updates.put(path + FIELD_LAST_TEXT, message.getText());
+        updates.put(path + FIELD_LAST_NAME, message.getName());
+        updates.put(path + FIELD_LAST_TIMESTAMP, ServerValue.TIMESTAMP);
+    }
+
+    // The room shown by MainActivity, restored at startup
+    public static String getCurrentRoom(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(PREF_CURRENT_ROOM, DEFAULT_ROOM);
+    }
+
+    public static void setCurrentRoom(Context context, String roomId) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_CURRENT_ROOM, roomId)
+                .apply();
+    }
+
+    // Entry of the room index
+    public static class Room {
+
+        final String id;
+        final String name;
+        final String lastText;
+        final String lastName;
+        final long lastTimestamp;
+
+        Room(String id, String name, String lastText, String lastName, long lastTimestamp) {
+            this.id = id;
+            this.name = name != null ? name : id;
+            this.lastText = lastText;
+            this.lastName = lastName;
+            this.lastTimestamp = lastTimestamp;
+        }
+
+        // Returns null if the snapshot does not hold a room
+        @Nullable
+        static Room decode(DataSnapshot dataSnapshot) {
+            Object value = dataSnapshot.getValue();
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            Map<?, ?> fields = (Map<?, ?>) value;
+            Object lastTimestamp = fields.get(FIELD_LAST_TIMESTAMP);
+            return new Room(dataSnapshot.getKey(),
+                    asString(fields.get(FIELD_NAME)),
+                    asString(fields.get(FIELD_LAST_TEXT)),
+                    asString(fields.get(FIELD_LAST_NAME)),
+                    lastTimestamp instanceof Number ? ((Number) lastTimestamp).longValue() : 0);
+        }
+
+        private static String asString(Object value) {
+            return value == null ? null : value.toString();
+        }
+    }
+}
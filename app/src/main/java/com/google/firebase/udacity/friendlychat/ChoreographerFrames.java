@@ -0,0 +1,42 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.HashMap;
+
+// The frames of the main thread for MessageIngestor. Only used on the main thread.
+public class ChoreographerFrames implements MessageIngestor.Frames {
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    // one callback per frame runnable, so it can be removed again
+    private final HashMap<Runnable, Choreographer.FrameCallback> mCallbacks = new HashMap<>();
+
+    @Override
+    public void postFrame(final Runnable frame) {
+        Choreographer.FrameCallback callback = mCallbacks.get(frame);
+        if (callback == null) {
+            callback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    frame.run();
+                }
+            };
+            mCallbacks.put(frame, callback);
+        }
+        mChoreographer.postFrameCallback(callback);
+    }
+
+    @Override
+    public void removeFrame(Runnable frame) {
+        Choreographer.FrameCallback callback = mCallbacks.get(frame);
+        if (callback != null) {
+            mChoreographer.removeFrameCallback(callback);
+        }
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
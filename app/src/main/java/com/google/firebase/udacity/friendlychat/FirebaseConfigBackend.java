@@ -0,0 +1,43 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
+import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FirebaseConfigBackend implements ConfigBackend {
+
+    // created on the first fetch, not at startup
+    private FirebaseRemoteConfig mRemoteConfig;
+
+    @Override
+    public void fetch(final FetchCallback callback) {
+        if (mRemoteConfig == null) {
+            mRemoteConfig = FirebaseRemoteConfig.getInstance();
+            mRemoteConfig.setConfigSettings(new FirebaseRemoteConfigSettings.Builder()
+                    .setDeveloperModeEnabled(BuildConfig.DEBUG)
+                    .build());
+        }
+        // ChatConfig decides when values are stale, bypass the SDK cache
+        mRemoteConfig.fetch(0).addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (!task.isSuccessful()) {
+                    callback.onFailure(task.getException());
+                    return;
+                }
+                mRemoteConfig.activateFetched();
+                Map<String, String> values = new HashMap<>();
+                for (String key : mRemoteConfig.getKeysByPrefix("")) {
+                    values.put(key, mRemoteConfig.getString(key));
+                }
+                callback.onFetched(values);
+            }
+        });
+    }
+}
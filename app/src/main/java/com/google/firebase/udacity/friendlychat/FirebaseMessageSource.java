@@ -0,0 +1,71 @@
+package com.google.firebase.udacity.friendlychat;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.List;
+
+import timber.log.Timber;
+
+// Pages of a room read from the database by key, decoded by MessageDecoder
+// and delivered on the main thread
+public class FirebaseMessageSource implements MessagePager.Source {
+
+    private final DatabaseReference mMessagesReference;
+    private final String mRoomId;
+    private final MessageDecoder mDecoder = MessageDecoder.getInstance();
+
+    public FirebaseMessageSource(DatabaseReference messagesReference) {
+        this.mMessagesReference = messagesReference;
+        this.mRoomId = ChatRooms.roomOf(messagesReference);
+    }
+
+    @Override
+    public void loadLatest(int limit, MessagePager.PageCallback callback) {
+        load(mMessagesReference.orderByKey().limitToLast(limit), null, limit, true, "loadLatest", callback);
+    }
+
+    // the bounds are inclusive, so the page is asked with one more message and the key is skipped
+    @Override
+    public void loadBefore(String key, int limit, MessagePager.PageCallback callback) {
+        load(mMessagesReference.orderByKey().endAt(key).limitToLast(limit + 1), key, limit, true,
+                "loadBefore", callback);
+    }
+
+    @Override
+    public void loadAfter(String key, int limit, MessagePager.PageCallback callback) {
+        load(mMessagesReference.orderByKey().startAt(key).limitToFirst(limit + 1), key, limit, false,
+                "loadAfter", callback);
+    }
+
+    private void load(Query query, final String anchorKey, final int limit, final boolean keepLast,
+                      final String name, final MessagePager.PageCallback callback) {
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                mDecoder.decodePage(dataSnapshot, anchorKey, new MessageDecoder.PageCallback() {
+                    @Override
+                    public void onDecoded(List<FriendlyMessage> page) {
+                        // the texts are measured while the page travels to the list
+                        TextLayoutCache.getInstance().prefetch(page);
+                        MessageSearch.getInstance().addAll(mRoomId, page);
+                        // the anchor was deleted meanwhile, the page has one message too many
+                        if (page.size() > limit) {
+                            page = keepLast ? page.subList(page.size() - limit, page.size()) : page.subList(0, limit);
+                        }
+                        callback.onLoaded(page);
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Timber.e(databaseError.toException(), "%s: cancelled", name);
+                callback.onFailed();
+            }
+        });
+    }
+}
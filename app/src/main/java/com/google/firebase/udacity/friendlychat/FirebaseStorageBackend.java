@@ -0,0 +1,87 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.storage.OnProgressListener;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+
+public class FirebaseStorageBackend implements StorageBackend {
+
+    private final StorageReference mRoot;
+
+    public FirebaseStorageBackend(StorageReference root) {
+        this.mRoot = root;
+    }
+
+    @Override
+    public void upload(String path, File file, @Nullable String sessionUri, final UploadCallback callback) {
+        final StorageReference ref = mRoot.child(path);
+        Uri fileUri = Uri.fromFile(file);
+        UploadTask uploadTask = sessionUri == null
+                ? ref.putFile(fileUri)
+                : ref.putFile(fileUri, new StorageMetadata.Builder().build(), Uri.parse(sessionUri));
+
+        uploadTask.addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
+            private boolean mSessionReported;
+
+            @Override
+            public void onProgress(UploadTask.TaskSnapshot taskSnapshot) {
+                Uri session = taskSnapshot.getUploadSessionUri();
+                if (session != null && !mSessionReported) {
+                    mSessionReported = true;
+                    callback.onSessionStarted(session.toString());
+                }
+                callback.onProgress(taskSnapshot.getBytesTransferred(), taskSnapshot.getTotalByteCount());
+            }
+        }).continueWithTask(new Continuation<UploadTask.TaskSnapshot, Task<Uri>>() {
+            @Override
+            public Task<Uri> then(@NonNull Task<UploadTask.TaskSnapshot> task) throws Exception {
+                if (!task.isSuccessful()) {
+                    throw task.getException();
+                }
+                // since firebase-storage 16.0.1 the download url is no longer in
+                // the task snapshot and has to be requested from the reference
+                return ref.getDownloadUrl();
+            }
+        }).addOnCompleteListener(new OnCompleteListener<Uri>() {
+            @Override
+            public void onComplete(@NonNull Task<Uri> task) {
+                if (task.isSuccessful()) {
+                    callback.onSuccess(task.getResult().toString());
+                } else {
+                    callback.onFailure(task.getException());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void lookup(String path, final LookupCallback callback) {
+        mRoot.child(path).getDownloadUrl().addOnCompleteListener(new OnCompleteListener<Uri>() {
+            @Override
+            public void onComplete(@NonNull Task<Uri> task) {
+                if (task.isSuccessful()) {
+                    callback.onFound(task.getResult().toString());
+                    return;
+                }
+                Exception e = task.getException();
+                if (e instanceof StorageException
+                        && ((StorageException) e).getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND) {
+                    callback.onNotFound();
+                } else {
+                    callback.onFailure(e);
+                }
+            }
+        });
+    }
+}
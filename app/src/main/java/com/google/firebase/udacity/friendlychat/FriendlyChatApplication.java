@@ -0,0 +1,56 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import timber.log.Timber;
+
+// Process-wide initialization, run once per process instead of once per
+// Activity. Only what the first frame needs is done here; the Firebase
+// services are created when they are first used.
+public class FriendlyChatApplication extends Application {
+
+    // as close to the process start as app code gets
+    private static final long START_TIME_MS = SystemClock.elapsedRealtime();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        TraceCompat.beginSection("FriendlyChatApplication.onCreate");
+        try {
+            Timber.plant(BuildConfig.DEBUG ? new Timber.DebugTree() : new ReleaseTree());
+            installCrashHandler();
+            registerComponentCallbacks(MemoryBudget.getInstance(this));
+            // the saved messages of the room on screen are read while the Activity is created
+            LocalMessageStore.getInstance(this, ChatRooms.getCurrentRoom(this)).preload();
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    // Prints the recent events before the process dies of an uncaught exception
+    private static void installCrashHandler() {
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                StringWriter events = new StringWriter();
+                EventLog.dump(new PrintWriter(events));
+                Log.e("FriendlyChat", "recent events:\n" + events);
+                if (previous != null) {
+                    previous.uncaughtException(thread, e);
+                }
+            }
+        });
+    }
+
+    // Milliseconds since the process started
+    public static long getUptimeMs() {
+        return SystemClock.elapsedRealtime() - START_TIME_MS;
+    }
+}
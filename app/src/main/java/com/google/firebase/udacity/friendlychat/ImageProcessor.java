@@ -0,0 +1,154 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+// Re-encodes a picked photo into the versions the chat shows: a display
+// version no larger than a phone screen and a small thumbnail, loaded
+// first by the list. Runs on a background thread.
+public class ImageProcessor {
+
+    // long edge of the display version, enough for a full screen photo
+    static final int DISPLAY_MAX_SIZE = 1280;
+    static final int DISPLAY_QUALITY = 85;
+    // long edge of the thumbnail, about a quarter of a list row
+    static final int THUMBNAIL_MAX_SIZE = 240;
+    static final int THUMBNAIL_QUALITY = 70;
+
+    public static class Result {
+        public final File display;
+        public final File thumbnail;
+        // pixel size of the display version
+        public final int width;
+        public final int height;
+
+        Result(File display, File thumbnail, int width, int height) {
+            this.display = display;
+            this.thumbnail = thumbnail;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private ImageProcessor() {
+    }
+
+    // Writes the display version and the thumbnail of source next to it,
+    // returns null if source cannot be decoded
+    public static Result process(File source) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        // decode at the smallest power of two scale still larger than the display version
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, DISPLAY_MAX_SIZE);
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            return null;
+        }
+
+        Bitmap oriented = rotate(decoded, readRotation(source));
+        Bitmap display = scale(oriented, DISPLAY_MAX_SIZE);
+        if (display != oriented) {
+            oriented.recycle();
+        }
+        File displayFile = new File(source.getPath() + ".display.jpg");
+        File thumbnailFile = new File(source.getPath() + ".thumb.jpg");
+        Bitmap thumbnail = scale(display, THUMBNAIL_MAX_SIZE);
+        try {
+            write(display, displayFile, DISPLAY_QUALITY);
+            write(thumbnail, thumbnailFile, THUMBNAIL_QUALITY);
+        } catch (IOException e) {
+            // no half written versions are left behind
+            displayFile.delete();
+            thumbnailFile.delete();
+            throw e;
+        }
+
+        Result result = new Result(displayFile, thumbnailFile, display.getWidth(), display.getHeight());
+        Timber.d("process: %dx%d %d bytes -> %dx%d %d bytes + thumbnail %d bytes",
+                bounds.outWidth, bounds.outHeight, source.length(),
+                result.width, result.height, displayFile.length(), thumbnailFile.length());
+        if (thumbnail != display) {
+            thumbnail.recycle();
+        }
+        display.recycle();
+        return result;
+    }
+
+    static int sampleSize(int width, int height, int maxSize) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Scales bitmap so its long edge is at most maxSize
+    private static Bitmap scale(Bitmap bitmap, int maxSize) {
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longEdge <= maxSize) {
+            return bitmap;
+        }
+        float ratio = (float) maxSize / longEdge;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.round(bitmap.getWidth() * ratio), Math.round(bitmap.getHeight() * ratio), true);
+    }
+
+    // The pixels are rotated so the uploaded versions need no EXIF data
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        if (degrees == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private static int readRotation(File file) {
+        try {
+            int orientation = new ExifInterface(file.getPath())
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void write(Bitmap bitmap, File file, int quality) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("could not encode " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+// On-device copy of the newest messages of a room, keyed by push ID, so the
+// list can be drawn before Firebase answers. The stores of the rooms visited
+// last keep their messages in memory, so going back to one of them draws it
+// without reading its log again; the others, and all of them under memory
+// pressure, are unloaded and read again when next used.
+//
+// Messages are kept in an append-only log: every write appends a record and
+// the last record of a key wins. Once the log holds too many stale records it
+// is rewritten with only the newest MAX_MESSAGES messages. See
+// MessageLogFormat for the records.
+public class LocalMessageStore implements MessagePager.Store {
+
+    public interface LoadCallback {
+        void onLoaded(List<FriendlyMessage> messages);
+    }
+
+    // keep about two pages more than the first screen needs
+    static final int MAX_MESSAGES = 500;
+    // compact once the log holds this many records
+    private static final int MAX_RECORDS = MAX_MESSAGES * 2;
+
+    // the log of the default room predates rooms
+    private static final String FILE_NAME = "messages.log";
+    private static final String ROOM_FILE_PREFIX = "messages-";
+    private static final String ROOM_FILE_SUFFIX = ".log";
+    private static final int MAX_OPEN_ROOMS = 4;
+
+    // stores by room, least recently used first
+    private static final LinkedHashMap<String, LocalMessageStore> sInstances =
+            new LinkedHashMap<>(MAX_OPEN_ROOMS, 0.75f, true);
+    // every disk access of every room happens on this thread, in submission
+    // order, so a store unloaded while it still writes reads the log again
+    // once the writes are done
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    // the messages in memory of the stores of the rooms used last
+    static final MemoryBudget.Cache MEMORY_CACHE = new MemoryBudget.Cache() {
+        @Override
+        public void trim(float keep) {
+            synchronized (LocalMessageStore.class) {
+                unloadEldest((int) (MAX_OPEN_ROOMS * keep));
+            }
+        }
+
+        @Override
+        public long getMemorySize() {
+            long size = 0;
+            synchronized (LocalMessageStore.class) {
+                for (LocalMessageStore store : sInstances.values()) {
+                    size += store.mMemorySize;
+                }
+            }
+            return size;
+        }
+    };
+
+    private final File mFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // mirror of the log, only touched on sExecutor
+    private final TreeMap<String, FriendlyMessage> mMessages = new TreeMap<>();
+    private int mRecordCount;
+    private boolean mLoaded;
+    // approximate bytes of mMessages, read from any thread
+    private volatile long mMemorySize;
+
+    public static synchronized LocalMessageStore getInstance(Context context) {
+        return getInstance(context, ChatRooms.DEFAULT_ROOM);
+    }
+
+    public static synchronized LocalMessageStore getInstance(Context context, String roomId) {
+        LocalMessageStore store = sInstances.get(roomId);
+        if (store == null) {
+            String fileName = ChatRooms.DEFAULT_ROOM.equals(roomId)
+                    ? FILE_NAME
+                    : ROOM_FILE_PREFIX + roomId + ROOM_FILE_SUFFIX;
+            store = new LocalMessageStore(new File(context.getApplicationContext().getFilesDir(), fileName));
+            sInstances.put(roomId, store);
+            unloadEldest(MAX_OPEN_ROOMS);
+        }
+        return store;
+    }
+
+    // Unloads the stores but the count used last. Stores are never dropped,
+    // the ones held by callers must stay the only instance of their log.
+    private static void unloadEldest(int count) {
+        int unload = sInstances.size() - count;
+        for (LocalMessageStore store : sInstances.values()) {
+            if (unload-- <= 0) {
+                break;
+            }
+            store.unload();
+        }
+    }
+
+    LocalMessageStore(File file) {
+        this.mFile = file;
+    }
+
+    // Reads the stored messages in key order, the callback runs on the main thread
+    public void load(final LoadCallback callback) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                ensureLoaded();
+                final List<FriendlyMessage> messages = new ArrayList<>(mMessages.values());
+                Timber.i("load: %d messages in %d ms", messages.size(), SystemClock.elapsedRealtime() - start);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(messages);
+                    }
+                });
+            }
+        });
+    }
+
+    // Starts reading the log in the background, so a later load() only waits
+    // for what is left of the read
+    public void preload() {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+            }
+        });
+    }
+
+    @Override
+    public void put(FriendlyMessage message) {
+        putAll(Collections.singletonList(message));
+    }
+
+    @Override
+    public void putAll(List<FriendlyMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        final List<FriendlyMessage> batch = new ArrayList<>(messages);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                for (FriendlyMessage message : batch) {
+                    mMessages.put(message.getKey(), message);
+                }
+                append(batch, null);
+            }
+        });
+    }
+
+    // Stores the latest page of the room, dropping stored messages in its key
+    // range that are no longer in the room
+    @Override
+    public void replaceNewest(final List<FriendlyMessage> page) {
+        final List<FriendlyMessage> batch = new ArrayList<>(page);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                if (!batch.isEmpty()) {
+                    List<String> stale = new ArrayList<>(mMessages.tailMap(batch.get(0).getKey()).keySet());
+                    for (FriendlyMessage message : batch) {
+                        stale.remove(message.getKey());
+                    }
+                    for (String key : stale) {
+                        mMessages.remove(key);
+                        append(Collections.<FriendlyMessage>emptyList(), key);
+                    }
+                }
+                for (FriendlyMessage message : batch) {
+                    mMessages.put(message.getKey(), message);
+                }
+                append(batch, null);
+            }
+        });
+    }
+
+    @Override
+    public void remove(final String key) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ensureLoaded();
+                if (mMessages.remove(key) != null) {
+                    append(Collections.<FriendlyMessage>emptyList(), key);
+                }
+            }
+        });
+    }
+
+    public void clear() {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMessages.clear();
+                mRecordCount = 0;
+                mLoaded = true;
+                mMemorySize = 0;
+                if (mFile.exists() && !mFile.delete()) {
+                    Timber.w("clear: could not delete %s", mFile);
+                }
+            }
+        });
+    }
+
+    // Drops the messages from memory, the log is read again when next used
+    private void unload() {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMessages.clear();
+                mRecordCount = 0;
+                mLoaded = false;
+                mMemorySize = 0;
+            }
+        });
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+        boolean clean = readLog();
+        trim();
+        if (!clean) {
+            // drop the partial record left by an interrupted write
+            compact();
+        }
+    }
+
+    // Replays the log into mMessages, returns false if it ended in a broken record
+    private boolean readLog() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (!MessageLogFormat.readHeader(in)) {
+                Timber.w("readLog: unknown format, discarding");
+                mMessages.clear();
+                return false;
+            }
+            while (true) {
+                int type = MessageLogFormat.readRecordType(in);
+                if (type == MessageLogFormat.END) {
+                    return true;
+                }
+                String key = MessageLogFormat.readKey(in);
+                if (type == MessageLogFormat.RECORD_PUT) {
+                    mMessages.put(key, MessageLogFormat.readMessage(in, key));
+                } else if (type == MessageLogFormat.RECORD_DELETE) {
+                    mMessages.remove(key);
+                } else {
+                    return false;
+                }
+                mRecordCount++;
+            }
+        } catch (IOException e) {
+            Timber.w(e, "readLog: truncated log");
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void append(List<FriendlyMessage> messages, String deletedKey) {
+        boolean newFile = !mFile.exists();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            if (newFile) {
+                MessageLogFormat.writeHeader(out);
+            }
+            for (FriendlyMessage message : messages) {
+                MessageLogFormat.writePut(out, message);
+            }
+            if (deletedKey != null) {
+                MessageLogFormat.writeDelete(out, deletedKey);
+            }
+            mRecordCount += messages.size() + (deletedKey != null ? 1 : 0);
+        } catch (IOException e) {
+            Timber.e(e, "append: write failed");
+        } finally {
+            closeQuietly(out);
+        }
+        trim();
+        if (mRecordCount > MAX_RECORDS) {
+            compact();
+        }
+    }
+
+    // Keeps only the newest MAX_MESSAGES messages in memory
+    private void trim() {
+        while (mMessages.size() > MAX_MESSAGES) {
+            mMessages.pollFirstEntry();
+        }
+        long size = 0;
+        for (FriendlyMessage message : mMessages.values()) {
+            size += MemorySizes.sizeOf(message);
+        }
+        mMemorySize = size;
+    }
+
+    // Rewrites the log with one record per message kept
+    private void compact() {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            MessageLogFormat.writeHeader(out);
+            for (FriendlyMessage message : mMessages.values()) {
+                MessageLogFormat.writePut(out, message);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("rename failed");
+            }
+            mRecordCount = mMessages.size();
+        } catch (IOException e) {
+            Timber.e(e, "compact: failed");
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
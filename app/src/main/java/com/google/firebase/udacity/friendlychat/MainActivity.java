@@ -20,27 +20,33 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.os.TraceCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.Editable;
 import android.text.InputFilter;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
 import com.firebase.ui.auth.AuthUI;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.ChildEventListener;
@@ -48,17 +54,12 @@ import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
-import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
+import com.google.firebase.database.Query;
 
-import java.util.ArrayList;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -68,27 +69,50 @@ import timber.log.Timber;
 public class MainActivity extends AppCompatActivity {
 
     public static final String ANONYMOUS = "anonymous";
-    public static final int DEFAULT_MSG_LENGTH_LIMIT = 1000;
     // request codes
     private static final int RC_SIGN_IN = 1001;
     private static final int RC_PHOTO_PICKER = 1002;
     private static final int RC_READ_EXT_STORAGE = 1003;
-    private static final String REMOTE_MSG_LENGTH_KEY = "max_msg_length";
+    private static final int RC_PICK_ROOM = 1004;
+    // rows ahead of the viewport whose photos are preloaded, about half a screen of photos
+    private static final int MAX_PRELOAD_PHOTOS = 6;
 
     @BindView(R.id.progressBar)
     ProgressBar mProgressBar;
-    @BindView(R.id.messageListView)
-    ListView mMessageListView;
+    @BindView(R.id.messageRecyclerView)
+    RecyclerView mMessageRecyclerView;
     @BindView(R.id.photoPickerButton)
     ImageButton mPhotoPickerButton;
     @BindView(R.id.messageEditText)
     EditText mMessageEditText;
     @BindView(R.id.sendButton)
     Button mSendButton;
+    @BindView(R.id.newMessagesButton)
+    Button mNewMessagesButton;
 
     // child event listener
     private ChildEventListener mChildEventListener;
+    // query the child event listener is attached to
+    private Query mLiveMessagesQuery;
+    // server time the live listener was attached, messages sent earlier are not timed
+    private long mLiveSince;
     private MessageAdapter mMessageAdapter;
+    // loads the photos of the rows about to scroll into view
+    private RecyclerViewPreloader<Integer> mPhotoPreloader;
+    private MessagePager mMessagePager;
+    // applies the live messages to the list once per frame
+    private MessageIngestor mMessageIngestor;
+    // messages saved on the device, drawn until the latest page is loaded
+    private LocalMessageStore mLocalMessageStore;
+    private List<FriendlyMessage> mCachedMessages;
+    private LinearLayoutManager mLayoutManager;
+    // room on screen, the only one whose messages are listened to
+    private String mRoomId;
+    private String mMessagesPath;
+    // rows inflated in the background while sign-in and the first query run
+    private MessageRowPool mRowPool;
+    // the messages of the list, trimmed by MemoryBudget
+    private MemoryBudget.Cache mWindowCache;
     private String mUsername;
     // database main access point
     private FirebaseDatabase mFirebaseDatabase;
@@ -97,19 +121,45 @@ public class MainActivity extends AppCompatActivity {
     // auth
     private FirebaseAuth mFirebaseAuth;
     private FirebaseAuth.AuthStateListener mAuthStateListener;
-    // storage
-    private FirebaseStorage mFirebaseStorage;
-    private StorageReference mStorageReference;
-    // remote config
-    private FirebaseRemoteConfig mFirebaseRemoteConfig;
+    // photo uploads, shared with the rest of the process
+    private PhotoUploadQueue mPhotoUploadQueue;
+    private PhotoUploadQueue.Listener mPhotoUploadListener;
+    // sent messages not yet written to the database
+    private MessageOutbox mMessageOutbox;
+    private MessageOutbox.Listener mMessageOutboxListener;
+    // remote config, the values of the last fetch are applied at startup
+    private ChatConfig mChatConfig;
+    private ChatConfig.Listener mChatConfigListener;
+    // the services not needed for the first frame are set up once it is drawn
+    private boolean mDeferredInitDone;
+    private boolean mResumed;
+    private boolean mStartupReported;
+    // when the list was set up for the signed in user, 0 once its first row is drawn
+    private long mSignedInAt;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        TraceCompat.beginSection("MainActivity.onCreate");
+        try {
+            super.onCreate(savedInstanceState);
+            create();
+        } finally {
+            TraceCompat.endSection();
+        }
+        // runs once the first frame is drawn and the main thread is idle
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                initDeferred();
+                return false;
+            }
+        });
+    }
 
-        // plant timber
-        Timber.plant(new Timber.DebugTree());
+    private void create() {
+        TraceCompat.beginSection("setContentView");
+        setContentView(R.layout.activity_main);
+        TraceCompat.endSection();
         Timber.i("onCreate: ");
 
         // bind
@@ -117,24 +167,134 @@ public class MainActivity extends AppCompatActivity {
 
         mUsername = ANONYMOUS;
 
-        // initialize
-        mFirebaseDatabase = FirebaseDatabase.getInstance();
+        mRoomId = ChatRooms.getCurrentRoom(this);
+        mMessagesPath = ChatRooms.messagesPath(mRoomId);
+        setTitle(getString(R.string.room_title, mRoomId));
+        // the first page is precomputed for the rows before any row is measured
+        TextLayoutCache.getInstance().configure(this);
+        // read the saved messages while sign-in is in progress
+        loadCachedMessages();
+
+        // auth decides what the first frame shows, the database is created
+        // when the messages are first read, the other services after the first frame
+        TraceCompat.beginSection("FirebaseAuth.getInstance");
         mFirebaseAuth = FirebaseAuth.getInstance();
-        mFirebaseStorage = FirebaseStorage.getInstance();
-        mFirebaseRemoteConfig = FirebaseRemoteConfig.getInstance();
+        TraceCompat.endSection();
+
+        mPhotoUploadListener = new PhotoUploadQueue.Listener() {
+            @Override
+            public void onQueueChanged(PhotoUploadQueue queue) {
+                showUploadProgress();
+            }
+        };
+        mMessageOutboxListener = new MessageOutbox.Listener() {
+            @Override
+            public void onOutboxChanged(MessageOutbox outbox) {
+                showUploadProgress();
+                if (mMessageAdapter != null) {
+                    mMessageAdapter.setFailedKeys(outbox.getFailedKeys());
+                }
+            }
+        };
 
-        // get a reference to the root node "messages"
-        mMessagesDatabaseReference = mFirebaseDatabase.getReference().child("messages");
-        // get reference to remote folder "chat_photos"
-        mStorageReference = mFirebaseStorage.getReference().child("chat_photos");
 
+        // Initialize message RecyclerView, its adapter is set after the username is set
+        mLayoutManager = new LinearLayoutManager(this);
+        mLayoutManager.setStackFromEnd(true);
+        mMessageRecyclerView.setLayoutManager(mLayoutManager);
+        mMessageRecyclerView.setHasFixedSize(true);
+        mMessageRecyclerView.setRecycledViewPool(MessageAdapter.createViewPool());
+        // a screenful of each row type, the list has no height before its first layout
+        int viewportRows = getResources().getDisplayMetrics().heightPixels
+                / getResources().getDimensionPixelSize(R.dimen.message_min_height) + 1;
+        mRowPool = new MessageRowPool(this, mMessageRecyclerView);
+        mRowPool.prewarm(Math.min(viewportRows, MessageAdapter.MAX_RECYCLED_VIEWS_PER_TYPE),
+                R.layout.message_left, R.layout.message_right);
+        mMessageRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // live messages are only applied while the newest one is in sight
+                mMessageIngestor.setHeld(recyclerView.canScrollVertically(1));
+                if (mMessagePager != null) {
+                    mMessagePager.onScrolled();
+                }
+            }
+        });
 
-        // Initialize message ListView and its adapter
-        //setUpListView(); // move this to after the username is set
+        // times how long received messages wait to be drawn, and the startup
+        mMessageRecyclerView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                mMessageIngestor.onDraw();
+                if (!mStartupReported && mMessageAdapter != null && mMessageAdapter.getItemCount() > 0) {
+                    mStartupReported = true;
+                    long startupMs = FriendlyChatApplication.getUptimeMs();
+                    Timber.i("onDraw: message list drawn %d ms after process start", startupMs);
+                    ChatMetrics.onStartupListDrawn(startupMs);
+                }
+                if (mSignedInAt != 0 && mMessageAdapter != null && mMessageAdapter.getItemCount() > 0) {
+                    ChatMetrics.SIGN_IN_TO_DRAW.record(SystemClock.uptimeMillis() - mSignedInAt);
+                    mSignedInAt = 0;
+                }
+            }
+        });
 
         // Initialize progress bar
         mProgressBar.setVisibility(ProgressBar.INVISIBLE);
 
+        mMessageIngestor = new MessageIngestor(new ChoreographerFrames(), new MessageIngestor.Sink() {
+            @Override
+            public void onBatch(List<FriendlyMessage> batch) {
+                ChatMetrics.onIngested(batch.size());
+                if (mMessagePager != null) {
+                    mMessagePager.appendLive(batch);
+                }
+            }
+
+            @Override
+            public void onBacklogChanged(int count) {
+                if (count == 0) {
+                    mNewMessagesButton.setVisibility(View.GONE);
+                } else {
+                    mNewMessagesButton.setText(getResources().getQuantityString(R.plurals.new_messages, count, count));
+                    mNewMessagesButton.setVisibility(View.VISIBLE);
+                }
+            }
+
+            @Override
+            public void onOverflow(int dropped) {
+                // the pager fetches the dropped messages when the user scrolls down to them
+                if (mMessagePager != null) {
+                    mMessagePager.onLiveDropped();
+                }
+            }
+        }, ChatMetrics.RECEIVE_TO_DRAW);
+
+        mWindowCache = new MemoryBudget.Cache() {
+            @Override
+            public void trim(float keep) {
+                if (mMessageAdapter != null && mMessageAdapter.getItemCount() > 0) {
+                    // only drawn until the first page arrives
+                    mCachedMessages = null;
+                }
+                if (mMessagePager != null) {
+                    mMessagePager.trim(keep);
+                }
+                mMessageIngestor.trim(keep);
+                if (keep < 0.5f) {
+                    mMessageRecyclerView.getRecycledViewPool().clear();
+                }
+            }
+
+            @Override
+            public long getMemorySize() {
+                return mMessageAdapter != null ? mMessageAdapter.getMemorySize() : 0;
+            }
+        };
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(this);
+        memoryBudget.register("message window", mWindowCache);
+        memoryBudget.register("prewarmed rows", mRowPool);
+
         // Enable Send button when there's text to send
         mMessageEditText.addTextChangedListener(new TextWatcher() {
             @Override
@@ -154,8 +314,14 @@ public class MainActivity extends AppCompatActivity {
             public void afterTextChanged(Editable editable) {
             }
         });
-        //mMessageEditText.setFilters(new InputFilter[]{new InputFilter.LengthFilter(DEFAULT_MSG_LENGTH_LIMIT)});
-        applyMsgMaxLenght(DEFAULT_MSG_LENGTH_LIMIT);
+        mChatConfig = ChatConfig.getInstance(this);
+        mChatConfigListener = new ChatConfig.Listener() {
+            @Override
+            public void onConfigChanged(ChatConfig config) {
+                applyMsgMaxLenght((int) config.getLong(ChatConfig.KEY_MSG_LENGTH));
+            }
+        };
+        applyMsgMaxLenght((int) mChatConfig.getLong(ChatConfig.KEY_MSG_LENGTH));
 
 
         // initialize the mAuthStateListener
@@ -186,59 +352,195 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         };
+    }
 
-        // set remote config settings
-        FirebaseRemoteConfigSettings configSettings = new FirebaseRemoteConfigSettings.Builder()
-                .setDeveloperModeEnabled(true)
-                .build();
-        mFirebaseRemoteConfig.setConfigSettings(configSettings);
-
-        Map<String, Object> defaultConfigSettings = new HashMap<>();
-        defaultConfigSettings.put(REMOTE_MSG_LENGTH_KEY, DEFAULT_MSG_LENGTH_LIMIT);
+    // Sets up what the first frame does not need. Also called by the paths
+    // that need these services, in case they run first.
+    private void initDeferred() {
+        if (mDeferredInitDone || isFinishing()) {
+            return;
+        }
+        mDeferredInitDone = true;
+        TraceCompat.beginSection("MainActivity.initDeferred");
+        try {
+            getMessagesReference();
+            // writes the messages left unsent by a previous process
+            getMessageOutbox();
+            // uploads to the remote folder "chat_photos", resumes the ones left by a previous process
+            getPhotoUploadQueue();
+
+            if (mResumed) {
+                onResumeDeferred();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
 
-        mFirebaseRemoteConfig.setDefaults(defaultConfigSettings);
-        //fetchConfig();
+    // The services are also used by paths initDeferred() skipped, e.g. once finishing
+    private MessageOutbox getMessageOutbox() {
+        if (mMessageOutbox == null) {
+            mMessageOutbox = MessageOutbox.getInstance(this);
+        }
+        return mMessageOutbox;
+    }
 
+    private PhotoUploadQueue getPhotoUploadQueue() {
+        if (mPhotoUploadQueue == null) {
+            mPhotoUploadQueue = PhotoUploadQueue.getInstance(this);
+        }
+        return mPhotoUploadQueue;
     }
 
-    private void setUpListView() {
-        List<FriendlyMessage> friendlyMessages = new ArrayList<>();
-        mMessageAdapter = new MessageAdapter(this, R.layout.message_left, R.layout.message_right, friendlyMessages, mUsername);
-        mMessageListView.setAdapter(mMessageAdapter);
+    // The messages of the room on screen, the database is created on first use
+    private DatabaseReference getMessagesReference() {
+        if (mFirebaseDatabase == null) {
+            TraceCompat.beginSection("FirebaseDatabase.getInstance");
+            mFirebaseDatabase = FirebaseDatabase.getInstance();
+            ServerClock.start(mFirebaseDatabase);
+            TraceCompat.endSection();
+        }
+        if (mMessagesDatabaseReference == null) {
+            mMessagesDatabaseReference = mFirebaseDatabase.getReference(mMessagesPath);
+        }
+        return mMessagesDatabaseReference;
     }
 
+    // Reads the saved messages of the room on screen, drawn until the latest
+    // page is loaded. The stores of recently visited rooms are still in memory.
+    private void loadCachedMessages() {
+        final String roomId = mRoomId;
+        mCachedMessages = null;
+        mLocalMessageStore = LocalMessageStore.getInstance(this, roomId);
+        mLocalMessageStore.load(new LocalMessageStore.LoadCallback() {
+            @Override
+            public void onLoaded(List<FriendlyMessage> messages) {
+                if (!roomId.equals(mRoomId)) {
+                    // another room was opened meanwhile
+                    return;
+                }
+                mCachedMessages = messages;
+                showCachedMessages();
+                MessageSearch.getInstance().addAll(roomId, messages);
+            }
+        });
+    }
 
-    private void fetchConfig() {
-        long cacheExpiration = 3600;
-        Timber.d("fetchConfig: begin");
+    // Shows the room, the live listener of the previous one is detached so
+    // only the traffic of the room on screen is received
+    private void switchRoom(String roomId) {
+        if (roomId.equals(mRoomId)) {
+            return;
+        }
+        EventLog.record("room: switching");
+        detachDatabaseReadListener();
+        mMessageIngestor.cancel();
+        mRoomId = roomId;
+        mMessagesPath = ChatRooms.messagesPath(roomId);
+        mMessagesDatabaseReference = null;
+        ChatRooms.setCurrentRoom(this, roomId);
+        setTitle(getString(R.string.room_title, roomId));
+        loadCachedMessages();
+        if (mMessagePager != null) {
+            // signed in, the pager of the previous room is replaced
+            setUpListView();
+        }
+    }
 
-        if (mFirebaseRemoteConfig.getInfo().getConfigSettings().isDeveloperModeEnabled()) {
-            Timber.d("fetchConfig: devModeEnabled");
-            cacheExpiration= 0;
+    private void setUpListView() {
+        TraceCompat.beginSection("MainActivity.setUpListView");
+        try {
+            createListView();
+        } finally {
+            TraceCompat.endSection();
         }
+    }
 
-        mFirebaseRemoteConfig.fetch(cacheExpiration)
-        .addOnSuccessListener(new OnSuccessListener<Void>() {
+    private void createListView() {
+        mMessageAdapter = new MessageAdapter(this, R.layout.message_left, R.layout.message_right, mUsername, mRowPool);
+        mMessageAdapter.setRetryListener(new MessageAdapter.RetryListener() {
             @Override
-            public void onSuccess(Void aVoid) {
-                mFirebaseRemoteConfig.activateFetched();
-                long max_msg_length = mFirebaseRemoteConfig.getLong(REMOTE_MSG_LENGTH_KEY);
-                Timber.d("fetchConfig().onSuccess: max_msg_length  = %s", max_msg_length);
-                applyMsgMaxLenght((int) max_msg_length);
+            public void onRetry(String key) {
+                getMessageOutbox().retry(key);
             }
-        })
-        .addOnFailureListener(new OnFailureListener() {
+        });
+        mMessageAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onFailure(@NonNull Exception e) {
-                Timber.d(e,"fetchConfig().onFailure: ");
-                long max_msg_length = mFirebaseRemoteConfig.getLong(REMOTE_MSG_LENGTH_KEY);
-                applyMsgMaxLenght((int) max_msg_length);
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                // keep the newest message in sight, as the ListView transcript mode did,
+                // unless the user scrolled up to read
+                if (positionStart + itemCount == mMessageAdapter.getItemCount() && !mMessageIngestor.isHeld()) {
+                    mMessageRecyclerView.scrollToPosition(mMessageAdapter.getItemCount() - 1);
+                }
             }
         });
+        // swap keeps the rows already in the shared pool
+        mMessageRecyclerView.swapAdapter(mMessageAdapter, true);
+        if (mPhotoPreloader != null) {
+            mMessageRecyclerView.removeOnScrollListener(mPhotoPreloader);
+        }
+        mPhotoPreloader = new RecyclerViewPreloader<>(GlideApp.with(this), mMessageAdapter, mMessageAdapter,
+                MAX_PRELOAD_PHOTOS);
+        mMessageRecyclerView.addOnScrollListener(mPhotoPreloader);
+
+        if (mMessagePager != null) {
+            mMessagePager.release();
+        }
+        mMessagePager = new MessagePager(new FirebaseMessageSource(getMessagesReference()), mMessageAdapter,
+                new MessagePager.Viewport() {
+                    @Override
+                    public int findFirstVisibleItemPosition() {
+                        return mLayoutManager.findFirstVisibleItemPosition();
+                    }
+
+                    @Override
+                    public int findLastVisibleItemPosition() {
+                        return mLayoutManager.findLastVisibleItemPosition();
+                    }
+                }, mLocalMessageStore, new MessagePager.Callback() {
+                    @Override
+                    public void onNewestLoaded(String newestKey) {
+                        mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+                        attachDatabaseReadListener(newestKey);
+                        // the messages still in the outbox are shown as if already written
+                        initDeferred();
+                        for (FriendlyMessage message : getMessageOutbox().getPendingMessages(mMessagesPath)) {
+                            mMessageIngestor.add(message);
+                        }
+                        mMessageAdapter.setFailedKeys(getMessageOutbox().getFailedKeys());
+                    }
 
+                    @Override
+                    public void onNewestEvicted() {
+                        detachDatabaseReadListener();
+                    }
+
+                    @Override
+                    public void onLatestFailed() {
+                        // the saved messages stay, the pager asks again on resume
+                        mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+                        Toast.makeText(MainActivity.this, R.string.messages_not_loaded, Toast.LENGTH_LONG).show();
+                    }
+                });
+        showCachedMessages();
+        mMessagePager.loadLatest();
+    }
 
+    // Draws the saved messages until the pager delivers the latest page
+    private void showCachedMessages() {
+        if (mMessageAdapter == null || mMessageAdapter.getItemCount() > 0) {
+            return;
+        }
+        if (mCachedMessages == null || mCachedMessages.isEmpty()) {
+            mProgressBar.setVisibility(ProgressBar.VISIBLE);
+            return;
+        }
+        mProgressBar.setVisibility(ProgressBar.INVISIBLE);
+        int from = Math.max(0, mCachedMessages.size() - MessagePager.PAGE_SIZE);
+        mMessageAdapter.setMessages(mCachedMessages.subList(from, mCachedMessages.size()));
     }
 
+
     private void applyMsgMaxLenght(int max_msg_length) {
         mMessageEditText.setFilters(new InputFilter[]{new InputFilter.LengthFilter(max_msg_length)});
     }
@@ -257,58 +559,48 @@ public class MainActivity extends AppCompatActivity {
         } else if (requestCode == RC_PHOTO_PICKER) {
             if (resultCode == RESULT_OK) {
 
+                // uploaded in the background, the photo message is pushed when done
                 Uri imageUri = data.getData();
-                StorageReference imageRef = mStorageReference.child(imageUri.getLastPathSegment());
-
-
-                final UploadTask uploadTask = imageRef.putFile(imageUri);
-
-                uploadTask.addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                    @Override
-                    public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-
-                        // At the time I build this, I am using
-                        // com.google.firebase:firebase-storage:16.0.1
-                        // Apparently you can no longer use taskSnapshot.getDownloadUrl()
-                        // In this version from taskSnapshot .getMetadata().getReference()
-                        // .getDownloadUrl() as asynchronous task:
-                        // first get the task
-                        Task<Uri> downloadUrl = taskSnapshot
-                                .getMetadata()
-                                .getReference()
-                                .getDownloadUrl();
-
-                        // attach a OnSuccessListener<Uri>()
-                        downloadUrl.addOnSuccessListener(new OnSuccessListener<Uri>() {
-                            @Override
-                            public void onSuccess(Uri uri) {
-
-                                // we got the Uri. Push the message
-                                FriendlyMessage friendlyMessage = new FriendlyMessage(
-                                        null, mUsername, uri.toString()
-                                );
-                                mMessagesDatabaseReference.push().setValue(friendlyMessage);
-
-                            }
-                        });
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Timber.e(e, "onFailure: %s", e.getMessage());
-                    }
-                });
-
+                initDeferred();
+                getPhotoUploadQueue().enqueue(imageUri, mUsername, mMessagesPath);
+            }
+        } else if (requestCode == RC_PICK_ROOM) {
+            if (resultCode == RESULT_OK) {
+                switchRoom(data.getStringExtra(RoomsActivity.EXTRA_ROOM_ID));
             }
         }
     }
 
+    // Shows the progress of the photo uploads under the title
+    private void showUploadProgress() {
+        if (getSupportActionBar() == null) {
+            return;
+        }
+        int pending = getPhotoUploadQueue().getPendingCount();
+        int sending = getMessageOutbox().getPendingCount();
+        if (pending > 0) {
+            getSupportActionBar().setSubtitle(getResources().getQuantityString(R.plurals.uploading_photos,
+                    pending, pending, (int) (getPhotoUploadQueue().getProgress() * 100)));
+        } else if (sending > 0) {
+            getSupportActionBar().setSubtitle(getResources().getQuantityString(R.plurals.sending_messages,
+                    sending, sending));
+        } else {
+            getSupportActionBar().setSubtitle(null);
+        }
+    }
+
 
     //
     private void onSignedOutCleanup() {
 
         mUsername = ANONYMOUS;
+        mMessageIngestor.cancel();
+        // the next user may not be in the same rooms
+        MessageSearch.getInstance().clear();
+        if (mMessagePager != null) {
+            mMessagePager.release();
+            mMessagePager = null;
+        }
         if (mMessageAdapter != null) {
             mMessageAdapter.clear();
         }
@@ -318,8 +610,11 @@ public class MainActivity extends AppCompatActivity {
     private void detachDatabaseReadListener() {
 
         if (mChildEventListener != null) {
-            mMessagesDatabaseReference.removeEventListener(mChildEventListener);
+            // the messages already received still belong in the list
+            mMessageIngestor.flush();
+            mLiveMessagesQuery.removeEventListener(mChildEventListener);
             mChildEventListener = null;
+            mLiveMessagesQuery = null;
         }
 
     }
@@ -328,42 +623,98 @@ public class MainActivity extends AppCompatActivity {
     //
     private void onSignedInInitialize(String displayName) {
 
+        if (mMessagePager != null && TextUtils.equals(displayName, mUsername)) {
+            // coming back from onPause, keep the loaded messages and only sync the new ones
+            mMessagePager.resume();
+            return;
+        }
+
         mUsername = displayName;
+        mSignedInAt = SystemClock.uptimeMillis();
+        // the live listener is attached once the latest page is loaded
         setUpListView();
-        attachDatabaseReadListener();
 
     }
 
-    private void attachDatabaseReadListener() {
+    // Listens for messages after newestKey, the history before it is loaded by mMessagePager
+    private void attachDatabaseReadListener(String newestKey) {
 
         if (mChildEventListener == null) {
 
+            final String roomId = mRoomId;
             // initialize the mChildEventListener
             mChildEventListener = new ChildEventListener() {
                 @Override
                 public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-                    FriendlyMessage friendlyMessage = dataSnapshot.getValue(FriendlyMessage.class);
-                    mMessageAdapter.add(friendlyMessage);
+                    // decoded off the main thread, then batched into the list
+                    MessageDecoder.getInstance().decode(dataSnapshot, new MessageDecoder.Callback() {
+                        @Override
+                        public void onDecoded(FriendlyMessage message) {
+                            // the text is measured while the message travels to the list
+                            TextLayoutCache.getInstance().prefetch(message);
+                            MessageSearch.getInstance().add(roomId, message);
+                            ChatMetrics.onMessageReceived(message, mLiveSince);
+                            mMessageIngestor.add(message);
+                        }
+                    });
                 }
 
+                // edits, deletions and moves go through the decoder too, so they are
+                // applied in order with the additions, after the pending batch
+
                 @Override
                 public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+                    MessageDecoder.getInstance().decode(dataSnapshot, new MessageDecoder.Callback() {
+                        @Override
+                        public void onDecoded(FriendlyMessage message) {
+                            TextLayoutCache.getInstance().prefetch(message);
+                            MessageSearch.getInstance().add(roomId, message);
+                            // a message still buffered is edited in the buffer
+                            if (!mMessageIngestor.updatePending(message) && mMessagePager != null) {
+                                mMessagePager.update(message);
+                            }
+                        }
+                    });
                 }
 
                 @Override
                 public void onChildRemoved(DataSnapshot dataSnapshot) {
+                    // only the key is needed, the removed value is not decoded
+                    final String key = dataSnapshot.getKey();
+                    MessageDecoder.getInstance().runAfterPending(new Runnable() {
+                        @Override
+                        public void run() {
+                            MessageSearch.getInstance().remove(key);
+                            if (!mMessageIngestor.removePending(key) && mMessagePager != null) {
+                                mMessagePager.remove(key);
+                            }
+                        }
+                    });
                 }
 
                 @Override
-                public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+                public void onChildMoved(DataSnapshot dataSnapshot, final String previousChildName) {
+                    MessageDecoder.getInstance().decode(dataSnapshot, new MessageDecoder.Callback() {
+                        @Override
+                        public void onDecoded(FriendlyMessage message) {
+                            mMessageIngestor.flush();
+                            if (mMessagePager != null) {
+                                mMessagePager.move(message, previousChildName);
+                            }
+                        }
+                    });
                 }
 
                 @Override
                 public void onCancelled(DatabaseError databaseError) {
                 }
             };
-            // add the listener to the mMessagesDatabaseReference
-            mMessagesDatabaseReference.addChildEventListener(mChildEventListener);
+            // add the listener to the messages after newestKey
+            mLiveMessagesQuery = newestKey == null
+                    ? getMessagesReference().orderByKey()
+                    : getMessagesReference().orderByKey().startAt(newestKey);
+            mLiveSince = ServerClock.now();
+            mLiveMessagesQuery.addChildEventListener(mChildEventListener);
         }
 
     }
@@ -373,9 +724,25 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         mFirebaseAuth.addAuthStateListener(mAuthStateListener);
+        mResumed = true;
+        // the messages pushed meanwhile are in the list now
+        ChatNotifier.getInstance(this).setForeground(true);
+        if (mDeferredInitDone) {
+            onResumeDeferred();
+        }
+    }
+
+    private void onResumeDeferred() {
+        getPhotoUploadQueue().addListener(mPhotoUploadListener);
+        getMessageOutbox().addListener(mMessageOutboxListener);
+        showUploadProgress();
+        if (mMessageAdapter != null) {
+            mMessageAdapter.setFailedKeys(getMessageOutbox().getFailedKeys());
+        }
 
-        // fetch remote configuration
-        fetchConfig();
+        // fetches remote configuration only if the saved values are stale
+        mChatConfig.addListener(mChatConfigListener);
+        mChatConfig.refresh();
     }
 
 
@@ -386,14 +753,31 @@ public class MainActivity extends AppCompatActivity {
         if (mAuthStateListener != null) {
             mFirebaseAuth.removeAuthStateListener(mAuthStateListener);
         }
+        mResumed = false;
+        ChatNotifier.getInstance(this).setForeground(false);
+        if (mDeferredInitDone) {
+            getPhotoUploadQueue().removeListener(mPhotoUploadListener);
+            getMessageOutbox().removeListener(mMessageOutboxListener);
+            mChatConfig.removeListener(mChatConfigListener);
+        }
 
+        // the loaded messages are kept, onResume only fetches the ones sent meanwhile
         detachDatabaseReadListener();
-        if (mMessageAdapter != null) {
-            mMessageAdapter.clear();
+        if (mMessagePager != null) {
+            mMessagePager.pause();
         }
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        MemoryBudget memoryBudget = MemoryBudget.getInstance(this);
+        memoryBudget.unregister(mWindowCache);
+        memoryBudget.unregister(mRowPool);
+        mRowPool.release();
+    }
+
 
     // Send button click
     // Sends the message and clears the EditText
@@ -405,8 +789,12 @@ public class MainActivity extends AppCompatActivity {
         // create a friendlyMessage
         FriendlyMessage friendlyMessage = new FriendlyMessage(message, mUsername, null);
 
-        // use the push method in order to assign a unique ID to the message
-        mMessagesDatabaseReference.push().setValue(friendlyMessage);
+        // the outbox assigns the push ID, so the message is shown before it is written
+        initDeferred();
+        scrollToNewest();
+        getMessageOutbox().send(mMessagesPath, friendlyMessage);
+        mMessageIngestor.add(friendlyMessage);
+        MessageSearch.getInstance().add(mRoomId, friendlyMessage);
 
         // Clear input box
         mMessageEditText.setText("");
@@ -414,6 +802,17 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    // New messages click
+    // Jumps to the newest message and applies the ones held meanwhile
+    @OnClick(R.id.newMessagesButton)
+    void scrollToNewest() {
+        if (mMessageAdapter != null && mMessageAdapter.getItemCount() > 0) {
+            mMessageRecyclerView.scrollToPosition(mMessageAdapter.getItemCount() - 1);
+        }
+        mMessageIngestor.setHeld(false);
+    }
+
+
     // Pick Photo Click
     @OnClick(R.id.photoPickerButton)
     void photoPickerButtonClick() {
@@ -455,6 +854,7 @@ public class MainActivity extends AppCompatActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main_menu, menu);
+        menu.findItem(R.id.metrics_menu).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -467,9 +867,32 @@ public class MainActivity extends AppCompatActivity {
                 // sign out
                 AuthUI.getInstance().signOut(this);
                 return true;
+            case R.id.rooms_menu:
+                startActivityForResult(new Intent(this, RoomsActivity.class), RC_PICK_ROOM);
+                return true;
+            case R.id.search_menu:
+                startActivity(new Intent(this, SearchActivity.class));
+                return true;
+            case R.id.metrics_menu:
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
 
     }
+
+
+    // "adb shell dumpsys activity com.google.firebase.udacity.friendlychat"
+    // prints the metrics and the recent events, in release builds too
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("ChatMetrics:");
+        ChatMetrics.dump(this, writer);
+        writer.print(prefix);
+        writer.println("EventLog:");
+        EventLog.dump(writer);
+    }
 }
@@ -0,0 +1,156 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.MemoryCategory;
+import com.bumptech.glide.load.engine.cache.MemoryCache;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Shrinks the in-memory caches of the chat when the system runs low on
+// memory, so long sessions on small devices are not killed.
+//
+// Every cache registers under a name. On each trim level the budget decides
+// which share of its capacity a cache may keep, see keepShare(), and the
+// cache drops what is least likely needed next: the rows furthest from the
+// viewport, the least recently used layouts or rooms. Glide trims its own
+// caches on the same callbacks; the budget only shrinks their size once the
+// process ran low while in use. The estimated size of every cache is
+// printed by ChatMetrics.dump, see MemorySizes. Caches are trimmed on the main thread.
+public class MemoryBudget implements ComponentCallbacks2 {
+
+    public interface Cache {
+        // Keeps at most keep, 0 to 1, of the capacity of the cache
+        void trim(float keep);
+
+        // Approximate bytes held
+        long getMemorySize();
+    }
+
+    private static MemoryBudget sInstance;
+
+    private final Context mContext;
+    private final LinkedHashMap<String, Cache> mCaches = new LinkedHashMap<>();
+    private int mLastLevel;
+    private int mTrimCount;
+
+    public static synchronized MemoryBudget getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MemoryBudget(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    MemoryBudget(Context context) {
+        this.mContext = context;
+        register("text layouts", TextLayoutCache.getInstance());
+        register("saved messages", LocalMessageStore.MEMORY_CACHE);
+        register("search index", MessageSearch.getInstance());
+        register("images", new Cache() {
+            @Override
+            public void trim(float keep) {
+                // see trim(int)
+            }
+
+            // decoded photos ready to draw; the bitmap pool is bounded by
+            // MyAppGlideModule and not counted
+            @Override
+            public long getMemorySize() {
+                MemoryCache memoryCache = MyAppGlideModule.getMemoryCache();
+                return memoryCache != null ? memoryCache.getCurrentSize() : 0;
+            }
+        });
+    }
+
+    public synchronized void register(String name, Cache cache) {
+        mCaches.put(name, cache);
+    }
+
+    public synchronized void unregister(Cache cache) {
+        mCaches.values().remove(cache);
+    }
+
+    // Share of its capacity a cache keeps at a trim level. While the app is
+    // in use only what is far from the screen goes; once it is in the
+    // background, where the system kills the processes holding the most
+    // memory first, nearly everything goes.
+    static float keepShare(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5f;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        return 0.75f;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void trim(int level) {
+        float keep = keepShare(level);
+        long before = getMemorySize();
+        List<Cache> caches;
+        synchronized (this) {
+            mLastLevel = level;
+            mTrimCount++;
+            caches = new ArrayList<>(mCaches.values());
+        }
+        for (Cache cache : caches) {
+            cache.trim(keep);
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level < TRIM_MEMORY_UI_HIDDEN) {
+            // Glide trims its caches once the app is hidden but not while it
+            // runs low in use, it keeps smaller ones for the rest of the process
+            Glide.get(mContext).setMemoryCategory(MemoryCategory.LOW);
+        }
+        // the share kept follows from the level
+        EventLog.record("memory: trim level %d, %d KB before", level, before / 1024);
+    }
+
+    // Approximate bytes held by all the caches
+    public synchronized long getMemorySize() {
+        long size = 0;
+        for (Cache cache : mCaches.values()) {
+            size += cache.getMemorySize();
+        }
+        return size;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        Runtime runtime = Runtime.getRuntime();
+        writer.printf("memory: heap %d / %d KB, caches %d KB, %d trims, last level %d%n",
+                (runtime.totalMemory() - runtime.freeMemory()) / 1024, runtime.maxMemory() / 1024,
+                getMemorySize() / 1024, mTrimCount, mLastLevel);
+        for (Map.Entry<String, Cache> entry : mCaches.entrySet()) {
+            writer.printf("  %s: %d KB%n", entry.getKey(), entry.getValue().getMemorySize() / 1024);
+        }
+    }
+}
@@ -1,85 +1,372 @@
 package com.google.firebase.udacity.friendlychat;
 
-import android.app.Activity;
 import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder>
+        implements ListPreloader.PreloadModelProvider<Integer>, ListPreloader.PreloadSizeProvider<Integer>,
+        MessagePager.Rows {
 
-import timber.log.Timber;
+    public interface RetryListener {
+        // the user tapped a message the database did not accept
+        void onRetry(String key);
+    }
 
-public class MessageAdapter extends ArrayAdapter<FriendlyMessage> {
+    // messages from other users are shown on the left,
+    // messages from the logged in user on the right
+    static final int VIEW_TYPE_LEFT = 0;
+    static final int VIEW_TYPE_RIGHT = 1;
+    // enough recycled rows of each type to refill the screen after a fling
+    static final int MAX_RECYCLED_VIEWS_PER_TYPE = 12;
 
     private final float IMAGE_WIDTH_RATIO = 0.75f;
-    private String mUsername;
+    private final MessageRowPool mRowPool;
+    private final GlideRequests mGlide;
+    private final MessageList mMessages;
+    private final TextLayoutCache mTextLayouts = TextLayoutCache.getInstance();
+    // width of the photos, known once the first row is created
+    private int mPhotoWidth;
     private int mMessageLeft;
     private int mMessageRight;
+    // messages shown as not sent, see MessageOutbox
+    private Set<String> mFailedKeys = Collections.emptySet();
+    private RetryListener mRetryListener;
 
-    public MessageAdapter(Context context, int messageLeft, int messageRight, List<FriendlyMessage> objects, String username) {
-        super(context, messageLeft, messageRight, objects);
-        this.mUsername = username;
+    public MessageAdapter(Context context, int messageLeft, int messageRight, String username,
+                          MessageRowPool rowPool) {
+        this.mRowPool = rowPool;
+        this.mGlide = GlideApp.with(context);
+        this.mMessages = new MessageList(username);
         this.mMessageLeft = messageLeft;
         this.mMessageRight = messageRight;
     }
 
+    // Pool shared by every adapter set on the message list, so rows inflated
+    // for a previous sign-in are reused instead of inflated again
+    public static RecyclerView.RecycledViewPool createViewPool() {
+        RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+        pool.setMaxRecycledViews(VIEW_TYPE_LEFT, MAX_RECYCLED_VIEWS_PER_TYPE);
+        pool.setMaxRecycledViews(VIEW_TYPE_RIGHT, MAX_RECYCLED_VIEWS_PER_TYPE);
+        return pool;
+    }
+
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
+    public int getItemViewType(int position) {
+        // move msg to right if comes form logged in user
+        // or left if comes from other users
+        return mMessages.isOwnMessage(position) ? VIEW_TYPE_RIGHT : VIEW_TYPE_LEFT;
+    }
 
-        FriendlyMessage message = getItem(position);
+    @NonNull
+    @Override
+    public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        int res = viewType == VIEW_TYPE_RIGHT ? mMessageRight : mMessageLeft;
+        // usually inflated in the background before the list needed it
+        View view = mRowPool.obtain(res, parent);
+        final MessageViewHolder holder = new MessageViewHolder(view);
+        holder.retryClickListener = new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mRetryListener != null) {
+                    mRetryListener.onRetry(mMessages.getKey(position));
+                }
+            }
+        };
+        // the list width does not change between binds, size the photo once per row
+        mPhotoWidth = (int) ((float) parent.getWidth() * IMAGE_WIDTH_RATIO);
+        holder.photoImageView.getLayoutParams().width = mPhotoWidth;
+        return holder;
+    }
 
-        // move msg to left if comes form logged in user
-        // or right if comes from other users
-        boolean isOwnMessage = message.getName().equals(mUsername);
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
+        long start = System.nanoTime();
 
+        String photoUrl = mMessages.getPhotoUrl(position);
 
-        Timber.d("getView: mUsername = %s, message.getName() = %s, isOwnMessage %s",
-                mUsername,
-                message.getName(),
-                isOwnMessage);
+        boolean isPhoto = photoUrl != null;
+        if (isPhoto) {
+            holder.messageTextView.setVisibility(View.GONE);
+            holder.photoImageView.setVisibility(View.VISIBLE);
+            reservePhotoHeight(holder.photoImageView, getPhotoHeight(position));
+            holder.photoRequestedAt = SystemClock.uptimeMillis();
+            photoRequest(position).listener(holder).into(holder.photoImageView);
+        } else {
+            // the row may have shown a photo before being recycled
+            mGlide.clear(holder.photoImageView);
+            holder.messageTextView.setVisibility(View.VISIBLE);
+            holder.photoImageView.setVisibility(View.GONE);
+            // the text was usually precomputed when the message was decoded
+            mTextLayouts.setText(holder.messageTextView, mMessages.getKey(position), mMessages.getText(position));
+        }
+        // only failed rows are clickable, to retry them
+        boolean failed = mFailedKeys.contains(mMessages.getKey(position));
+        if (failed) {
+            holder.authorTextView.setText(R.string.message_not_sent);
+        } else {
+            holder.authorTextView.setText(mMessages.getName(position));
+        }
+        holder.itemView.setOnClickListener(failed ? holder.retryClickListener : null);
+        holder.itemView.setClickable(failed);
+        ChatMetrics.BIND.record((System.nanoTime() - start) / 1000);
+    }
+
+    // Request for the photo of the row at its display size. Binding and
+    // preloading use the same request, so preloaded photos are memory cache hits.
+    private GlideRequest<Drawable> photoRequest(int position) {
+        int height = getPhotoHeight(position);
+        GlideRequest<Drawable> request = mGlide.load(mMessages.getPhotoUrl(position));
+        // the small version is shown while the display version loads
+        String thumbnailUrl = mMessages.getThumbnailUrl(position);
+        GlideRequest<Drawable> thumbnailRequest = thumbnailUrl == null ? null : mGlide.load(thumbnailUrl).fitCenter();
+        if (height > 0) {
+            request = request.override(mPhotoWidth, height);
+            if (thumbnailRequest != null) {
+                thumbnailRequest = thumbnailRequest.override(mPhotoWidth, height);
+            }
+        }
+        return request
+                .thumbnail(thumbnailRequest)
+                .placeholder(android.R.drawable.ic_media_pause)
+                .error(android.R.drawable.ic_dialog_alert)
+                .fitCenter();
+    }
 
+    // Height of the photo of the row at mPhotoWidth, 0 if the photo has no recorded size
+    private int getPhotoHeight(int position) {
+        int photoWidth = mMessages.getPhotoWidth(position);
+        int photoHeight = mMessages.getPhotoHeight(position);
+        return photoWidth > 0 && photoHeight > 0 ? (int) ((long) mPhotoWidth * photoHeight / photoWidth) : 0;
+    }
 
-        int res;
-        if (isOwnMessage) {
-            Timber.d("getView: right");
-            res = mMessageRight;
-        } else {
-            Timber.d("getView: left");
-            res = mMessageLeft;
+    // Sizes the photo for its aspect ratio before it loads, so the row is laid
+    // out once. Photos sent before the size was recorded wrap their content.
+    private static void reservePhotoHeight(ImageView photoImageView, int photoHeight) {
+        ViewGroup.LayoutParams params = photoImageView.getLayoutParams();
+        int height = photoHeight > 0 ? photoHeight : ViewGroup.LayoutParams.WRAP_CONTENT;
+        if (params.height != height) {
+            params.height = height;
+            photoImageView.setLayoutParams(params);
         }
+    }
 
+    @Override
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        // release the bitmap while the row waits in the pool
+        mGlide.clear(holder.photoImageView);
+    }
+
+    // Rows ahead of the scroll position are preloaded at their display size.
+    // Only photos with a recorded size are preloaded, the size of the others
+    // is known once they are laid out.
+    @NonNull
+    @Override
+    public List<Integer> getPreloadItems(int position) {
+        if (mPhotoWidth == 0 || position >= mMessages.size()
+                || mMessages.getPhotoUrl(position) == null || getPhotoHeight(position) == 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(position);
+    }
+
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Integer position) {
+        return photoRequest(position);
+    }
+
+    @Override
+    public int[] getPreloadSize(@NonNull Integer position, int adapterPosition, int perItemPosition) {
+        return new int[]{mPhotoWidth, getPhotoHeight(position)};
+    }
 
-        convertView = ((Activity) getContext()).getLayoutInflater().inflate(res, parent, false);
+    @Override
+    public int getItemCount() {
+        return mMessages.size();
+    }
 
+    public FriendlyMessage getItem(int position) {
+        return mMessages.get(position);
+    }
 
-        ImageView photoImageView = convertView.findViewById(R.id.photoImageView);
-        TextView messageTextView = convertView.findViewById(R.id.messageTextView);
-        TextView authorTextView = convertView.findViewById(R.id.nameTextView);
+    @Override
+    public String getKey(int position) {
+        return mMessages.getKey(position);
+    }
 
+    public void setRetryListener(RetryListener listener) {
+        mRetryListener = listener;
+    }
 
-        boolean isPhoto = message.getPhotoUrl() != null;
-        if (isPhoto) {
-            messageTextView.setVisibility(View.GONE);
-            photoImageView.setVisibility(View.VISIBLE);
-            int chatWidth = parent.getWidth();
-            photoImageView.getLayoutParams().width = (int) ((float) chatWidth * IMAGE_WIDTH_RATIO);
-            photoImageView.requestLayout();
-            GlideApp.with(photoImageView.getContext())
-                    .load(message.getPhotoUrl())
-                    .placeholder(android.R.drawable.ic_media_pause)
-                    .error(android.R.drawable.ic_dialog_alert)
-                    .fitCenter()
-                    .into(photoImageView);
-        } else {
-            messageTextView.setVisibility(View.VISIBLE);
-            photoImageView.setVisibility(View.GONE);
-            messageTextView.setText(message.getText());
+    // Rebinds the rows whose message failed or stopped failing
+    public void setFailedKeys(Set<String> failedKeys) {
+        Set<String> changed = new HashSet<>(mFailedKeys);
+        changed.addAll(failedKeys);
+        for (String key : changed) {
+            if (mFailedKeys.contains(key) != failedKeys.contains(key)) {
+                int position = mMessages.indexOf(key);
+                if (position >= 0) {
+                    notifyItemChanged(position);
+                }
+            }
         }
-        authorTextView.setText(message.getName());
+        mFailedKeys = failedKeys;
+    }
+
+    public long getMemorySize() {
+        return mMessages.getMemorySize();
+    }
+
+    @Override
+    public void addAll(int position, List<FriendlyMessage> messages) {
+        mMessages.addAll(position, messages);
+        notifyItemRangeInserted(position, messages.size());
+    }
+
+    // Inserts the message at its key order position
+    @Override
+    public void insert(FriendlyMessage message) {
+        String key = message.getKey();
+        int low = 0;
+        int high = mMessages.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mMessages.getKey(middle).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        mMessages.addAll(low, Collections.singletonList(message));
+        notifyItemInserted(low);
+    }
+
+    // Replaces the message with the same key, returns false if it is not in the list
+    @Override
+    public boolean update(FriendlyMessage message) {
+        int position = mMessages.indexOf(message.getKey());
+        if (position < 0) {
+            return false;
+        }
+        if (mMessages.sameContent(position, message)) {
+            // e.g. the echo of a message shown before it was written
+            return true;
+        }
+        mMessages.set(position, message);
+        notifyItemChanged(position);
+        return true;
+    }
+
+    @Override
+    public boolean remove(String key) {
+        int position = mMessages.indexOf(key);
+        if (position < 0) {
+            return false;
+        }
+        mMessages.remove(position);
+        notifyItemRemoved(position);
+        return true;
+    }
+
+    // Moves the message after previousKey, or to the top if previousKey is null.
+    // Only queries ordered by child or priority move children, so this takes
+    // the slow path of MessageList and rebuilds it.
+    @Override
+    public void move(FriendlyMessage message, String previousKey) {
+        int from = mMessages.indexOf(message.getKey());
+        if (from < 0) {
+            return;
+        }
+        mMessages.remove(from);
+        int to = previousKey == null ? 0 : mMessages.indexOf(previousKey) + 1;
+        mMessages.addAll(to, Collections.singletonList(message));
+        notifyItemMoved(from, to);
+        notifyItemChanged(to);
+    }
+
+    @Override
+    public void removeRange(int position, int count) {
+        mMessages.removeRange(position, count);
+        notifyItemRangeRemoved(position, count);
+    }
+
+    public void clear() {
+        int count = mMessages.size();
+        mMessages.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    // Replaces the content of the list, notifying only the rows that differ
+    @Override
+    public void setMessages(List<FriendlyMessage> messages) {
+        // the diff reads the current rows, so it runs before they are replaced
+        MessageDiff diff = MessageDiff.calculate(mMessages, messages);
+        mMessages.clear();
+        mMessages.addAll(0, messages);
+        diff.dispatchTo(new MessageDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
 
-        return convertView;
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+    }
+
+    static class MessageViewHolder extends RecyclerView.ViewHolder implements RequestListener<Drawable> {
+
+        final ImageView photoImageView;
+        final TextView messageTextView;
+        final TextView authorTextView;
+        // when the photo of the bound row was requested, for ChatMetrics.IMAGE_LOAD
+        long photoRequestedAt;
+        View.OnClickListener retryClickListener;
+
+        MessageViewHolder(View itemView) {
+            super(itemView);
+            photoImageView = itemView.findViewById(R.id.photoImageView);
+            messageTextView = itemView.findViewById(R.id.messageTextView);
+            authorTextView = itemView.findViewById(R.id.nameTextView);
+        }
+
+        @Override
+        public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target,
+                                       DataSource dataSource, boolean isFirstResource) {
+            ChatMetrics.IMAGE_LOAD.record(SystemClock.uptimeMillis() - photoRequestedAt);
+            return false;
+        }
+
+        @Override
+        public boolean onLoadFailed(GlideException e, Object model, Target<Drawable> target,
+                                    boolean isFirstResource) {
+            return false;
+        }
     }
 }
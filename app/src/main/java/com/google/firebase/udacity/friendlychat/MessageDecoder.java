@@ -0,0 +1,95 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Decodes snapshots with FriendlyMessageCodec on a background thread and
+// delivers the finished messages on the main thread. A single thread is used
+// so results are delivered in the order the snapshots were received.
+public class MessageDecoder {
+
+    public interface Callback {
+        void onDecoded(FriendlyMessage message);
+    }
+
+    public interface PageCallback {
+        void onDecoded(List<FriendlyMessage> page);
+    }
+
+    private static MessageDecoder sInstance;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public static synchronized MessageDecoder getInstance() {
+        if (sInstance == null) {
+            sInstance = new MessageDecoder();
+        }
+        return sInstance;
+    }
+
+    // Snapshots that do not hold a message are dropped
+    public void decode(final DataSnapshot dataSnapshot, final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FriendlyMessage message =
+                        FriendlyMessageCodec.decode(dataSnapshot.getKey(), dataSnapshot.getValue());
+                if (message == null) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDecoded(message);
+                    }
+                });
+            }
+        });
+    }
+
+    // Runs task on the main thread after the snapshots queued before it are
+    // delivered, for changes that need no decoding
+    public void runAfterPending(final Runnable task) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMainHandler.post(task);
+            }
+        });
+    }
+
+    // Decodes the children of a page in key order, skipping anchorKey
+    public void decodePage(final DataSnapshot dataSnapshot, @Nullable final String anchorKey,
+                           final PageCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<FriendlyMessage> page = new ArrayList<>((int) dataSnapshot.getChildrenCount());
+                for (DataSnapshot child : dataSnapshot.getChildren()) {
+                    if (child.getKey().equals(anchorKey)) {
+                        continue;
+                    }
+                    FriendlyMessage message = FriendlyMessageCodec.decode(child.getKey(), child.getValue());
+                    if (message != null) {
+                        page.add(message);
+                    }
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDecoded(page);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,357 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import timber.log.Timber;
+
+// Messages sent by this device and not yet acknowledged by the database.
+//
+// A sent message gets its push key right away, so the list can show it
+// before it is written, and is saved in shared preferences until the
+// database acknowledges it. Messages sent close together are written by one
+// multi-path updateChildren, one round trip for the batch, together with
+// the summary of their rooms in the room index. A batch that failed for a
+// transient reason, e.g. the server was unavailable, is retried with
+// jittered exponential backoff, up to MAX_ATTEMPTS times. A batch the
+// database rejected, or that kept failing, is split in halves until the
+// message at fault is written alone; that message is marked failed and
+// kept, so the list shows it as not sent until the user retries it, and
+// the messages after it are written. Writing a message again under the
+// same key is harmless, so a batch interrupted by process death is simply
+// written again by the next process. Only used on the main thread.
+public class MessageOutbox {
+
+    public interface Listener {
+        // called whenever messages are queued or acknowledged
+        void onOutboxChanged(MessageOutbox outbox);
+    }
+
+    // wait this long after a send for more messages to write with it
+    private static final long BATCH_DELAY_MS = 100;
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 1000;
+    // transient failures of a batch before it is split
+    static final int MAX_ATTEMPTS = 6;
+
+    private static final String PREFS_NAME = "outbox";
+    private static final String PREF_MESSAGES = "messages";
+
+    private static MessageOutbox sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final DatabaseReference mRoot;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    // messages of the batch being written
+    private int mInFlight;
+    private int mFailedAttempts;
+    // halved while a failed batch is split, doubled back by every written batch
+    private int mBatchLimit = MAX_BATCH_SIZE;
+
+    // metrics
+    private long mAcknowledgedCount;
+    private long mBatchCount;
+    private long mFailedBatchCount;
+    private long mLastFlushLatencyMs;
+    private long mTotalFlushLatencyMs;
+
+    public static synchronized MessageOutbox getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MessageOutbox(context.getApplicationContext(),
+                    FirebaseDatabase.getInstance().getReference());
+        }
+        return sInstance;
+    }
+
+    MessageOutbox(Context context, DatabaseReference root) {
+        this.mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.mRoot = root;
+        restore();
+        if (!mEntries.isEmpty()) {
+            flush();
+        }
+    }
+
+    // Queues message for messagesPath and sets its push key, so the caller
+    // can show it right away
+    public void send(String messagesPath, FriendlyMessage message) {
+        message.setKey(mRoot.child(messagesPath).push().getKey());
+        if (message.getSentAt() == 0) {
+            message.setSentAt(ServerClock.now());
+        }
+        Entry entry = new Entry();
+        entry.path = messagesPath + "/" + message.getKey();
+        entry.message = message;
+        entry.queuedAt = SystemClock.elapsedRealtime();
+        mEntries.add(entry);
+        save();
+        notifyChanged();
+        if (mInFlight == 0 && mFailedAttempts == 0) {
+            mMainHandler.removeCallbacks(mFlushRunnable);
+            mMainHandler.postDelayed(mFlushRunnable, BATCH_DELAY_MS);
+        }
+    }
+
+    // Messages in the outbox, the one being written included
+    public List<FriendlyMessage> getPendingMessages(String messagesPath) {
+        String prefix = messagesPath + "/";
+        List<FriendlyMessage> messages = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (entry.path.startsWith(prefix)) {
+                messages.add(entry.message);
+            }
+        }
+        return messages;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // Queue depth, messages not yet acknowledged and not failed
+    public int getPendingCount() {
+        return mEntries.size() - getFailedKeys().size();
+    }
+
+    // Keys of the messages the database did not accept, shown as not sent
+    public Set<String> getFailedKeys() {
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : mEntries) {
+            if (entry.failed) {
+                keys.add(entry.message.getKey());
+            }
+        }
+        return keys;
+    }
+
+    // Writes the failed message with this key again
+    public void retry(String key) {
+        for (Entry entry : mEntries) {
+            if (entry.failed && entry.message.getKey().equals(key)) {
+                entry.failed = false;
+                save();
+                notifyChanged();
+                if (mInFlight == 0 && mFailedAttempts == 0) {
+                    flush();
+                }
+                return;
+            }
+        }
+    }
+
+    public long getAcknowledgedCount() {
+        return mAcknowledgedCount;
+    }
+
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    public long getFailedBatchCount() {
+        return mFailedBatchCount;
+    }
+
+    // Time from send to acknowledgement of the last batch, in milliseconds
+    public long getLastFlushLatencyMs() {
+        return mLastFlushLatencyMs;
+    }
+
+    // Average time from send to acknowledgement, in milliseconds
+    public long getAverageFlushLatencyMs() {
+        return mAcknowledgedCount == 0 ? 0 : mTotalFlushLatencyMs / mAcknowledgedCount;
+    }
+
+    // Writes the oldest messages not failed in one updateChildren
+    private void flush() {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        if (mInFlight > 0) {
+            return;
+        }
+        final List<Entry> batch = new ArrayList<>();
+        Map<String, Object> updates = new HashMap<>();
+        for (int i = 0; i < mEntries.size() && batch.size() < mBatchLimit; i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.failed) {
+                continue;
+            }
+            batch.add(entry);
+            updates.put(entry.path, FriendlyMessageCodec.encode(entry.message));
+            // the room index shows the last message of the batch
+            String messagesPath = entry.path.substring(0, entry.path.lastIndexOf('/'));
+            ChatRooms.putSummary(updates, ChatRooms.roomOf(messagesPath), entry.message);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        final int count = batch.size();
+        mInFlight = count;
+        mBatchCount++;
+        EventLog.record("outbox: writing %d of %d messages", count, mEntries.size());
+        mRoot.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                mInFlight = 0;
+                if (databaseError != null) {
+                    onBatchFailed(batch, databaseError);
+                    return;
+                }
+                mFailedAttempts = 0;
+                mBatchLimit = Math.min(MAX_BATCH_SIZE, mBatchLimit * 2);
+                EventLog.record("outbox: %d messages acknowledged", count);
+                long now = SystemClock.elapsedRealtime();
+                for (Entry entry : batch) {
+                    long latency = now - entry.queuedAt;
+                    mTotalFlushLatencyMs += latency;
+                    mLastFlushLatencyMs = latency;
+                    ChatMetrics.SEND_TO_ACK.record(latency);
+                }
+                mAcknowledgedCount += count;
+                mEntries.removeAll(batch);
+                save();
+                notifyChanged();
+                flush();
+            }
+        });
+    }
+
+    private void onBatchFailed(List<Entry> batch, DatabaseError databaseError) {
+        mFailedBatchCount++;
+        mFailedAttempts++;
+        if (isTransient(databaseError) && mFailedAttempts < MAX_ATTEMPTS) {
+            long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(mFailedAttempts - 1, 16));
+            // half of the delay is jittered, so clients that failed together do not retry together
+            delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+            Timber.w(databaseError.toException(), "onBatchFailed: retrying in %d ms", delay);
+            mMainHandler.postDelayed(mFlushRunnable, delay);
+            return;
+        }
+        mFailedAttempts = 0;
+        if (batch.size() > 1) {
+            // one message may be at fault, the halves are written separately
+            mBatchLimit = batch.size() / 2;
+            EventLog.record("outbox: splitting a failed batch of %d messages", batch.size());
+        } else {
+            Entry entry = batch.get(0);
+            entry.failed = true;
+            mBatchLimit = MAX_BATCH_SIZE;
+            Timber.w(databaseError.toException(), "onBatchFailed: %s not sent", entry.path);
+            save();
+            notifyChanged();
+        }
+        flush();
+    }
+
+    // Failures that writing the same data again can get past. Rejections by
+    // the security rules, e.g. of a message too long, are not.
+    private static boolean isTransient(DatabaseError databaseError) {
+        switch (databaseError.getCode()) {
+            case DatabaseError.PERMISSION_DENIED:
+            case DatabaseError.INVALID_TOKEN:
+            case DatabaseError.USER_CODE_EXCEPTION:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onOutboxChanged(this);
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : mEntries) {
+                array.put(new JSONObject()
+                        .put("path", entry.path)
+                        .put("failed", entry.failed)
+                        .put("message", new JSONObject(FriendlyMessageCodec.encode(entry.message))));
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "save: failed");
+            return;
+        }
+        mPrefs.edit().putString(PREF_MESSAGES, array.toString()).apply();
+    }
+
+    private void restore() {
+        String saved = mPrefs.getString(PREF_MESSAGES, null);
+        if (saved == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        try {
+            JSONArray array = new JSONArray(saved);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                Entry entry = new Entry();
+                entry.path = json.getString("path");
+                entry.message = FriendlyMessageCodec.decode(
+                        entry.path.substring(entry.path.lastIndexOf('/') + 1), toMap(json.getJSONObject("message")));
+                entry.failed = json.optBoolean("failed");
+                // latency is counted from the restart, the send time did not survive the process
+                entry.queuedAt = now;
+                mEntries.add(entry);
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "restore: discarding saved messages");
+        }
+        Timber.d("restore: %d messages", mEntries.size());
+    }
+
+    private static Map<String, Object> toMap(JSONObject json) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, json.get(key));
+        }
+        return map;
+    }
+
+    private static class Entry {
+        // messagesPath/key
+        String path;
+        FriendlyMessage message;
+        long queuedAt;
+        // rejected by the database, waits for retry()
+        boolean failed;
+    }
+}
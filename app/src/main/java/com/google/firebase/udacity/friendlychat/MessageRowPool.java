@@ -0,0 +1,115 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+
+// Rows of the message list inflated on a background thread before the list
+// needs them, so the first screenful is not inflated on the main thread
+// while sign-in and the first query complete. Rows the pool does not have
+// yet are inflated on the main thread as before. Only used on the main
+// thread.
+//
+// AsyncLayoutInflater does not go through the AppCompat view factory, so
+// the rows must only hold framework and custom views.
+public class MessageRowPool implements MemoryBudget.Cache {
+
+    private static final int MAX_IN_FLIGHT = 4;
+    // a row of a few views, roughly
+    private static final int ROW_SIZE = 4 * 1024;
+
+    private final LayoutInflater mInflater;
+    private final AsyncLayoutInflater mAsyncInflater;
+    private final ViewGroup mParent;
+    private final SparseArray<ArrayList<View>> mRows = new SparseArray<>();
+    // layouts waiting to be handed to mAsyncInflater
+    private final ArrayList<Integer> mQueued = new ArrayList<>();
+    private final AsyncLayoutInflater.OnInflateFinishedListener mInflateListener =
+            new AsyncLayoutInflater.OnInflateFinishedListener() {
+                @Override
+                public void onInflateFinished(@NonNull View view, int resid, @Nullable ViewGroup parent) {
+                    mInFlight--;
+                    if (mReleased) {
+                        return;
+                    }
+                    ArrayList<View> rows = mRows.get(resid);
+                    if (rows == null) {
+                        rows = new ArrayList<>();
+                        mRows.put(resid, rows);
+                    }
+                    rows.add(view);
+                    inflateQueued();
+                }
+            };
+    private int mInFlight;
+    private boolean mReleased;
+
+    // parent is the list, it provides the layout params of the rows
+    public MessageRowPool(Context context, ViewGroup parent) {
+        this.mInflater = LayoutInflater.from(context);
+        this.mAsyncInflater = new AsyncLayoutInflater(context);
+        this.mParent = parent;
+    }
+
+    // Inflates count rows of each layout in the background, alternating so
+    // every row type is ready early
+    public void prewarm(int count, int... layoutResIds) {
+        for (int i = 0; i < count; i++) {
+            for (int layoutResId : layoutResIds) {
+                mQueued.add(layoutResId);
+            }
+        }
+        inflateQueued();
+    }
+
+    // The inflater blocks the caller once its queue is full, so only a few
+    // requests are handed to it at a time
+    private void inflateQueued() {
+        while (mInFlight < MAX_IN_FLIGHT && !mQueued.isEmpty() && !mReleased) {
+            mInFlight++;
+            mAsyncInflater.inflate(mQueued.remove(0), mParent, mInflateListener);
+        }
+    }
+
+    // A prewarmed row of layoutResId, or one inflated now if none is ready
+    public View obtain(int layoutResId, ViewGroup parent) {
+        ArrayList<View> rows = mRows.get(layoutResId);
+        if (rows != null && !rows.isEmpty()) {
+            ChatMetrics.onRowCreated(true);
+            return rows.remove(rows.size() - 1);
+        }
+        ChatMetrics.onRowCreated(false);
+        return mInflater.inflate(layoutResId, parent, false);
+    }
+
+    // Drops the prewarmed rows, including the ones still being inflated
+    public void release() {
+        mReleased = true;
+        mQueued.clear();
+        mRows.clear();
+    }
+
+    // The rows not taken yet are dropped under any pressure, the list
+    // inflates the ones it still needs
+    @Override
+    public void trim(float keep) {
+        mQueued.clear();
+        mRows.clear();
+    }
+
+    @Override
+    public long getMemorySize() {
+        int count = 0;
+        for (int i = 0; i < mRows.size(); i++) {
+            count += mRows.valueAt(i).size();
+        }
+        return (long) count * ROW_SIZE;
+    }
+}
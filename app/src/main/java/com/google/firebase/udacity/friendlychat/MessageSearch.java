@@ -0,0 +1,127 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Search over the messages saved on the device and the ones received by
+// this process, in every room. The SearchIndex is updated as messages are
+// decoded and queried on a background thread; results are delivered on the
+// main thread as rooms and keys, see SearchActivity for reading the
+// messages. The index is capped, trimmed by MemoryBudget and cleared on
+// sign-out.
+public class MessageSearch implements MemoryBudget.Cache {
+
+    public interface Callback {
+        void onResults(String query, List<SearchIndex.Hit> results);
+    }
+
+    private static MessageSearch sInstance;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // only touched on mExecutor
+    private final SearchIndex mIndex = new SearchIndex();
+    // queries waiting behind a newer one are skipped
+    private final AtomicInteger mLastQuery = new AtomicInteger();
+    // size of mIndex after the last update
+    private volatile long mMemorySize;
+
+    public static synchronized MessageSearch getInstance() {
+        if (sInstance == null) {
+            sInstance = new MessageSearch();
+        }
+        return sInstance;
+    }
+
+    // Indexes the message of the room or replaces its previous version, from any thread
+    public void add(final String roomId, final FriendlyMessage message) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.put(roomId, message);
+                mMemorySize = mIndex.getMemorySize();
+            }
+        });
+    }
+
+    public void addAll(final String roomId, final List<FriendlyMessage> messages) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (FriendlyMessage message : messages) {
+                    mIndex.put(roomId, message);
+                }
+                mMemorySize = mIndex.getMemorySize();
+            }
+        });
+    }
+
+    public void remove(final String key) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.remove(key);
+                mMemorySize = mIndex.getMemorySize();
+            }
+        });
+    }
+
+    // Forgets every message, e.g. when the user signs out
+    public void clear() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.clear();
+                mMemorySize = 0;
+            }
+        });
+    }
+
+    // The earliest indexed messages go first
+    @Override
+    public void trim(final float keep) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.trim(keep);
+                mMemorySize = mIndex.getMemorySize();
+            }
+        });
+    }
+
+    @Override
+    public long getMemorySize() {
+        return mMemorySize;
+    }
+
+    // Finds the best limit messages matching query, see SearchIndex. Only
+    // the last query asked is answered.
+    public void search(final String query, final int limit, final Callback callback) {
+        final int id = mLastQuery.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (id != mLastQuery.get()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                final List<SearchIndex.Hit> results = mIndex.search(query, limit);
+                ChatMetrics.SEARCH.record((System.nanoTime() - start) / 1000);
+                EventLog.record("search: %d results out of %d messages", results.size(), mIndex.size());
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (id == mLastQuery.get()) {
+                            callback.onResults(query, results);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
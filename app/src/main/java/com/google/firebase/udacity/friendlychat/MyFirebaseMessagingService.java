@@ -1,29 +1,59 @@
 package com.google.firebase.udacity.friendlychat;
 
-import android.util.Log;
-
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import java.util.Map;
+
 import timber.log.Timber;
 
+// A data message announcing a chat message carries the message itself: its
+// push ID under DATA_KEY, its room under DATA_ROOM, absent for the default
+// room, and the fields written by FriendlyMessageCodec, numbers as strings.
+// The message is saved to LocalMessageStore, so the list shows it as soon
+// as MainActivity opens, and notified by ChatNotifier.
 public class MyFirebaseMessagingService extends FirebaseMessagingService {
 
-    private String TAG = "MyFirebaseMessagingService";
+    static final String DATA_KEY = "key";
+    static final String DATA_ROOM = "room";
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
         super.onMessageReceived(remoteMessage);
 
-        Timber.d("onMessageReceived: from: %s", remoteMessage.getFrom());
+        // runs for every push, release builds skip even the varargs
+        if (BuildConfig.DEBUG) {
+            Timber.d("onMessageReceived: from: %s", remoteMessage.getFrom());
+        }
 
-        if (remoteMessage.getData().size() > 0) {
-            Timber.d("onMessageReceived: payload: %s", remoteMessage.getData());
+        Map<String, String> data = remoteMessage.getData();
+        String key = data.get(DATA_KEY);
+        FriendlyMessage message = key == null ? null : FriendlyMessageCodec.decode(key, data);
+        String roomId = data.get(DATA_ROOM) != null ? data.get(DATA_ROOM) : ChatRooms.DEFAULT_ROOM;
+        // the room names a local file, only ids ChatRooms could have made are accepted
+        if (message != null && !roomId.equals(ChatRooms.roomId(roomId))) {
+            Timber.w("onMessageReceived: dropped, invalid room %s", roomId);
+        } else if (message != null) {
+            LocalMessageStore.getInstance(this, roomId).put(message);
+            MessageSearch.getInstance().add(roomId, message);
+            if (!isOwnMessage(message)) {
+                ChatNotifier.getInstance(this).onMessage(message);
+            }
+        } else if (BuildConfig.DEBUG && data.size() > 0) {
+            Timber.d("onMessageReceived: payload: %s", data);
         }
 
-        if (remoteMessage.getNotification() != null) {
+        if (BuildConfig.DEBUG && remoteMessage.getNotification() != null) {
             Timber.d("onMessageReceived: notification %s", remoteMessage.getNotification().getBody());
         }
 
     }
+
+    // the room's pushes reach the sender's devices too
+    private static boolean isOwnMessage(FriendlyMessage message) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user != null && user.getDisplayName() != null && user.getDisplayName().equals(message.getName());
+    }
 }
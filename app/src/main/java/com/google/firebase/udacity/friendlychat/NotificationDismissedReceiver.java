@@ -0,0 +1,14 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+// The delete intent of the ChatNotifier notification, run on the main thread
+public class NotificationDismissedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        ChatNotifier.getInstance(context).clear();
+    }
+}
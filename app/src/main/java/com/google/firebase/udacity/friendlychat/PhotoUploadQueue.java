@@ -0,0 +1,368 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.firebase.storage.FirebaseStorage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+// Uploads chat photos in the background of the process, independently of
+// the Activity that picked them, and sends the photo message through the
+// MessageOutbox once the upload is done.
+//
+// Picked images are copied into app storage, re-encoded by ImageProcessor
+// into a display version and a thumbnail, and the queue is saved in shared
+// preferences, so uploads survive process death and the loss of the content
+// uri permission. The uploads themselves are run by UploadScheduler: the
+// thumbnail before the display version, at most MAX_PARALLEL_UPLOADS at
+// once, failed uploads retried with jittered exponential backoff, resuming
+// the storage session they started.
+//
+// Storage objects are named by the ContentHash of the picked file, taken while
+// it is copied. A picture this device already sent is found in the
+// UploadedPhotoIndex and sent without uploading, and a part already in
+// storage, e.g. sent from another device, is looked up instead of uploaded.
+public class PhotoUploadQueue {
+
+    public interface Listener {
+        // called on the main thread whenever an upload starts, progresses or ends
+        void onQueueChanged(PhotoUploadQueue queue);
+    }
+
+    private static final String PREFS_NAME = "photo_uploads";
+    private static final String PREF_UPLOADS = "uploads";
+    private static final String UPLOAD_DIR = "uploads";
+    private static final String THUMBNAIL_DIR = "thumbnails/";
+
+    private static PhotoUploadQueue sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private final UploadedPhotoIndex mIndex;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // copies picked images into app storage
+    private final ExecutorService mIoExecutor = Executors.newSingleThreadExecutor();
+    private final UploadScheduler mScheduler;
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    // photos sent again without uploading them, see also the scheduler's
+    private int mReusedCount;
+    private long mBytesSaved;
+
+    public static synchronized PhotoUploadQueue getInstance(Context context) {
+        if (sInstance == null) {
+            StorageBackend backend = new FirebaseStorageBackend(
+                    FirebaseStorage.getInstance().getReference().child("chat_photos"));
+            sInstance = new PhotoUploadQueue(context.getApplicationContext(), backend,
+                    new UploadedPhotoIndex(context.getApplicationContext()));
+        }
+        return sInstance;
+    }
+
+    PhotoUploadQueue(Context context, StorageBackend backend, UploadedPhotoIndex index) {
+        this.mContext = context;
+        this.mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.mIndex = index;
+        this.mScheduler = new UploadScheduler(backend, new MainThreadTimer(), new Random(), new UploadScheduler.Callback() {
+            @Override
+            public void onUploadsChanged() {
+                save();
+            }
+
+            @Override
+            public void onProgress() {
+                notifyChanged();
+            }
+
+            @Override
+            public void onUploaded(UploadScheduler.Upload upload, String downloadUrl) {
+                UploadedPhotoIndex.Entry entry = new UploadedPhotoIndex.Entry(
+                        downloadUrl, upload.thumbnailUrl, upload.width, upload.height);
+                if (upload.hash != null) {
+                    mIndex.put(upload.hash, entry);
+                }
+                pushMessage(upload.messagesPath, upload.author, entry);
+                deleteFiles(upload);
+            }
+
+            @Override
+            public void onRetry(UploadScheduler.Upload upload, Exception e, long delayMs) {
+                Timber.w(e, "onRetry: %s, retrying in %d ms", upload.id, delayMs);
+            }
+
+            @Override
+            public void onDropped(UploadScheduler.Upload upload, Exception e) {
+                Timber.e(e, "onDropped: giving up on %s", upload.id);
+                deleteFiles(upload);
+            }
+        });
+        restore();
+    }
+
+    // Queues the picked image, the photo message is pushed to messagesPath by author once uploaded
+    public void enqueue(final Uri imageUri, final String author, final String messagesPath) {
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final UploadScheduler.Upload upload = new UploadScheduler.Upload();
+                upload.id = UUID.randomUUID().toString();
+                upload.author = author;
+                upload.messagesPath = messagesPath;
+                try {
+                    File original = new File(uploadDir(), upload.id);
+                    final String hash = copy(imageUri, original);
+                    final UploadedPhotoIndex.Entry known = mIndex.get(hash);
+                    if (known != null) {
+                        final long size = original.length();
+                        deleteFile(original.getPath());
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                Timber.d("enqueue: %s already uploaded", hash);
+                                mReusedCount++;
+                                mBytesSaved += size;
+                                pushMessage(upload.messagesPath, upload.author, known);
+                            }
+                        });
+                        return;
+                    }
+                    upload.hash = hash;
+                    upload.storagePath = hash;
+                    ImageProcessor.Result processed;
+                    try {
+                        processed = ImageProcessor.process(original);
+                    } catch (IOException | OutOfMemoryError e) {
+                        Timber.w(e, "enqueue: could not process %s, sending it as picked", imageUri);
+                        processed = null;
+                    }
+                    if (processed == null) {
+                        // not an image we can decode, send it as picked
+                        upload.filePath = original.getPath();
+                    } else {
+                        upload.filePath = processed.display.getPath();
+                        upload.thumbnailPath = processed.thumbnail.getPath();
+                        upload.thumbnailStoragePath = THUMBNAIL_DIR + hash;
+                        upload.width = processed.width;
+                        upload.height = processed.height;
+                        if (!original.delete()) {
+                            Timber.w("enqueue: could not delete %s", original);
+                        }
+                    }
+                } catch (IOException e) {
+                    Timber.e(e, "enqueue: could not read %s", imageUri);
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mScheduler.add(upload);
+                        save();
+                        notifyChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // Uploads waiting, running or backing off
+    public int getPendingCount() {
+        return mScheduler.getPendingCount();
+    }
+
+    public int getRunningCount() {
+        return mScheduler.getRunningCount();
+    }
+
+    // Progress of the running uploads, from 0 to 1
+    public float getProgress() {
+        return mScheduler.getProgress();
+    }
+
+    // Average upload speed of the completed uploads, in bytes per second
+    public long getThroughput() {
+        return mScheduler.getThroughput();
+    }
+
+    public int getCompletedCount() {
+        return mScheduler.getCompletedCount();
+    }
+
+    public int getFailedAttemptCount() {
+        return mScheduler.getFailedAttemptCount();
+    }
+
+    public int getDroppedCount() {
+        return mScheduler.getDroppedCount();
+    }
+
+    // Photos sent again and parts found in storage, none of them uploaded
+    public int getReusedCount() {
+        return mReusedCount + mScheduler.getReusedCount();
+    }
+
+    // Bytes not uploaded thanks to the reused photos
+    public long getBytesSaved() {
+        return mBytesSaved + mScheduler.getBytesSaved();
+    }
+
+    private void pushMessage(String messagesPath, String author, UploadedPhotoIndex.Entry photo) {
+        FriendlyMessage friendlyMessage = new FriendlyMessage(null, author, photo.downloadUrl);
+        friendlyMessage.setThumbnailUrl(photo.thumbnailUrl);
+        friendlyMessage.setPhotoWidth(photo.width);
+        friendlyMessage.setPhotoHeight(photo.height);
+        MessageOutbox.getInstance(mContext).send(messagesPath, friendlyMessage);
+    }
+
+    private static void deleteFiles(UploadScheduler.Upload upload) {
+        deleteFile(upload.filePath);
+        deleteFile(upload.thumbnailPath);
+    }
+
+    private static void deleteFile(String path) {
+        if (path != null && !new File(path).delete()) {
+            Timber.w("deleteFile: could not delete %s", path);
+        }
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onQueueChanged(this);
+        }
+    }
+
+    private File uploadDir() throws IOException {
+        File dir = new File(mContext.getFilesDir(), UPLOAD_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        return dir;
+    }
+
+    // Copies the picked image to file and returns its ContentHash
+    private String copy(Uri imageUri, File file) throws IOException {
+        InputStream in = mContext.getContentResolver().openInputStream(imageUri);
+        if (in == null) {
+            throw new IOException("no content for " + imageUri);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            String hash = ContentHash.copy(in, out);
+            out.close();
+            out = null;
+            return hash;
+        } catch (IOException e) {
+            // a partial copy would never be uploaded nor deleted
+            if (file.exists() && !file.delete()) {
+                Timber.w("copy: could not delete %s", file);
+            }
+            throw e;
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (UploadScheduler.Upload upload : mScheduler.getUploads()) {
+                array.put(toJson(upload));
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "save: failed");
+            return;
+        }
+        mPrefs.edit().putString(PREF_UPLOADS, array.toString()).apply();
+    }
+
+    private void restore() {
+        String saved = mPrefs.getString(PREF_UPLOADS, null);
+        if (saved == null) {
+            return;
+        }
+        List<UploadScheduler.Upload> uploads = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(saved);
+            for (int i = 0; i < array.length(); i++) {
+                UploadScheduler.Upload upload = fromJson(array.getJSONObject(i));
+                if (new File(upload.filePath).exists()) {
+                    uploads.add(upload);
+                }
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "restore: discarding saved uploads");
+        }
+        Timber.d("restore: %d uploads", uploads.size());
+        for (UploadScheduler.Upload upload : uploads) {
+            mScheduler.add(upload);
+        }
+    }
+
+    private static JSONObject toJson(UploadScheduler.Upload upload) throws JSONException {
+        return new JSONObject()
+                .put("id", upload.id)
+                .put("hash", upload.hash)
+                .put("filePath", upload.filePath)
+                .put("storagePath", upload.storagePath)
+                .put("messagesPath", upload.messagesPath)
+                .put("author", upload.author)
+                .put("thumbnailPath", upload.thumbnailPath)
+                .put("thumbnailStoragePath", upload.thumbnailStoragePath)
+                .put("thumbnailUrl", upload.thumbnailUrl)
+                .put("width", upload.width)
+                .put("height", upload.height)
+                .put("sessionUri", upload.sessionUri)
+                .put("attempts", upload.attempts)
+                .put("notBefore", upload.notBefore);
+    }
+
+    private static UploadScheduler.Upload fromJson(JSONObject json) throws JSONException {
+        UploadScheduler.Upload upload = new UploadScheduler.Upload();
+        upload.id = json.getString("id");
+        upload.hash = json.optString("hash", null);
+        upload.filePath = json.getString("filePath");
+        upload.storagePath = json.getString("storagePath");
+        upload.messagesPath = json.getString("messagesPath");
+        upload.author = json.optString("author", null);
+        upload.thumbnailPath = json.optString("thumbnailPath", null);
+        upload.thumbnailStoragePath = json.optString("thumbnailStoragePath", null);
+        upload.thumbnailUrl = json.optString("thumbnailUrl", null);
+        upload.width = json.optInt("width");
+        upload.height = json.optInt("height");
+        upload.sessionUri = json.optString("sessionUri", null);
+        upload.attempts = json.optInt("attempts");
+        upload.notBefore = json.optLong("notBefore");
+        return upload;
+    }
+}
@@ -0,0 +1,27 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import timber.log.Timber;
+
+// Timber tree of release builds. Debug and verbose calls are rejected by
+// isLoggable before Timber formats them; info and above go to the EventLog,
+// warnings and errors to logcat too.
+public class ReleaseTree extends Timber.Tree {
+
+    @Override
+    protected boolean isLoggable(@Nullable String tag, int priority) {
+        return priority >= Log.INFO;
+    }
+
+    @Override
+    protected void log(int priority, @Nullable String tag, @NonNull String message, @Nullable Throwable t) {
+        EventLog.record(message);
+        if (priority >= Log.WARN) {
+            Log.println(priority, tag == null ? "FriendlyChat" : tag,
+                    t == null ? message : message + '\n' + Log.getStackTraceString(t));
+        }
+    }
+}
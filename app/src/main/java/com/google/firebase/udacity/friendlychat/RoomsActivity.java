@@ -0,0 +1,185 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import butterknife.OnClick;
+import timber.log.Timber;
+
+// Lists the rooms of the room index, most recently active first, and opens
+// one, or a new one by name. Only the index is read, never the messages.
+public class RoomsActivity extends AppCompatActivity {
+
+    // result: id of the room to show
+    public static final String EXTRA_ROOM_ID = "roomId";
+    private static final int MAX_ROOMS = 50;
+
+    @BindView(R.id.roomsRecyclerView)
+    RecyclerView mRoomsRecyclerView;
+    @BindView(R.id.roomNameEditText)
+    EditText mRoomNameEditText;
+
+    private final RoomAdapter mRoomAdapter = new RoomAdapter();
+    private Query mRoomsQuery;
+    private ValueEventListener mRoomsListener;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_rooms);
+        ButterKnife.bind(this);
+
+        mRoomsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mRoomsRecyclerView.setAdapter(mRoomAdapter);
+        mRoomsQuery = FirebaseDatabase.getInstance().getReference(ChatRooms.ROOMS_NODE)
+                .orderByChild(ChatRooms.FIELD_LAST_TIMESTAMP)
+                .limitToLast(MAX_ROOMS);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mRoomsListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                List<ChatRooms.Room> rooms = new ArrayList<>();
+                boolean hasDefaultRoom = false;
+                for (DataSnapshot child : dataSnapshot.getChildren()) {
+                    ChatRooms.Room room = ChatRooms.Room.decode(child);
+                    if (room != null) {
+                        rooms.add(room);
+                        hasDefaultRoom |= ChatRooms.DEFAULT_ROOM.equals(room.id);
+                    }
+                }
+                // ordered by last activity, oldest first
+                Collections.reverse(rooms);
+                if (!hasDefaultRoom) {
+                    rooms.add(0, new ChatRooms.Room(ChatRooms.DEFAULT_ROOM, null, null, null, 0));
+                }
+                mRoomAdapter.setRooms(rooms);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Timber.w(databaseError.toException(), "rooms: cancelled");
+            }
+        };
+        mRoomsQuery.addValueEventListener(mRoomsListener);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mRoomsQuery.removeEventListener(mRoomsListener);
+    }
+
+    // Opens the room named in the EditText, adding it to the index if it is new
+    @OnClick(R.id.openRoomButton)
+    void openRoomClick() {
+        String name = mRoomNameEditText.getText().toString().trim();
+        String roomId = ChatRooms.roomId(name);
+        if (roomId == null) {
+            return;
+        }
+        if (!mRoomAdapter.contains(roomId)) {
+            FirebaseDatabase.getInstance().getReference(ChatRooms.roomPath(roomId))
+                    .child(ChatRooms.FIELD_NAME)
+                    .setValue(name);
+        }
+        openRoom(roomId);
+    }
+
+    private void openRoom(String roomId) {
+        setResult(RESULT_OK, new Intent().putExtra(EXTRA_ROOM_ID, roomId));
+        finish();
+    }
+
+    private class RoomAdapter extends RecyclerView.Adapter<RoomAdapter.RoomViewHolder> {
+
+        private final List<ChatRooms.Room> mRooms = new ArrayList<>();
+
+        void setRooms(List<ChatRooms.Room> rooms) {
+            mRooms.clear();
+            mRooms.addAll(rooms);
+            notifyDataSetChanged();
+        }
+
+        boolean contains(String roomId) {
+            for (ChatRooms.Room room : mRooms) {
+                if (room.id.equals(roomId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @NonNull
+        @Override
+        public RoomViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            final RoomViewHolder holder = new RoomViewHolder(view);
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = holder.getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        openRoom(mRooms.get(position).id);
+                    }
+                }
+            });
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RoomViewHolder holder, int position) {
+            ChatRooms.Room room = mRooms.get(position);
+            holder.nameView.setText(getString(R.string.room_title, room.name));
+            if (room.lastName == null) {
+                holder.summaryView.setText(null);
+            } else {
+                String text = room.lastText != null ? room.lastText : getString(R.string.photo_message);
+                holder.summaryView.setText(getString(R.string.room_summary, room.lastName, text));
+            }
+        }
+
+        @Override
+        public int getItemCount() {
+            return mRooms.size();
+        }
+
+        class RoomViewHolder extends RecyclerView.ViewHolder {
+
+            final TextView nameView;
+            final TextView summaryView;
+
+            RoomViewHolder(View itemView) {
+                super(itemView);
+                nameView = itemView.findViewById(android.R.id.text1);
+                summaryView = itemView.findViewById(android.R.id.text2);
+                summaryView.setSingleLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.util.LruCache;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+import timber.log.Timber;
+
+// Finds messages as the query is typed, see MessageSearch. The index only
+// holds the room and key of the results, their messages are read from the
+// database as their rows are bound; messages deleted meanwhile are dropped.
+public class SearchActivity extends AppCompatActivity {
+
+    private static final int MAX_RESULTS = 100;
+    // results read, kept across queries typed one letter after the other
+    private static final int MAX_READ_MESSAGES = 2 * MAX_RESULTS;
+
+    @BindView(R.id.searchResultsRecyclerView)
+    RecyclerView mResultsRecyclerView;
+    @BindView(R.id.noResultsTextView)
+    TextView mNoResultsTextView;
+
+    private final ResultAdapter mResultAdapter = new ResultAdapter();
+    private final MessageSearch.Callback mSearchCallback = new MessageSearch.Callback() {
+        @Override
+        public void onResults(String query, List<SearchIndex.Hit> results) {
+            mResultAdapter.setResults(results);
+            mNoResultsTextView.setVisibility(results.isEmpty() && query.trim().length() > 0 ? View.VISIBLE : View.GONE);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_search);
+        ButterKnife.bind(this);
+
+        mResultsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mResultsRecyclerView.setHasFixedSize(true);
+        mResultsRecyclerView.setAdapter(mResultAdapter);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.search_menu, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.search_view_menu).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setIconified(false);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                MessageSearch.getInstance().search(newText, MAX_RESULTS, mSearchCallback);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    private static class ResultAdapter extends RecyclerView.Adapter<ResultAdapter.ResultViewHolder> {
+
+        private final List<SearchIndex.Hit> mResults = new ArrayList<>();
+        private final LruCache<String, FriendlyMessage> mMessages = new LruCache<>(MAX_READ_MESSAGES);
+        // keys being read
+        private final Set<String> mReading = new HashSet<>();
+
+        void setResults(List<SearchIndex.Hit> results) {
+            mResults.clear();
+            mResults.addAll(results);
+            notifyDataSetChanged();
+        }
+
+        @NonNull
+        @Override
+        public ResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            return new ResultViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ResultViewHolder holder, int position) {
+            SearchIndex.Hit hit = mResults.get(position);
+            FriendlyMessage message = mMessages.get(hit.key);
+            if (message == null) {
+                read(hit);
+            }
+            holder.textView.setText(message != null ? message.getText() : null);
+            holder.nameView.setText(message != null ? message.getName() : null);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mResults.size();
+        }
+
+        private int positionOf(String key) {
+            for (int i = 0; i < mResults.size(); i++) {
+                if (mResults.get(i).key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Reads the message of hit, usually from the database cache, and rebinds its row
+        private void read(final SearchIndex.Hit hit) {
+            if (!mReading.add(hit.key)) {
+                return;
+            }
+            FirebaseDatabase.getInstance().getReference(ChatRooms.messagesPath(hit.room)).child(hit.key)
+                    .addListenerForSingleValueEvent(new ValueEventListener() {
+                        @Override
+                        public void onDataChange(DataSnapshot dataSnapshot) {
+                            mReading.remove(hit.key);
+                            FriendlyMessage message =
+                                    FriendlyMessageCodec.decode(dataSnapshot.getKey(), dataSnapshot.getValue());
+                            // the results may be those of a later query by now
+                            int position = positionOf(hit.key);
+                            if (message == null) {
+                                // deleted since it was indexed
+                                MessageSearch.getInstance().remove(hit.key);
+                                if (position >= 0) {
+                                    mResults.remove(position);
+                                    notifyItemRemoved(position);
+                                }
+                                return;
+                            }
+                            mMessages.put(hit.key, message);
+                            if (position >= 0) {
+                                notifyItemChanged(position);
+                            }
+                        }
+
+                        @Override
+                        public void onCancelled(DatabaseError databaseError) {
+                            mReading.remove(hit.key);
+                            Timber.w(databaseError.toException(), "read: %s", hit.key);
+                        }
+                    });
+        }
+
+        static class ResultViewHolder extends RecyclerView.ViewHolder {
+
+            final TextView textView;
+            final TextView nameView;
+
+            ResultViewHolder(View itemView) {
+                super(itemView);
+                textView = itemView.findViewById(android.R.id.text1);
+                nameView = itemView.findViewById(android.R.id.text2);
+            }
+        }
+    }
+}
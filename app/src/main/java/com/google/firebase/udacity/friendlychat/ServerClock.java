@@ -0,0 +1,44 @@
+package com.google.firebase.udacity.friendlychat;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import timber.log.Timber;
+
+// Wall clock corrected by the offset the database measured against its
+// server, so stamps taken on different devices can be compared.
+public final class ServerClock {
+
+    private static volatile long sOffsetMs;
+    private static boolean sStarted;
+
+    private ServerClock() {
+    }
+
+    // Follows the offset reported by the database, call once from the main thread
+    public static void start(FirebaseDatabase database) {
+        if (sStarted) {
+            return;
+        }
+        sStarted = true;
+        database.getReference(".info/serverTimeOffset").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Object offset = dataSnapshot.getValue();
+                sOffsetMs = offset instanceof Number ? ((Number) offset).longValue() : 0;
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Timber.w(databaseError.toException(), "serverTimeOffset: cancelled");
+            }
+        });
+    }
+
+    // Estimated server time, in milliseconds since the epoch
+    public static long now() {
+        return System.currentTimeMillis() + sOffsetMs;
+    }
+}
@@ -0,0 +1,158 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v4.util.LruCache;
+import android.support.v4.widget.TextViewCompat;
+import android.util.TypedValue;
+import android.widget.TextView;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Text of the messages measured off the main thread, so binding a row hands
+// its TextView text whose glyphs are already measured instead of measuring
+// them while the list scrolls. The rows stay TextViews, with their
+// selection, links, accessibility and font scaling.
+//
+// Texts are precomputed for the text metrics of the rows: their paint,
+// break strategy, hyphenation and direction, see PrecomputedTextCompat.Params.
+// configure() reads them from the text appearance of the rows before any row
+// exists, so the first page is prefetched too; a bound row whose metrics
+// differ, e.g. after the font scale changed, replaces them. Precomputed text
+// does not depend on the width, the TextView breaks it into lines.
+//
+// Decoded messages are queued by prefetch() and precomputed on a background
+// thread while they travel to the list. Entries are cached by message key
+// and used only for the same text and metrics; a row bound before its
+// entry is ready measures its text itself, as before. Least recently used
+// entries go first, and the cache is trimmed by MemoryBudget.
+public class TextLayoutCache implements MemoryBudget.Cache {
+
+    // android:textAppearance of messageTextView in message_left and message_right
+    private static final int ROW_TEXT_APPEARANCE = android.R.attr.textAppearanceLarge;
+    // characters of text kept, a few screens of long messages
+    private static final int MAX_CACHED_CHARS = 256 * 1024;
+    // the text and its measured glyph widths, roughly
+    private static final int BYTES_PER_CHAR = 8;
+
+    private static TextLayoutCache sInstance;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, PrecomputedTextCompat> mCache =
+            new LruCache<String, PrecomputedTextCompat>(MAX_CACHED_CHARS) {
+                @Override
+                protected int sizeOf(String key, PrecomputedTextCompat text) {
+                    return Math.max(1, text.length());
+                }
+            };
+    private volatile PrecomputedTextCompat.Params mParams;
+
+    // metrics
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mPrefetchCount = new AtomicLong();
+
+    public static synchronized TextLayoutCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new TextLayoutCache();
+        }
+        return sInstance;
+    }
+
+    // Reads the text metrics of the rows from their text appearance in the
+    // theme of context, call from the main thread
+    public void configure(Context context) {
+        TextView row = new TextView(context);
+        TypedValue appearance = new TypedValue();
+        if (context.getTheme().resolveAttribute(ROW_TEXT_APPEARANCE, appearance, true)) {
+            TextViewCompat.setTextAppearance(row, appearance.resourceId);
+        }
+        setParams(TextViewCompat.getTextMetricsParams(row));
+    }
+
+    // Precomputes the text of the messages in the background, from any thread
+    public void prefetch(List<FriendlyMessage> messages) {
+        for (FriendlyMessage message : messages) {
+            prefetch(message);
+        }
+    }
+
+    public void prefetch(final FriendlyMessage message) {
+        final PrecomputedTextCompat.Params params = mParams;
+        if (params == null || message.getKey() == null || message.getText() == null) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String key = message.getKey();
+                String text = message.getText();
+                if (params != mParams || get(key, text, params) != null) {
+                    return;
+                }
+                mCache.put(key, PrecomputedTextCompat.create(text, params));
+                mPrefetchCount.incrementAndGet();
+            }
+        });
+    }
+
+    // Sets the text of the message key on view, precomputed if it is cached
+    // for the metrics of view. Call from the main thread.
+    public void setText(TextView view, @Nullable String key, String text) {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(view);
+        if (!params.equals(mParams)) {
+            // the rows are what the texts are precomputed for
+            setParams(params);
+        }
+        PrecomputedTextCompat precomputed = key == null || text == null ? null : get(key, text, params);
+        if (precomputed == null) {
+            mMissCount.incrementAndGet();
+            view.setText(text);
+            return;
+        }
+        mHitCount.incrementAndGet();
+        TextViewCompat.setPrecomputedText(view, precomputed);
+    }
+
+    // Least recently used texts go first, the ones on screen are held by their views
+    @Override
+    public void trim(float keep) {
+        mCache.trimToSize((int) (MAX_CACHED_CHARS * keep));
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) mCache.size() * BYTES_PER_CHAR;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getPrefetchCount() {
+        return mPrefetchCount.get();
+    }
+
+    private void setParams(PrecomputedTextCompat.Params params) {
+        if (params.equals(mParams)) {
+            return;
+        }
+        mParams = params;
+        mCache.evictAll();
+    }
+
+    private PrecomputedTextCompat get(String key, String text, PrecomputedTextCompat.Params params) {
+        PrecomputedTextCompat precomputed = mCache.get(key);
+        // the message may have been edited, or the metrics changed, since it was precomputed
+        return precomputed != null && precomputed.getParams().equals(params)
+                && text.contentEquals(precomputed) ? precomputed : null;
+    }
+}
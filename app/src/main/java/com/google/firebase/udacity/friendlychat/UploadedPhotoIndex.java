@@ -0,0 +1,69 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import timber.log.Timber;
+
+// Photos this device already uploaded, by SHA-256 of the picked file, so
+// sending the same picture again pushes the message without uploading.
+// Backed by shared preferences, safe to use from any thread.
+public class UploadedPhotoIndex {
+
+    private static final String PREFS_NAME = "uploaded_photos";
+
+    public static class Entry {
+        public final String downloadUrl;
+        @Nullable
+        public final String thumbnailUrl;
+        public final int width;
+        public final int height;
+
+        public Entry(String downloadUrl, @Nullable String thumbnailUrl, int width, int height) {
+            this.downloadUrl = downloadUrl;
+            this.thumbnailUrl = thumbnailUrl;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    public UploadedPhotoIndex(Context context) {
+        this.mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Nullable
+    public Entry get(String hash) {
+        String saved = mPrefs.getString(hash, null);
+        if (saved == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(saved);
+            return new Entry(json.getString("downloadUrl"), json.optString("thumbnailUrl", null),
+                    json.optInt("width"), json.optInt("height"));
+        } catch (JSONException e) {
+            Timber.e(e, "get: discarding %s", hash);
+            mPrefs.edit().remove(hash).apply();
+            return null;
+        }
+    }
+
+    public void put(String hash, Entry entry) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("downloadUrl", entry.downloadUrl)
+                    .put("thumbnailUrl", entry.thumbnailUrl)
+                    .put("width", entry.width)
+                    .put("height", entry.height);
+            mPrefs.edit().putString(hash, json.toString()).apply();
+        } catch (JSONException e) {
+            Timber.e(e, "put: failed");
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.google.firebase.udacity.friendlychat;
+
+import android.content.Context;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// The message list as MainActivity sets it up, with the rows created by the
+// adapter counted
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class MessageAdapterTest {
+
+    private static final String OWN_NAME = "Ana";
+    private static final int WIDTH = 480;
+    // Robolectric measures text without font metrics, so a text row would
+    // measure to its padding; every row gets this height instead
+    private static final int ROW_HEIGHT = 40;
+    private static final int HEIGHT = 10 * ROW_HEIGHT;
+    // a slow drag, a quarter of a row per frame
+    private static final int SCROLL_STEP = ROW_HEIGHT / 4;
+
+    private RecyclerView mList;
+    private MessageAdapter mAdapter;
+    private int mCreated;
+    private final List<String> mNotified = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        mList = new RecyclerView(context);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+        layoutManager.setStackFromEnd(true);
+        mList.setLayoutManager(layoutManager);
+        mList.setHasFixedSize(true);
+        mList.setRecycledViewPool(MessageAdapter.createViewPool());
+        MessageRowPool rowPool = new MessageRowPool(context, mList);
+        mAdapter = new MessageAdapter(context, R.layout.message_left, R.layout.message_right, OWN_NAME, rowPool) {
+            @Override
+            public MessageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                mCreated++;
+                MessageViewHolder holder = super.onCreateViewHolder(parent, viewType);
+                holder.itemView.getLayoutParams().height = ROW_HEIGHT;
+                return holder;
+            }
+        };
+        mList.setAdapter(mAdapter);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mNotified.add("inserted " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mNotified.add("removed " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+                mNotified.add("changed " + positionStart + " " + itemCount);
+            }
+
+            @Override
+            public void onChanged() {
+                mNotified.add("everything");
+            }
+        });
+    }
+
+    // Once a screenful of each row type exists, scrolling through the
+    // history rebinds rows and creates none
+    @Test
+    public void steadyScrollingCreatesNoRows() {
+        List<FriendlyMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            messages.add(message(i, "message " + i, i % 3 == 0 ? OWN_NAME : "Bob"));
+        }
+        mAdapter.setMessages(messages);
+        layout();
+        // fewer rows on screen than the pool keeps of each type
+        assertEquals(HEIGHT / ROW_HEIGHT, mList.getChildCount());
+        assertTrue(mList.getChildCount() < MessageAdapter.MAX_RECYCLED_VIEWS_PER_TYPE);
+
+        // the first screen up fills the pool
+        scrollBy(-HEIGHT);
+        int created = mCreated;
+        assertTrue(created < 2 * MessageAdapter.MAX_RECYCLED_VIEWS_PER_TYPE);
+
+        scrollBy(-HEIGHT * 20);
+        scrollBy(HEIGHT * 10);
+
+        assertEquals(created, mCreated);
+    }
+
+    @Test
+    public void updatesNotifyOnlyTheirRows() {
+        mAdapter.addAll(0, Arrays.asList(
+                message(0, "a", "Bob"), message(1, "b", OWN_NAME), message(2, "c", "Bob")));
+        mAdapter.insert(message(3, "d", "Bob"));
+        mAdapter.update(message(1, "b, edited", OWN_NAME));
+        // the echo of a message shown before it was written
+        mAdapter.update(message(3, "d", "Bob"));
+        mAdapter.remove(key(0));
+
+        assertEquals(Arrays.asList("inserted 0 3", "inserted 3 1", "changed 1 1", "removed 0 1"), mNotified);
+    }
+
+    @Test
+    public void setMessagesNotifiesTheDifference() {
+        mAdapter.setMessages(Arrays.asList(message(0, "a", "Bob"), message(1, "b", "Bob")));
+        mNotified.clear();
+
+        mAdapter.setMessages(Arrays.asList(message(0, "a", "Bob"), message(1, "b", "Bob"), message(2, "c", "Bob")));
+
+        assertEquals(Collections.singletonList("inserted 2 1"), mNotified);
+    }
+
+    private void layout() {
+        mList.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mList.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private void scrollBy(int dy) {
+        int step = dy < 0 ? -SCROLL_STEP : SCROLL_STEP;
+        for (int scrolled = 0; Math.abs(scrolled) < Math.abs(dy); scrolled += step) {
+            mList.scrollBy(0, step);
+        }
+    }
+
+    private static String key(int index) {
+        return String.format(Locale.US, "-Lk%017d", index);
+    }
+
+    private static FriendlyMessage message(int index, String text, String name) {
+        FriendlyMessage message = new FriendlyMessage(text, name, null);
+        message.setKey(key(index));
+        return message;
+    }
+}
@@ -0,0 +1,99 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+// Messages shaped like the ones of a busy room: push-ID-like keys in key
+// order, a few authors, texts from a word to a paragraph and some photos.
+// Seeded, so every run benchmarks the same data.
+final class BenchmarkMessages {
+
+    private static final String[] AUTHORS = {"Ana", "Bob", "Chen", "Dara", "Eli", "Fatima", "Gus", "Hiro"};
+    private static final String[] WORDS = {
+            "hello", "photo", "tonight", "meeting", "lunch", "thanks", "sure", "later", "android", "build",
+            "release", "coffee", "weekend", "train", "late", "again", "see", "you", "soon", "ok"
+    };
+    private static final String OWN_NAME = AUTHORS[0];
+    // one message in this many is a photo
+    private static final int PHOTO_EVERY = 10;
+
+    private BenchmarkMessages() {
+    }
+
+    static String ownName() {
+        return OWN_NAME;
+    }
+
+    // Key of the index-th message, in key order like push IDs
+    static String key(int index) {
+        return String.format(Locale.US, "-Lk%017d", index);
+    }
+
+    // count messages with keys from key(from)
+    static List<FriendlyMessage> messages(int from, int count) {
+        Random random = new Random(from);
+        List<FriendlyMessage> messages = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            messages.add(message(random, i));
+        }
+        return messages;
+    }
+
+    // The same messages as the database hands them to the codec
+    static List<Map<String, Object>> values(List<FriendlyMessage> messages) {
+        List<Map<String, Object>> values = new ArrayList<>(messages.size());
+        for (FriendlyMessage message : messages) {
+            Map<String, Object> fields = new HashMap<>();
+            for (Map.Entry<String, Object> field : FriendlyMessageCodec.encode(message).entrySet()) {
+                Object value = field.getValue();
+                // the database returns every number as a Long
+                fields.put(field.getKey(), value instanceof Integer ? Long.valueOf((Integer) value) : value);
+            }
+            values.add(fields);
+        }
+        return values;
+    }
+
+    // A copy of message with other text, as after an edit
+    static FriendlyMessage edited(FriendlyMessage message) {
+        String text = message.getText() != null ? message.getText() + " (edited)" : "caption";
+        FriendlyMessage edited = new FriendlyMessage(text, message.getName(), message.getPhotoUrl());
+        edited.setKey(message.getKey());
+        edited.setThumbnailUrl(message.getThumbnailUrl());
+        edited.setPhotoWidth(message.getPhotoWidth());
+        edited.setPhotoHeight(message.getPhotoHeight());
+        edited.setTimestamp(message.getTimestamp());
+        return edited;
+    }
+
+    private static FriendlyMessage message(Random random, int index) {
+        String name = AUTHORS[random.nextInt(AUTHORS.length)];
+        FriendlyMessage message;
+        if (index % PHOTO_EVERY == 0) {
+            String url = "https://firebasestorage.googleapis.com/v0/b/friendlychat/o/chat_photos%2F" + key(index);
+            message = new FriendlyMessage(null, name, url);
+            message.setThumbnailUrl(url + "_thumb");
+            message.setPhotoWidth(1024);
+            message.setPhotoHeight(768);
+        } else {
+            // mostly short messages, now and then a long one
+            int words = random.nextInt(8) == 0 ? 20 + random.nextInt(60) : 1 + random.nextInt(12);
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    text.append(' ');
+                }
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            message = new FriendlyMessage(text.toString(), name, null);
+        }
+        message.setKey(key(index));
+        message.setTimestamp(1527000000000L + index * 1000L);
+        message.setSentAt(message.getTimestamp() - random.nextInt(500));
+        return message;
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Naming a picked photo by its content: copying a 3 MB camera picture with
+// ContentHash.copy against the plain copy PhotoUploadQueue made before, the
+// difference being what deduplication adds to queueing a photo. Per photo.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentHashBenchmark {
+
+    private static final int PHOTO_SIZE = 3 * 1024 * 1024;
+
+    private byte[] mPhoto;
+    private final OutputStream mDiscard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mPhoto = new byte[PHOTO_SIZE];
+        new Random(0).nextBytes(mPhoto);
+    }
+
+    @Benchmark
+    public String copyAndHash() throws IOException {
+        return ContentHash.copy(new ByteArrayInputStream(mPhoto), mDiscard);
+    }
+
+    @Benchmark
+    public int copy() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(mPhoto);
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            mDiscard.write(buffer, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a page of messages, as MessageDecoder does for every page and
+// every live message, and encoding one for the outbox. Per message, against
+// the reflective bean mapping the codec replaced, see ReflectiveMessageMapper.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FriendlyMessageCodecBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    private List<FriendlyMessage> mMessages;
+    private List<Map<String, Object>> mValues;
+
+    @Setup
+    public void setUp() {
+        mMessages = BenchmarkMessages.messages(0, PAGE_SIZE);
+        mValues = BenchmarkMessages.values(mMessages);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void decode(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            blackhole.consume(FriendlyMessageCodec.decode(mMessages.get(i).getKey(), mValues.get(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void decodeReflective(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            blackhole.consume(ReflectiveMessageMapper.decode(mMessages.get(i).getKey(), mValues.get(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void encode(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            blackhole.consume(FriendlyMessageCodec.encode(mMessages.get(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGE_SIZE)
+    public void encodeReflective(Blackhole blackhole) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            blackhole.consume(ReflectiveMessageMapper.encode(mMessages.get(i)));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A burst of live messages going through MessageIngestor: buffered as they
+// arrive, drained by batches and appended to the list, the work the main
+// thread does per frame minus the views. Per message. ingest drives the
+// buffer directly, replay the ingestor with a frame every batchSize
+// messages.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IngestBenchmark {
+
+    private static final int BURST_SIZE = 1000;
+
+    // MessageIngestor.MAX_BATCH_SIZE, and a message per frame
+    @Param({"100", "1"})
+    public int batchSize;
+
+    private List<FriendlyMessage> mBurst;
+    private final ArrayList<FriendlyMessage> mBatch = new ArrayList<>();
+    private long[] mReceivedAt;
+    private final LatencyHistogram mReceiveToDraw = new LatencyHistogram("receive->draw", "ms");
+
+    @Setup
+    public void setUp() {
+        mBurst = BenchmarkMessages.messages(0, BURST_SIZE);
+        mReceivedAt = new long[batchSize];
+    }
+
+    // into an empty list, as after a room switch
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public MessageList ingest() {
+        IngestBuffer buffer = new IngestBuffer();
+        MessageList list = new MessageList(BenchmarkMessages.ownName());
+        for (int i = 0; i < BURST_SIZE; i++) {
+            buffer.add(mBurst.get(i), i);
+        }
+        while (!buffer.isEmpty()) {
+            buffer.drainTo(mBatch, batchSize, mReceivedAt, 0);
+            list.addAll(list.size(), mBatch);
+            mBatch.clear();
+        }
+        return list;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public MessageList replay() {
+        final MessageList list = new MessageList(BenchmarkMessages.ownName());
+        Frames frames = new Frames();
+        MessageIngestor ingestor = new MessageIngestor(frames, new MessageIngestor.Sink() {
+            @Override
+            public void onBatch(List<FriendlyMessage> batch) {
+                list.addAll(list.size(), batch);
+            }
+
+            @Override
+            public void onBacklogChanged(int count) {
+            }
+
+            @Override
+            public void onOverflow(int dropped) {
+            }
+        }, mReceiveToDraw);
+        for (int i = 0; i < BURST_SIZE; i++) {
+            ingestor.add(mBurst.get(i));
+            if ((i + 1) % batchSize == 0) {
+                frames.run();
+                ingestor.onDraw();
+            }
+        }
+        return list;
+    }
+
+    // Runs the posted frame when told to
+    private static class Frames implements MessageIngestor.Frames {
+
+        private Runnable mPosted;
+        private long mNow;
+
+        void run() {
+            mNow++;
+            Runnable frame = mPosted;
+            mPosted = null;
+            if (frame != null) {
+                frame.run();
+            }
+        }
+
+        @Override
+        public void postFrame(Runnable frame) {
+            mPosted = frame;
+        }
+
+        @Override
+        public void removeFrame(Runnable frame) {
+            mPosted = null;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// What logging costs a row bind, per bind. Before EventLog a bind logged
+// through Timber.d(format, args): a varargs array and boxed numbers on
+// every call, then formatted by the debug tree or rejected by the tree's
+// isLoggable in release. Timber is an Android library, so timberDebug and
+// timberRelease reproduce the shape of the call instead: the same varargs
+// and boxing, then String.format or a rejected level check. eventLog is
+// EventLog.record, and guarded a call behind a false BuildConfig.DEBUG.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoggingBenchmark {
+
+    private static final String FORMAT = "bind: position %d, %d ms since the last";
+    private static final boolean DEBUG = false;
+    private static final int DEBUG_LEVEL = 3;
+    private static final int INFO_LEVEL = 4;
+
+    // past the Integer cache, as positions in a long room are
+    private long mPosition = 1000;
+    private long mLastBindMs = 7;
+    private int mMinLevel;
+
+    @Benchmark
+    public Object timberDebug() {
+        mMinLevel = DEBUG_LEVEL;
+        return log(DEBUG_LEVEL, FORMAT, mPosition++, mLastBindMs);
+    }
+
+    @Benchmark
+    public Object timberRelease() {
+        mMinLevel = INFO_LEVEL;
+        return log(DEBUG_LEVEL, FORMAT, mPosition++, mLastBindMs);
+    }
+
+    @Benchmark
+    public long eventLog() {
+        EventLog.record(FORMAT, mPosition++, mLastBindMs);
+        return mPosition;
+    }
+
+    @Benchmark
+    public long guarded() {
+        if (DEBUG) {
+            EventLog.record(FORMAT, mPosition, mLastBindMs);
+        }
+        return mPosition++;
+    }
+
+    // Timber.d -> Tree.d -> prepareLog: checks isLoggable, then formats
+    private Object log(int level, String format, Object... args) {
+        if (level < mMinLevel) {
+            return args;
+        }
+        return String.format(Locale.US, format, args);
+    }
+}
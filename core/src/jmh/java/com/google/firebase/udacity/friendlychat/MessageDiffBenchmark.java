@@ -0,0 +1,71 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// MessageAdapter.setMessages replacing the rows drawn from the local store
+// with the latest page: the page matches them, moved on by a few new
+// messages, or edited here and there.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageDiffBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int NEW_MESSAGES = 10;
+    private static final int EDIT_EVERY = 7;
+
+    @Param({"same", "newer", "edited"})
+    public String change;
+
+    private MessageList mList;
+    private List<FriendlyMessage> mPage;
+
+    @Setup
+    public void setUp() {
+        List<FriendlyMessage> shown = BenchmarkMessages.messages(0, PAGE_SIZE);
+        mList = new MessageList(BenchmarkMessages.ownName());
+        mList.addAll(0, shown);
+        if ("newer".equals(change)) {
+            mPage = BenchmarkMessages.messages(NEW_MESSAGES, PAGE_SIZE);
+        } else if ("edited".equals(change)) {
+            mPage = new ArrayList<>(shown);
+            for (int i = 0; i < mPage.size(); i += EDIT_EVERY) {
+                mPage.set(i, BenchmarkMessages.edited(mPage.get(i)));
+            }
+        } else {
+            mPage = BenchmarkMessages.messages(0, PAGE_SIZE);
+        }
+    }
+
+    @Benchmark
+    public void diff(final Blackhole blackhole) {
+        MessageDiff.calculate(mList, mPage).dispatchTo(new MessageDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                blackhole.consume(count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                blackhole.consume(count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                blackhole.consume(count);
+            }
+        });
+    }
+}
@@ -0,0 +1,136 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Edits and deletes from the live listener applied by push key to a
+// 100,000-message history, the way MessageAdapter.update and remove do.
+// Per event. The controls are the List<FriendlyMessage> the adapter held
+// before MessageList, which has to scan for the key. The history is refilled
+// before each batch of deletes, out of the time but not of gc.alloc.rate.norm.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageEditBenchmark {
+
+    private static final int HISTORY_SIZE = 100000;
+    // events per invocation, on distinct random messages
+    private static final int EVENTS = 1000;
+
+    private List<FriendlyMessage> mHistory;
+    private String[] mKeys;
+    // two edits of each message, applied in turn so every edit changes the row
+    private FriendlyMessage[][] mEdits;
+    private int mTurn;
+
+    private MessageList mList;
+    private List<FriendlyMessage> mObjects;
+
+    @Setup
+    public void setUp() {
+        mHistory = BenchmarkMessages.messages(0, HISTORY_SIZE);
+        List<Integer> indices = new ArrayList<>(HISTORY_SIZE);
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            indices.add(i);
+        }
+        Collections.shuffle(indices, new Random(0));
+        mKeys = new String[EVENTS];
+        mEdits = new FriendlyMessage[2][EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            FriendlyMessage message = mHistory.get(indices.get(i));
+            mKeys[i] = message.getKey();
+            for (int turn = 0; turn < 2; turn++) {
+                FriendlyMessage edit = new FriendlyMessage(
+                        message.getText() + " (edit " + turn + ")", message.getName(), message.getPhotoUrl());
+                edit.setKey(message.getKey());
+                edit.setThumbnailUrl(message.getThumbnailUrl());
+                edit.setPhotoWidth(message.getPhotoWidth());
+                edit.setPhotoHeight(message.getPhotoHeight());
+                mEdits[turn][i] = edit;
+            }
+        }
+    }
+
+    // a full history before every batch of deletes, edits leave it whole
+    @Setup(Level.Invocation)
+    public void fill() {
+        if (mList == null || mList.size() < HISTORY_SIZE) {
+            mList = new MessageList(BenchmarkMessages.ownName());
+            mList.addAll(0, mHistory);
+        }
+        if (mObjects == null || mObjects.size() < HISTORY_SIZE) {
+            mObjects = new ArrayList<>(mHistory);
+        }
+        mTurn ^= 1;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public MessageList edit() {
+        for (FriendlyMessage edit : mEdits[mTurn]) {
+            int position = mList.indexOf(edit.getKey());
+            if (position >= 0 && !mList.sameContent(position, edit)) {
+                mList.set(position, edit);
+            }
+        }
+        return mList;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public List<FriendlyMessage> editList() {
+        for (FriendlyMessage edit : mEdits[mTurn]) {
+            int position = indexOf(mObjects, edit.getKey());
+            if (position >= 0) {
+                mObjects.set(position, edit);
+            }
+        }
+        return mObjects;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public MessageList remove() {
+        for (String key : mKeys) {
+            int position = mList.indexOf(key);
+            if (position >= 0) {
+                mList.remove(position);
+            }
+        }
+        return mList;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public List<FriendlyMessage> removeList() {
+        for (String key : mKeys) {
+            int position = indexOf(mObjects, key);
+            if (position >= 0) {
+                mObjects.remove(position);
+            }
+        }
+        return mObjects;
+    }
+
+    private static int indexOf(List<FriendlyMessage> messages, String key) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getKey().equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Memory of a message in the list: filling a window of the size MessagePager
+// keeps, a page at a time. With the gc profiler, gc.alloc.rate.norm is the
+// bytes allocated per message, the decoded messages themselves excluded.
+// The control is the List<FriendlyMessage> the adapter held before
+// MessageList. It allocates little more than its array, but keeps the
+// decoded messages alive, which this benchmark does not count.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageListBenchmark {
+
+    // MessagePager.PAGE_SIZE and MAX_WINDOW_PAGES
+    private static final int PAGE_SIZE = 50;
+    private static final int WINDOW_SIZE = PAGE_SIZE * 6;
+
+    private List<FriendlyMessage> mMessages;
+
+    @Setup
+    public void setUp() {
+        mMessages = BenchmarkMessages.messages(0, WINDOW_SIZE);
+    }
+
+    // newest page first, older pages prepended as the user scrolls up
+    @Benchmark
+    @OperationsPerInvocation(WINDOW_SIZE)
+    public MessageList fillWindow() {
+        MessageList list = new MessageList(BenchmarkMessages.ownName());
+        for (int to = WINDOW_SIZE; to > 0; to -= PAGE_SIZE) {
+            list.addAll(0, mMessages.subList(to - PAGE_SIZE, to));
+        }
+        return list;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW_SIZE)
+    public List<FriendlyMessage> fillWindowList() {
+        List<FriendlyMessage> list = new ArrayList<>();
+        for (int to = WINDOW_SIZE; to > 0; to -= PAGE_SIZE) {
+            list.addAll(0, mMessages.subList(to - PAGE_SIZE, to));
+        }
+        return list;
+    }
+}
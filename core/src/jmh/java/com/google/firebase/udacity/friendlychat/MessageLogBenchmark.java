@@ -0,0 +1,72 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// The cold start read of LocalMessageStore: replaying a compacted log of
+// the messages a room keeps into the map the first screen is drawn from,
+// and writing it back. From memory, so the parsing without the disk.
+// Per message.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageLogBenchmark {
+
+    // LocalMessageStore.MAX_MESSAGES
+    private static final int LOG_SIZE = 500;
+
+    private List<FriendlyMessage> mMessages;
+    private byte[] mLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        mMessages = BenchmarkMessages.messages(0, LOG_SIZE);
+        mLog = write().toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOG_SIZE)
+    public TreeMap<String, FriendlyMessage> read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(mLog)));
+        TreeMap<String, FriendlyMessage> messages = new TreeMap<>();
+        MessageLogFormat.readHeader(in);
+        for (int type; (type = MessageLogFormat.readRecordType(in)) != MessageLogFormat.END; ) {
+            String key = MessageLogFormat.readKey(in);
+            if (type == MessageLogFormat.RECORD_PUT) {
+                messages.put(key, MessageLogFormat.readMessage(in, key));
+            } else {
+                messages.remove(key);
+            }
+        }
+        return messages;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOG_SIZE)
+    public ByteArrayOutputStream write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * LOG_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        for (FriendlyMessage message : mMessages) {
+            MessageLogFormat.writePut(out, message);
+        }
+        out.flush();
+        return bytes;
+    }
+}
@@ -0,0 +1,198 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Scrolling through the history of a room: from the latest page up to the
+// first message and back down, a page at a time, with the rows in a
+// MessageList as in MessageAdapter and pages answered at once from memory.
+// Per page loaded, so the cost of the window bookkeeping, the inserts and
+// the evictions, without the database or the views.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessagePagerBenchmark {
+
+    private static final int ROOM_PAGES = 200;
+    private static final int ROOM_SIZE = MessagePager.PAGE_SIZE * ROOM_PAGES;
+    // rows on screen
+    private static final int SCREEN = 10;
+    // the latest page, every older one, every newer one past the window
+    // on the way back, and the empty page at each end
+    private static final int PAGES_LOADED =
+            ROOM_PAGES + ROOM_PAGES - MessagePager.MAX_WINDOW_SIZE / MessagePager.PAGE_SIZE + 2;
+
+    private List<FriendlyMessage> mRoom;
+
+    @Setup
+    public void setUp() {
+        mRoom = BenchmarkMessages.messages(0, ROOM_SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES_LOADED)
+    public MessageList scrollHistory() {
+        Rows rows = new Rows();
+        Screen screen = new Screen(rows);
+        MessagePager pager = new MessagePager(new Room(mRoom), rows, screen, new Store(), new Events());
+        pager.loadLatest();
+        // the rows on screen stay in place as pages are added above them
+        for (String oldest = null; !rows.getKey(0).equals(oldest); ) {
+            oldest = rows.getKey(0);
+            screen.first = 0;
+            pager.onScrolled();
+            screen.first = rows.list.indexOf(oldest);
+        }
+        for (String newest = null; !rows.getKey(rows.getItemCount() - 1).equals(newest); ) {
+            newest = rows.getKey(rows.getItemCount() - 1);
+            screen.first = rows.getItemCount() - SCREEN;
+            pager.onScrolled();
+        }
+        return rows.list;
+    }
+
+    // Answers with sublists of the room, which is in key order with keys key(i)
+    private static class Room implements MessagePager.Source {
+
+        private final List<FriendlyMessage> mMessages;
+
+        Room(List<FriendlyMessage> messages) {
+            mMessages = messages;
+        }
+
+        @Override
+        public void loadLatest(int limit, MessagePager.PageCallback callback) {
+            callback.onLoaded(mMessages.subList(Math.max(0, mMessages.size() - limit), mMessages.size()));
+        }
+
+        @Override
+        public void loadBefore(String key, int limit, MessagePager.PageCallback callback) {
+            int to = indexOf(key);
+            callback.onLoaded(mMessages.subList(Math.max(0, to - limit), to));
+        }
+
+        @Override
+        public void loadAfter(String key, int limit, MessagePager.PageCallback callback) {
+            int from = indexOf(key) + 1;
+            callback.onLoaded(mMessages.subList(from, Math.min(mMessages.size(), from + limit)));
+        }
+
+        private static int indexOf(String key) {
+            return Integer.parseInt(key.substring(3));
+        }
+    }
+
+    private static class Rows implements MessagePager.Rows {
+
+        final MessageList list = new MessageList(BenchmarkMessages.ownName());
+
+        @Override
+        public int getItemCount() {
+            return list.size();
+        }
+
+        @Override
+        public String getKey(int position) {
+            return list.getKey(position);
+        }
+
+        @Override
+        public void setMessages(List<FriendlyMessage> messages) {
+            list.clear();
+            list.addAll(0, messages);
+        }
+
+        @Override
+        public void addAll(int position, List<FriendlyMessage> messages) {
+            list.addAll(position, messages);
+        }
+
+        @Override
+        public void insert(FriendlyMessage message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean update(FriendlyMessage message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean remove(String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void move(FriendlyMessage message, String previousKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeRange(int position, int count) {
+            list.removeRange(position, count);
+        }
+    }
+
+    private static class Screen implements MessagePager.Viewport {
+
+        private final Rows mRows;
+        int first;
+
+        Screen(Rows rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int findFirstVisibleItemPosition() {
+            return first;
+        }
+
+        @Override
+        public int findLastVisibleItemPosition() {
+            return Math.min(first + SCREEN, mRows.getItemCount()) - 1;
+        }
+    }
+
+    private static class Store implements MessagePager.Store {
+
+        @Override
+        public void put(FriendlyMessage message) {
+        }
+
+        @Override
+        public void putAll(List<FriendlyMessage> messages) {
+        }
+
+        @Override
+        public void replaceNewest(List<FriendlyMessage> page) {
+        }
+
+        @Override
+        public void remove(String key) {
+        }
+    }
+
+    private static class Events implements MessagePager.Callback {
+
+        @Override
+        public void onNewestLoaded(String newestKey) {
+        }
+
+        @Override
+        public void onNewestEvicted() {
+        }
+
+        @Override
+        public void onLatestFailed() {
+        }
+    }
+}
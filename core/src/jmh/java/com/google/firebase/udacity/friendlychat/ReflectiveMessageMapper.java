@@ -0,0 +1,88 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+// The baseline of FriendlyMessageCodecBenchmark: FriendlyMessage mapped to
+// and from the value of its node with getters and setters found by
+// reflection, the way DataSnapshot.getValue(FriendlyMessage.class) and
+// setValue(message) did before the codec. Like the SDK mapper, properties
+// are found once per class, and every value is converted to the type of
+// its setter and set with Method.invoke. The SDK does more per property,
+// e.g. resolving generic types and annotations, so this is a lower bound
+// of what the codec replaced.
+final class ReflectiveMessageMapper {
+
+    // property -> setter / getter of FriendlyMessage, found once
+    private static final Map<String, Method> sSetters = new HashMap<>();
+    private static final Map<String, Method> sGetters = new HashMap<>();
+
+    static {
+        for (Method method : FriendlyMessage.class.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            String name = method.getName();
+            if (name.startsWith("set") && method.getParameterTypes().length == 1) {
+                sSetters.put(propertyName(name), method);
+            } else if (name.startsWith("get") && method.getParameterTypes().length == 0) {
+                sGetters.put(propertyName(name), method);
+            }
+        }
+        // the key is the name of the node, not one of its fields
+        sSetters.remove("key");
+        sGetters.remove("key");
+    }
+
+    private ReflectiveMessageMapper() {
+    }
+
+    static FriendlyMessage decode(String key, Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        try {
+            FriendlyMessage message = FriendlyMessage.class.newInstance();
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+                Method setter = sSetters.get(field.getKey());
+                if (setter != null) {
+                    setter.invoke(message, convert(field.getValue(), setter.getParameterTypes()[0]));
+                }
+            }
+            message.setKey(key);
+            return message;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Map<String, Object> encode(FriendlyMessage message) {
+        Map<String, Object> fields = new HashMap<>();
+        try {
+            for (Map.Entry<String, Method> getter : sGetters.entrySet()) {
+                fields.put(getter.getKey(), getter.getValue().invoke(message));
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+        return fields;
+    }
+
+    // numbers come back as Long or Double
+    private static Object convert(Object value, Class<?> type) {
+        if (type == int.class) {
+            return ((Number) value).intValue();
+        }
+        if (type == long.class) {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
+    private static String propertyName(String accessor) {
+        return Character.toLowerCase(accessor.charAt(3)) + accessor.substring(4);
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// SearchIndex full, at MAX_DOCUMENTS. put indexes a new message, the
+// earliest one leaving, per message. search answers a query the way
+// SearchActivity asks it, for the best 100. The vocabulary of the
+// benchmark messages is small, so a word is in thousands of messages, more
+// than in a real room. The control is scan, the query matched against
+// every message the way a search without the index would.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+    private static final String ROOM = "general";
+    // SearchActivity.MAX_RESULTS
+    private static final int LIMIT = 100;
+    // messages indexed per invocation of put
+    private static final int PUTS = 1000;
+
+    // a word, a prefix of two words, two words, an author and a word
+    @Param({"coffee", "to", "coffee tonight", "hiro lunch"})
+    public String query;
+
+    // twice the cap, so the message put next has left the index since it
+    // was last put
+    private List<FriendlyMessage> mMessages;
+    private int mNext;
+    private SearchIndex mIndex;
+
+    @Setup
+    public void setUp() {
+        mMessages = BenchmarkMessages.messages(0, SearchIndex.MAX_DOCUMENTS * 2);
+        mIndex = new SearchIndex();
+        while (mNext < SearchIndex.MAX_DOCUMENTS) {
+            mIndex.put(ROOM, mMessages.get(mNext++));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PUTS)
+    public SearchIndex put() {
+        for (int i = 0; i < PUTS; i++) {
+            mIndex.put(ROOM, mMessages.get(mNext));
+            mNext = (mNext + 1) % mMessages.size();
+        }
+        return mIndex;
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> search() {
+        return mIndex.search(query, LIMIT);
+    }
+
+    // Every match, ranking needs them all, not ranked
+    @Benchmark
+    public List<String> scan() {
+        List<String> terms = SearchIndex.tokenize(query);
+        List<String> keys = new ArrayList<>();
+        int newest = mNext + mMessages.size();
+        for (int i = 1; i <= SearchIndex.MAX_DOCUMENTS; i++) {
+            FriendlyMessage message = mMessages.get((newest - i) % mMessages.size());
+            List<String> words = new ArrayList<>(SearchIndex.tokenize(message.getText()));
+            words.addAll(SearchIndex.tokenize(message.getName()));
+            if (matches(words, terms)) {
+                keys.add(message.getKey());
+            }
+        }
+        return keys;
+    }
+
+    private static boolean matches(List<String> words, List<String> terms) {
+        for (String term : terms) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(term)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// The work between process start and the first frame of the message list
+// that does not need Android, per start: the saved log of the room replayed
+// as LocalMessageStore.load() does, and its newest page put into the list
+// as MainActivity.showCachedMessages() does. The log is read from memory,
+// and the views, the disk and the cold code of a new process are left out,
+// ChatMetrics reports the whole time on a device.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StartupBenchmark {
+
+    // LocalMessageStore.MAX_MESSAGES
+    private static final int SAVED_MESSAGES = 500;
+
+    private byte[] mLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        for (FriendlyMessage message : BenchmarkMessages.messages(0, SAVED_MESSAGES)) {
+            MessageLogFormat.writePut(out, message);
+        }
+        out.flush();
+        mLog = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public MessageList firstScreen() throws IOException {
+        List<FriendlyMessage> saved = load();
+        MessageList list = new MessageList(BenchmarkMessages.ownName());
+        List<FriendlyMessage> page = saved.subList(Math.max(0, saved.size() - MessagePager.PAGE_SIZE), saved.size());
+        MessageDiff.calculate(list, page);
+        list.addAll(0, page);
+        return list;
+    }
+
+    // Just the replay, the part that runs in the background
+    @Benchmark
+    public List<FriendlyMessage> load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(mLog)));
+        TreeMap<String, FriendlyMessage> messages = new TreeMap<>();
+        MessageLogFormat.readHeader(in);
+        for (int type; (type = MessageLogFormat.readRecordType(in)) != MessageLogFormat.END; ) {
+            String key = MessageLogFormat.readKey(in);
+            if (type == MessageLogFormat.RECORD_PUT) {
+                messages.put(key, MessageLogFormat.readMessage(in, key));
+            } else {
+                messages.remove(key);
+            }
+        }
+        return new ArrayList<>(messages.values());
+    }
+}
@@ -0,0 +1,40 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+// Assigns a small id to every author name, so a list of messages stores one
+// int per message instead of its own copy of the name.
+public class AuthorTable {
+
+    public static final int NO_AUTHOR = -1;
+
+    private final HashMap<String, Integer> mIds = new HashMap<>();
+    private String[] mNames = new String[16];
+    private int mCount;
+
+    // Returns the id of name, adding it if it is new
+    public int intern(String name) {
+        if (name == null) {
+            return NO_AUTHOR;
+        }
+        Integer id = mIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (mCount == mNames.length) {
+            mNames = Arrays.copyOf(mNames, mCount * 2);
+        }
+        mNames[mCount] = name;
+        mIds.put(name, mCount);
+        return mCount++;
+    }
+
+    public String getName(int id) {
+        return id == NO_AUTHOR ? null : mNames[id];
+    }
+
+    public int size() {
+        return mCount;
+    }
+}
@@ -0,0 +1,17 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Map;
+
+// Where the remote configuration comes from. Implementations call back
+// later on the main thread, never from within fetch().
+public interface ConfigBackend {
+
+    interface FetchCallback {
+        // every remote value, by key
+        void onFetched(Map<String, String> values);
+
+        void onFailure(Exception e);
+    }
+
+    void fetch(FetchCallback callback);
+}
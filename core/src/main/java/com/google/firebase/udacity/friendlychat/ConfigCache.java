@@ -0,0 +1,150 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// The refresh schedule of ChatConfig: the last fetched values are served
+// until they are older than the TTL, refresh() then fetches them again in
+// the background. A failed fetch is retried with jittered exponential
+// backoff instead of on every refresh(). The values and the backoff state
+// are saved by the caller, see restore(), so a restart skips neither.
+//
+// Only used on one thread, the one Timer posts to and the backend calls
+// back on.
+public class ConfigCache {
+
+    public interface Callback {
+        // the state to save changed
+        void onStateChanged();
+
+        // a fetch returned other values than those in use
+        void onValuesChanged();
+
+        // the fetch failed and is retried in delayMs
+        void onFetchFailed(Exception e, long delayMs);
+    }
+
+    static final long INITIAL_BACKOFF_MS = 30 * 1000;
+    static final long MAX_BACKOFF_MS = 6 * 60 * 60 * 1000;
+
+    private final ConfigBackend mBackend;
+    private final long mTtlMs;
+    private final Timer mTimer;
+    private final Random mRandom;
+    private final Callback mCallback;
+    private final Map<String, String> mValues = new HashMap<>();
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    // wall clock times, they must survive the process
+    private long mFetchedAt;
+    private long mNextAttemptAt;
+    private int mFailures;
+    private boolean mFetching;
+
+    // metrics
+    private int mFetchCount;
+    private int mFailedFetchCount;
+
+    public ConfigCache(ConfigBackend backend, long ttlMs, Timer timer, Random random, Callback callback) {
+        this.mBackend = backend;
+        this.mTtlMs = ttlMs;
+        this.mTimer = timer;
+        this.mRandom = random;
+        this.mCallback = callback;
+    }
+
+    // The state saved by the caller, before the first refresh()
+    public void restore(Map<String, String> values, long fetchedAt, int failures, long nextAttemptAt) {
+        mValues.clear();
+        mValues.putAll(values);
+        mFetchedAt = fetchedAt;
+        mFailures = failures;
+        mNextAttemptAt = nextAttemptAt;
+    }
+
+    // The values in use, empty until the first fetch
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(mValues);
+    }
+
+    // Fetches the values if they are stale and no backoff is pending
+    public void refresh() {
+        mTimer.removeCallbacks(mRefreshRunnable);
+        long now = mTimer.currentTimeMillis();
+        // a wall clock set back must not keep the values fresh or the backoff pending forever
+        boolean fresh = now >= mFetchedAt && now - mFetchedAt < mTtlMs;
+        if (mFetching || fresh) {
+            return;
+        }
+        if (now < mNextAttemptAt && mNextAttemptAt - now <= MAX_BACKOFF_MS) {
+            mTimer.postDelayed(mRefreshRunnable, mNextAttemptAt - now);
+            return;
+        }
+        mFetching = true;
+        mFetchCount++;
+        EventLog.record("config: fetch %d", mFetchCount);
+        mBackend.fetch(new ConfigBackend.FetchCallback() {
+            @Override
+            public void onFetched(Map<String, String> values) {
+                mFetching = false;
+                mFetchedAt = mTimer.currentTimeMillis();
+                mFailures = 0;
+                mNextAttemptAt = 0;
+                boolean changed = !values.equals(mValues);
+                mValues.clear();
+                mValues.putAll(values);
+                mCallback.onStateChanged();
+                if (changed) {
+                    mCallback.onValuesChanged();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                mFetching = false;
+                mFailedFetchCount++;
+                mFailures++;
+                long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(mFailures - 1, 16));
+                // half of the delay is jittered, so clients that failed together do not retry together
+                delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+                mNextAttemptAt = mTimer.currentTimeMillis() + delay;
+                mCallback.onStateChanged();
+                mCallback.onFetchFailed(e, delay);
+                mTimer.postDelayed(mRefreshRunnable, delay);
+            }
+        });
+    }
+
+    public long getFetchedAt() {
+        return mFetchedAt;
+    }
+
+    public int getFailures() {
+        return mFailures;
+    }
+
+    public long getNextAttemptAt() {
+        return mNextAttemptAt;
+    }
+
+    // Network round trips made, successful or not
+    public int getFetchCount() {
+        return mFetchCount;
+    }
+
+    public int getFailedFetchCount() {
+        return mFailedFetchCount;
+    }
+
+    // Age of the values in use, -1 if none were fetched
+    public long getAgeMs() {
+        return mFetchedAt == 0 ? -1 : mTimer.currentTimeMillis() - mFetchedAt;
+    }
+}
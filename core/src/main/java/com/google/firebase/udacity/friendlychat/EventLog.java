@@ -0,0 +1,91 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The last CAPACITY events of the process, cheap enough for hot paths.
+//
+// Recording stores a constant format string and up to two numbers in a
+// preallocated ring and allocates nothing; the events are only formatted
+// when the ring is dumped, for a crash report or "adb shell dumpsys".
+// Writers claim slots with an atomic counter and never block; a slot
+// overwritten while it is dumped is detected by its sequence number and
+// skipped.
+//
+// Times come from System.nanoTime(), so the log runs on a plain JVM; on
+// Android that clock, like SystemClock.uptimeMillis(), stops while the
+// device sleeps.
+public final class EventLog {
+
+    private static final int CAPACITY = 512;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final AtomicLong sNext = new AtomicLong();
+    // sequence number + 1 of the event in each slot, 0 while it is written
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+    private static final String[] sFormats = new String[CAPACITY];
+    private static final int[] sArgCounts = new int[CAPACITY];
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final long[] sFirstArgs = new long[CAPACITY];
+    private static final long[] sSecondArgs = new long[CAPACITY];
+
+    private EventLog() {
+    }
+
+    // event is printed as is
+    public static void record(String event) {
+        write(event, 0, 0, 0);
+    }
+
+    // format takes one %d
+    public static void record(String format, long arg) {
+        write(format, 1, arg, 0);
+    }
+
+    // format takes two %d
+    public static void record(String format, long firstArg, long secondArg) {
+        write(format, 2, firstArg, secondArg);
+    }
+
+    private static void write(String format, int argCount, long firstArg, long secondArg) {
+        long sequence = sNext.getAndIncrement();
+        int slot = (int) sequence & MASK;
+        sSequences.set(slot, 0);
+        sFormats[slot] = format;
+        sArgCounts[slot] = argCount;
+        sTimes[slot] = nowMs();
+        sFirstArgs[slot] = firstArg;
+        sSecondArgs[slot] = secondArg;
+        // publishes the fields written above
+        sSequences.set(slot, sequence + 1);
+    }
+
+    // Prints the events in the ring, oldest first, with their age in milliseconds
+    public static void dump(PrintWriter writer) {
+        long now = nowMs();
+        long end = sNext.get();
+        for (long sequence = Math.max(0, end - CAPACITY); sequence < end; sequence++) {
+            int slot = (int) sequence & MASK;
+            if (sSequences.get(slot) != sequence + 1) {
+                continue;
+            }
+            String format = sFormats[slot];
+            int argCount = sArgCounts[slot];
+            long time = sTimes[slot];
+            long firstArg = sFirstArgs[slot];
+            long secondArg = sSecondArgs[slot];
+            if (sSequences.get(slot) != sequence + 1) {
+                // overwritten while it was read
+                continue;
+            }
+            String event = argCount == 0 ? format : String.format(format, firstArg, secondArg);
+            writer.printf("%8d ms ago  %s%n", now - time, event);
+        }
+        writer.flush();
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+}
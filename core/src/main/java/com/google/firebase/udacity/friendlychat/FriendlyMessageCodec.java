@@ -0,0 +1,97 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Converts FriendlyMessage to and from the plain maps the database works
+// with, without the reflective bean mapping of DataSnapshot.getValue(Class).
+// The codec only sees the key and the value of a message node, as
+// DataSnapshot.getKey() and getValue() return them, so it runs without the
+// database on a plain JVM. Safe to use from any thread.
+public final class FriendlyMessageCodec {
+
+    // ServerValue.TIMESTAMP, the placeholder the server replaces with the time of the write
+    static final Map<String, String> SERVER_TIMESTAMP = Collections.singletonMap(".sv", "timestamp");
+
+    // field names, as written by the bean mapper before the codec existed
+    static final String FIELD_TEXT = "text";
+    static final String FIELD_NAME = "name";
+    static final String FIELD_PHOTO_URL = "photoUrl";
+    static final String FIELD_THUMBNAIL_URL = "thumbnailUrl";
+    static final String FIELD_PHOTO_WIDTH = "photoWidth";
+    static final String FIELD_PHOTO_HEIGHT = "photoHeight";
+    static final String FIELD_TIMESTAMP = "timestamp";
+    static final String FIELD_SENT_AT = "sentAt";
+
+    private FriendlyMessageCodec() {
+    }
+
+    // Returns null if the value does not hold a message
+    public static FriendlyMessage decode(String key, Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> fields = (Map<?, ?>) value;
+        FriendlyMessage message = new FriendlyMessage(
+                asString(fields.get(FIELD_TEXT)),
+                asString(fields.get(FIELD_NAME)),
+                asString(fields.get(FIELD_PHOTO_URL)));
+        message.setThumbnailUrl(asString(fields.get(FIELD_THUMBNAIL_URL)));
+        message.setPhotoWidth(asInt(fields.get(FIELD_PHOTO_WIDTH)));
+        message.setPhotoHeight(asInt(fields.get(FIELD_PHOTO_HEIGHT)));
+        message.setTimestamp(asLong(fields.get(FIELD_TIMESTAMP)));
+        message.setSentAt(asLong(fields.get(FIELD_SENT_AT)));
+        message.setKey(key);
+        return message;
+    }
+
+    public static Map<String, Object> encode(FriendlyMessage message) {
+        Map<String, Object> fields = new HashMap<>(16);
+        putIfNotNull(fields, FIELD_TEXT, message.getText());
+        putIfNotNull(fields, FIELD_NAME, message.getName());
+        putIfNotNull(fields, FIELD_PHOTO_URL, message.getPhotoUrl());
+        putIfNotNull(fields, FIELD_THUMBNAIL_URL, message.getThumbnailUrl());
+        // text messages carry no size
+        if (message.getPhotoWidth() > 0 && message.getPhotoHeight() > 0) {
+            fields.put(FIELD_PHOTO_WIDTH, message.getPhotoWidth());
+            fields.put(FIELD_PHOTO_HEIGHT, message.getPhotoHeight());
+        }
+        // a message without a timestamp is new and gets the time of the write
+        fields.put(FIELD_TIMESTAMP, message.getTimestamp() > 0 ? message.getTimestamp() : SERVER_TIMESTAMP);
+        if (message.getSentAt() > 0) {
+            fields.put(FIELD_SENT_AT, message.getSentAt());
+        }
+        return fields;
+    }
+
+    private static void putIfNotNull(Map<String, Object> fields, String name, Object value) {
+        if (value != null) {
+            fields.put(name, value);
+        }
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    // numbers come back as Long, or Double if they were written as one,
+    // push payloads carry them as strings
+    private static int asInt(Object value) {
+        return (int) asLong(value);
+    }
+
+    private static long asLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+// Messages waiting to be applied to the list, in arrival order, with the
+// time each one was received. The batching of MessageIngestor without the
+// frame scheduling: messages go in one at a time and come out by batches.
+// A key is buffered once: a message sent by this device and its echo from
+// the database may arrive before the same batch, the later one replaces
+// the earlier in place. Not thread safe.
+public class IngestBuffer {
+
+    private final ArrayList<FriendlyMessage> mMessages = new ArrayList<>();
+    // receive times of mMessages
+    private long[] mReceivedAt = new long[16];
+    // keys of mMessages, so most lookups skip the scan
+    private final HashSet<String> mKeys = new HashSet<>();
+
+    public int size() {
+        return mMessages.size();
+    }
+
+    public boolean isEmpty() {
+        return mMessages.isEmpty();
+    }
+
+    // Buffers message, or replaces the buffered message with the same key,
+    // which keeps its place and receive time. Returns false if it replaced one.
+    public boolean add(FriendlyMessage message, long receivedAt) {
+        if (update(message)) {
+            return false;
+        }
+        mKeys.add(message.getKey());
+        int index = mMessages.size();
+        if (index == mReceivedAt.length) {
+            mReceivedAt = grow(mReceivedAt, index + 1);
+        }
+        mReceivedAt[index] = receivedAt;
+        mMessages.add(message);
+        return true;
+    }
+
+    // Replaces the buffered message with the same key, returns false if it is not buffered
+    public boolean update(FriendlyMessage message) {
+        int index = indexOf(message.getKey());
+        if (index < 0) {
+            return false;
+        }
+        mMessages.set(index, message);
+        return true;
+    }
+
+    // Drops the buffered message with this key, returns false if it is not buffered
+    public boolean remove(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        mMessages.remove(index);
+        mKeys.remove(key);
+        System.arraycopy(mReceivedAt, index + 1, mReceivedAt, index, mMessages.size() - index);
+        return true;
+    }
+
+    // Moves the oldest max messages to batch and their receive times to
+    // receivedAt from offset, which must have room for them. Returns how
+    // many were moved.
+    public int drainTo(List<FriendlyMessage> batch, int max, long[] receivedAt, int offset) {
+        int count = Math.min(max, mMessages.size());
+        List<FriendlyMessage> head = mMessages.subList(0, count);
+        batch.addAll(head);
+        for (int i = 0; i < count; i++) {
+            mKeys.remove(head.get(i).getKey());
+        }
+        head.clear();
+        System.arraycopy(mReceivedAt, 0, receivedAt, offset, count);
+        System.arraycopy(mReceivedAt, count, mReceivedAt, 0, mMessages.size());
+        return count;
+    }
+
+    public void clear() {
+        mMessages.clear();
+        mKeys.clear();
+    }
+
+    // edits and deletions are usually about recent messages
+    private int indexOf(String key) {
+        if (!mKeys.contains(key)) {
+            return -1;
+        }
+        for (int i = mMessages.size() - 1; i >= 0; i--) {
+            if (key.equals(mMessages.get(i).getKey())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long[] grow(long[] array, int minLength) {
+        long[] grown = new long[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.io.PrintWriter;
+
+// Histogram of non-negative values with about 6% resolution, cheap enough
+// to record on every frame: recording is a few shifts and an increment in a
+// preallocated array, and allocates nothing.
+//
+// Values below 16 have a bucket each; above, every power of two is split
+// into 16 linear buckets, so a bucket is never wider than 1/16 of its values.
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String mName;
+    private final String mUnit;
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    public LatencyHistogram(String name, String unit) {
+        this.mName = name;
+        this.mUnit = unit;
+    }
+
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[bucketOf(value)]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    // Value below which the given fraction of the values fall, e.g. 0.99
+    // for p99. Reported as the upper edge of its bucket.
+    public synchronized long getPercentile(double fraction) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(mMax, upperEdgeOf(i));
+            }
+        }
+        return mMax;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    // One line: name, count, p50, p90, p99, max
+    public void print(PrintWriter writer) {
+        long count;
+        long p50;
+        long p90;
+        long p99;
+        long max;
+        synchronized (this) {
+            count = mCount;
+            p50 = getPercentile(0.50);
+            p90 = getPercentile(0.90);
+            p99 = getPercentile(0.99);
+            max = mMax;
+        }
+        writer.printf("%-18s n=%-7d p50=%d%s p90=%d%s p99=%d%s max=%d%s%n",
+                mName, count, p50, mUnit, p90, mUnit, p99, mUnit, max, mUnit);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperEdgeOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,22 @@
+package com.google.firebase.udacity.friendlychat;
+
+// Rough sizes of the objects behind the cached messages, in bytes, for
+// MemoryBudget: a 32-bit VM keeping strings as UTF-16 chars, as ART does.
+// The sizes rank the caches against each other, they do not add up to the heap.
+public final class MemorySizes {
+
+    static final int STRING_OVERHEAD = 40;
+    static final int MESSAGE_OVERHEAD = 64;
+
+    private MemorySizes() {
+    }
+
+    public static long sizeOf(String value) {
+        return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+    }
+
+    public static long sizeOf(FriendlyMessage message) {
+        return MESSAGE_OVERHEAD + sizeOf(message.getKey()) + sizeOf(message.getText()) + sizeOf(message.getName())
+                + sizeOf(message.getPhotoUrl()) + sizeOf(message.getThumbnailUrl());
+    }
+}
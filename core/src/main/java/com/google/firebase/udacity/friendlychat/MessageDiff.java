@@ -0,0 +1,129 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Differences between the rows of a MessageList and a new list of messages,
+// as the ranges to insert, remove and rebind. Both lists are ordered by push
+// key, so the diff is a single merge of the two lists, O(n), where
+// DiffUtil's general algorithm is O(n + d^2) for d differences. Lists that
+// are not in key order, e.g. after a move, are replaced as a whole.
+//
+// Like DiffUtil, the diff is calculated while the list still holds the old
+// rows and dispatched once it holds the new ones.
+public final class MessageDiff {
+
+    // Notified of the differences, in an order where every position is
+    // valid once the previous notifications were applied
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // type, position, count of every range, from the end of the list
+    private int[] mRanges = new int[3 * 8];
+    private int mRangeCount;
+
+    private MessageDiff() {
+    }
+
+    public static MessageDiff calculate(MessageList oldList, List<FriendlyMessage> newList) {
+        MessageDiff diff = new MessageDiff();
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+        if (!isKeyOrdered(oldList) || !isKeyOrdered(newList)) {
+            diff.add(REMOVE, 0, oldSize);
+            diff.add(INSERT, 0, newSize);
+            return diff;
+        }
+        // from the end, so the positions before the current one never shift
+        int i = oldSize - 1;
+        int j = newSize - 1;
+        while (i >= 0 || j >= 0) {
+            int order = i < 0 ? -1 : j < 0 ? 1 : oldList.getKey(i).compareTo(newList.get(j).getKey());
+            if (order == 0) {
+                if (!oldList.sameContent(i, newList.get(j))) {
+                    diff.add(CHANGE, i, 1);
+                }
+                i--;
+                j--;
+            } else if (order > 0) {
+                diff.add(REMOVE, i, 1);
+                i--;
+            } else {
+                diff.add(INSERT, i + 1, 1);
+                j--;
+            }
+        }
+        return diff;
+    }
+
+    public void dispatchTo(Callback callback) {
+        for (int r = 0; r < mRangeCount; r++) {
+            int type = mRanges[3 * r];
+            int position = mRanges[3 * r + 1];
+            int count = mRanges[3 * r + 2];
+            if (type == INSERT) {
+                callback.onInserted(position, count);
+            } else if (type == REMOVE) {
+                callback.onRemoved(position, count);
+            } else {
+                callback.onChanged(position, count);
+            }
+        }
+    }
+
+    // Extends the last range when the new one continues it towards the start
+    private void add(int type, int position, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (mRangeCount > 0) {
+            int last = 3 * (mRangeCount - 1);
+            if (mRanges[last] == type) {
+                int lastPosition = mRanges[last + 1];
+                if (type == INSERT && position == lastPosition) {
+                    mRanges[last + 2] += count;
+                    return;
+                }
+                if (type != INSERT && position + count == lastPosition) {
+                    mRanges[last + 1] = position;
+                    mRanges[last + 2] += count;
+                    return;
+                }
+            }
+        }
+        if (3 * mRangeCount == mRanges.length) {
+            mRanges = Arrays.copyOf(mRanges, mRanges.length * 2);
+        }
+        mRanges[3 * mRangeCount] = type;
+        mRanges[3 * mRangeCount + 1] = position;
+        mRanges[3 * mRangeCount + 2] = count;
+        mRangeCount++;
+    }
+
+    private static boolean isKeyOrdered(MessageList list) {
+        for (int i = 1; i < list.size(); i++) {
+            if (list.getKey(i - 1).compareTo(list.getKey(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKeyOrdered(List<FriendlyMessage> list) {
+        for (int i = 1; i < list.size(); i++) {
+            if (list.get(i - 1).getKey().compareTo(list.get(i).getKey()) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,267 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Buffers the messages delivered by the live listener and hands them to the
+// list once per frame, so a burst costs one range insert and one layout
+// instead of one per message. Only used on the main thread.
+//
+// A frame applies at most MAX_BATCH_SIZE messages, so a flooded room costs
+// a bounded amount of work per frame and the backlog drains over a few
+// frames. While the user reads older messages the ingestor is held: nothing
+// is applied and the sink is only told how many messages wait. The backlog
+// is bounded by MAX_BACKLOG; past it the buffered messages are dropped and
+// the sink is told to fetch them again, from the database, when they are
+// needed.
+//
+// The time each message was received is kept until the next draw after it
+// was applied, and recorded in the receive->draw histogram.
+//
+// Frames come from Frames, the Choreographer in the app, so the ingestor
+// can be replayed against a simulated frame clock on a plain JVM.
+public class MessageIngestor {
+
+    // The frame clock of the thread the ingestor is used on
+    public interface Frames {
+        // runs frame once, at the start of the next frame
+        void postFrame(Runnable frame);
+
+        void removeFrame(Runnable frame);
+
+        // milliseconds of a monotonic clock, see SystemClock.uptimeMillis()
+        long uptimeMillis();
+    }
+
+    public interface Sink {
+        // the batch is reused once this returns, copy what must be kept
+        void onBatch(List<FriendlyMessage> batch);
+
+        // the number of messages waiting while held changed
+        void onBacklogChanged(int count);
+
+        // the backlog overflowed and was dropped, the list no longer
+        // ends with the newest message
+        void onOverflow(int dropped);
+    }
+
+    // enough for a screen of rows in one frame without missing the next one
+    static final int MAX_BATCH_SIZE = 100;
+    static final int MAX_BACKLOG = 2000;
+
+    private final Frames mFrames;
+    private final Sink mSink;
+    private final LatencyHistogram mReceiveToDraw;
+    private final Runnable mFrame = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+    // filled by add(), drained by up to MAX_BATCH_SIZE per frame
+    private final IngestBuffer mPending = new IngestBuffer();
+    private final ArrayList<FriendlyMessage> mApplying = new ArrayList<>();
+    private boolean mFrameScheduled;
+    private boolean mHeld;
+    // messages dropped by overflows since the ingestor was last released
+    private int mDroppedCount;
+    // receive times of the applied messages not drawn yet
+    private long[] mUndrawnReceivedAt = new long[16];
+    private int mUndrawnCount;
+
+    // throughput counters
+    private long mMessageCount;
+    private long mBatchCount;
+    private long mApplyTimeMs;
+    private long mFirstMessageTimeMs;
+    private long mLastBatchTimeMs;
+
+    public MessageIngestor(Frames frames, Sink sink, LatencyHistogram receiveToDraw) {
+        this.mFrames = frames;
+        this.mSink = sink;
+        this.mReceiveToDraw = receiveToDraw;
+    }
+
+    public void add(FriendlyMessage message) {
+        if (mFirstMessageTimeMs == 0) {
+            mFirstMessageTimeMs = mFrames.uptimeMillis();
+        }
+        // e.g. the echo of a message sent by this device, not applied yet
+        if (mPending.update(message)) {
+            return;
+        }
+        if (mPending.size() >= MAX_BACKLOG) {
+            overflow(mPending.size() + 1);
+            return;
+        }
+        mPending.add(message, mFrames.uptimeMillis());
+        if (mHeld) {
+            mSink.onBacklogChanged(getBacklogCount());
+        } else {
+            scheduleFrame();
+        }
+    }
+
+    // While held, e.g. when the user scrolled up, messages are only counted.
+    // Releasing applies the backlog a batch per frame.
+    public void setHeld(boolean held) {
+        if (mHeld == held) {
+            return;
+        }
+        mHeld = held;
+        if (!held) {
+            mDroppedCount = 0;
+            mSink.onBacklogChanged(0);
+            if (!mPending.isEmpty()) {
+                scheduleFrame();
+            }
+        }
+    }
+
+    public boolean isHeld() {
+        return mHeld;
+    }
+
+    // Messages waiting to be applied, dropped ones included
+    public int getBacklogCount() {
+        return mPending.size() + mDroppedCount;
+    }
+
+    // Applies an edit to a buffered message, returns false if it is not buffered
+    public boolean updatePending(FriendlyMessage message) {
+        return mPending.update(message);
+    }
+
+    // Drops a buffered message, returns false if it is not buffered
+    public boolean removePending(String key) {
+        if (!mPending.remove(key)) {
+            return false;
+        }
+        if (mHeld) {
+            mSink.onBacklogChanged(getBacklogCount());
+        }
+        return true;
+    }
+
+    // Applies every buffered message right away, e.g. before the listener
+    // is detached or a message is moved
+    public void flush() {
+        if (mFrameScheduled) {
+            mFrames.removeFrame(mFrame);
+            mFrameScheduled = false;
+        }
+        while (!mPending.isEmpty()) {
+            applyPending();
+        }
+    }
+
+    // Drops the buffered messages, e.g. when the list they were meant for is gone
+    public void cancel() {
+        if (mFrameScheduled) {
+            mFrames.removeFrame(mFrame);
+            mFrameScheduled = false;
+        }
+        mPending.clear();
+        mUndrawnCount = 0;
+        mDroppedCount = 0;
+    }
+
+    private void doFrame() {
+        mFrameScheduled = false;
+        if (mHeld) {
+            return;
+        }
+        applyPending();
+        if (!mPending.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+
+    // Call when the list is drawn
+    public void onDraw() {
+        if (mUndrawnCount == 0) {
+            return;
+        }
+        long now = mFrames.uptimeMillis();
+        for (int i = 0; i < mUndrawnCount; i++) {
+            mReceiveToDraw.record(now - mUndrawnReceivedAt[i]);
+        }
+        mUndrawnCount = 0;
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mFrames.postFrame(mFrame);
+        }
+    }
+
+    // Drops the backlog under memory pressure if it holds more than keep of
+    // MAX_BACKLOG, as if it overflowed
+    public void trim(float keep) {
+        if (mPending.size() > MAX_BACKLOG * keep) {
+            overflow(mPending.size());
+        }
+    }
+
+    // The list cannot catch up: the backlog is dropped rather than applied
+    // late, the sink fetches it again as the user scrolls down
+    private void overflow(int dropped) {
+        EventLog.record("ingest: overflow, %d messages dropped", dropped);
+        mPending.clear();
+        mDroppedCount += dropped;
+        mSink.onOverflow(dropped);
+        if (mHeld) {
+            mSink.onBacklogChanged(getBacklogCount());
+        }
+    }
+
+    private static long[] grow(long[] array, int minLength) {
+        long[] grown = new long[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private void applyPending() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        int count = Math.min(MAX_BATCH_SIZE, mPending.size());
+        if (mUndrawnCount + count > mUndrawnReceivedAt.length) {
+            mUndrawnReceivedAt = grow(mUndrawnReceivedAt, mUndrawnCount + count);
+        }
+        ArrayList<FriendlyMessage> batch = mApplying;
+        mPending.drainTo(batch, count, mUndrawnReceivedAt, mUndrawnCount);
+        mUndrawnCount += count;
+
+        long start = mFrames.uptimeMillis();
+        mSink.onBatch(batch);
+        long end = mFrames.uptimeMillis();
+
+        mMessageCount += count;
+        mBatchCount++;
+        mApplyTimeMs += end - start;
+        mLastBatchTimeMs = end;
+        EventLog.record("ingest: %d messages applied in %d ms", count, end - start);
+        batch.clear();
+    }
+
+    public long getMessageCount() {
+        return mMessageCount;
+    }
+
+    public long getBatchCount() {
+        return mBatchCount;
+    }
+
+    // Time spent in Sink.onBatch
+    public long getApplyTimeMs() {
+        return mApplyTimeMs;
+    }
+
+    // Messages applied per second since the first one was received
+    public double getMessagesPerSecond() {
+        long elapsed = mLastBatchTimeMs - mFirstMessageTimeMs;
+        return elapsed <= 0 ? mMessageCount : mMessageCount * 1000.0 / elapsed;
+    }
+}
@@ -0,0 +1,459 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+// The messages behind the list, stored column by column instead of as one
+// FriendlyMessage per row. Author names are interned in an AuthorTable and
+// whether a message is our own is a single id comparison, so a message costs
+// a few array slots plus its key and text.
+//
+// Rows live in slots [mHead, mTail) of the columns, in list order, and are
+// indexed by push key in an open-addressing table of slots, a few ints per
+// row where a HashMap would take an entry and a boxed Integer. Removing a
+// row leaves a hole instead of shifting the columns; while there are holes
+// a Fenwick tree counting the live slots maps list positions to slots and
+// back in O(log n), otherwise the mapping is an offset. Appends, prepends,
+// edits and removals by key never move other rows; the columns are only
+// rebuilt when they are full, when holes pile up, or for an insertion in
+// the middle of the list.
+public class MessageList {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // compact once there are this many holes and more holes than rows
+    private static final int MAX_HOLES = 64;
+    private static final int MIN_INDEX_SIZE = 16;
+
+    private final AuthorTable mAuthors = new AuthorTable();
+    private final int mOwnAuthorId;
+    // push key -> slot + 1, 0 for an empty entry; linear probing, at most
+    // half full
+    private int[] mIndex;
+
+    // columns, a null key marks a free slot
+    private String[] mKeys;
+    private String[] mTexts;
+    private String[] mPhotoUrls;
+    private String[] mThumbnailUrls;
+    private int[] mPhotoWidths;
+    private int[] mPhotoHeights;
+    private int[] mAuthorIds;
+    // Fenwick tree, 1-based, over the live slots; null while there are no holes
+    private int[] mTree;
+    private int mHead;
+    private int mTail;
+    private int mSize;
+
+    public MessageList(String ownName) {
+        mOwnAuthorId = mAuthors.intern(ownName);
+        rebuild(INITIAL_CAPACITY, 0, null);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Approximate bytes held by the rows, see MemorySizes. Names are shared
+    // by the rows of an author and not counted.
+    public long getMemorySize() {
+        long size = 0;
+        for (int slot = mHead; slot < mTail; slot++) {
+            if (mKeys[slot] != null) {
+                size += MemorySizes.MESSAGE_OVERHEAD + MemorySizes.sizeOf(mKeys[slot])
+                        + MemorySizes.sizeOf(mTexts[slot]) + MemorySizes.sizeOf(mPhotoUrls[slot])
+                        + MemorySizes.sizeOf(mThumbnailUrls[slot]);
+            }
+        }
+        return size;
+    }
+
+    public String getKey(int position) {
+        return mKeys[slotOf(position)];
+    }
+
+    public String getText(int position) {
+        return mTexts[slotOf(position)];
+    }
+
+    public String getName(int position) {
+        return mAuthors.getName(mAuthorIds[slotOf(position)]);
+    }
+
+    public String getPhotoUrl(int position) {
+        return mPhotoUrls[slotOf(position)];
+    }
+
+    public String getThumbnailUrl(int position) {
+        return mThumbnailUrls[slotOf(position)];
+    }
+
+    public int getPhotoWidth(int position) {
+        return mPhotoWidths[slotOf(position)];
+    }
+
+    public int getPhotoHeight(int position) {
+        return mPhotoHeights[slotOf(position)];
+    }
+
+    public boolean isOwnMessage(int position) {
+        return mOwnAuthorId != AuthorTable.NO_AUTHOR && mAuthorIds[slotOf(position)] == mOwnAuthorId;
+    }
+
+    public AuthorTable getAuthors() {
+        return mAuthors;
+    }
+
+    // Position of the message with this push key, or -1
+    public int indexOf(String key) {
+        int entry = findEntry(key);
+        return entry < 0 ? -1 : positionOf(mIndex[entry] - 1);
+    }
+
+    // Builds a FriendlyMessage for the row, for callers that need the object
+    public FriendlyMessage get(int position) {
+        int slot = slotOf(position);
+        FriendlyMessage message = new FriendlyMessage(mTexts[slot], mAuthors.getName(mAuthorIds[slot]), mPhotoUrls[slot]);
+        message.setKey(mKeys[slot]);
+        message.setThumbnailUrl(mThumbnailUrls[slot]);
+        message.setPhotoWidth(mPhotoWidths[slot]);
+        message.setPhotoHeight(mPhotoHeights[slot]);
+        return message;
+    }
+
+    // The key of message may only be that of the row it replaces or a new one
+    public void set(int position, FriendlyMessage message) {
+        int slot = slotOf(position);
+        int entry = findEntry(message.getKey());
+        if (entry >= 0 && mIndex[entry] - 1 != slot) {
+            throw new IllegalArgumentException("duplicate key " + message.getKey());
+        }
+        unindex(mKeys[slot]);
+        setSlot(slot, message);
+    }
+
+    // True if the row at position holds the same values as message
+    public boolean sameContent(int position, FriendlyMessage message) {
+        int slot = slotOf(position);
+        return equal(mTexts[slot], message.getText())
+                && equal(mAuthors.getName(mAuthorIds[slot]), message.getName())
+                && equal(mPhotoUrls[slot], message.getPhotoUrl())
+                && equal(mThumbnailUrls[slot], message.getThumbnailUrl())
+                && mPhotoWidths[slot] == message.getPhotoWidth()
+                && mPhotoHeights[slot] == message.getPhotoHeight();
+    }
+
+    // Messages must have a key, one that is neither in the list nor repeated
+    // among them. A duplicate is rejected before the list changes.
+    public void addAll(int position, List<FriendlyMessage> messages) {
+        int count = messages.size();
+        if (count == 0) {
+            return;
+        }
+        checkNewKeys(messages);
+        if (position == mSize) {
+            if (mTail + count > mKeys.length) {
+                rebuild(mSize + count, -1, null);
+            }
+            for (int i = 0; i < count; i++) {
+                addSlot(mTail++, messages.get(i));
+            }
+        } else if (position == 0) {
+            if (mHead < count) {
+                rebuild(mSize + count, -1, null);
+            }
+            mHead -= count;
+            for (int i = 0; i < count; i++) {
+                addSlot(mHead + i, messages.get(i));
+            }
+        } else {
+            rebuild(mSize + count, position, messages);
+        }
+    }
+
+    private void checkNewKeys(List<FriendlyMessage> messages) {
+        String previous = null;
+        boolean ordered = true;
+        for (FriendlyMessage message : messages) {
+            String key = message.getKey();
+            if (findEntry(key) >= 0) {
+                throw new IllegalArgumentException("duplicate key " + key);
+            }
+            ordered = ordered && (previous == null || previous.compareTo(key) < 0);
+            previous = key;
+        }
+        // pages come in key order, and keys in order cannot repeat
+        if (!ordered && new HashSet<>(keys(messages)).size() < messages.size()) {
+            throw new IllegalArgumentException("duplicate key in " + messages.size() + " messages");
+        }
+    }
+
+    private static List<String> keys(List<FriendlyMessage> messages) {
+        List<String> keys = new ArrayList<>(messages.size());
+        for (FriendlyMessage message : messages) {
+            keys.add(message.getKey());
+        }
+        return keys;
+    }
+
+    public void remove(int position) {
+        removeSlot(slotOf(position));
+        compactIfNeeded();
+    }
+
+    public void removeRange(int position, int count) {
+        // a range at the end goes from the back, so every removal shortens the
+        // columns instead of leaving a hole
+        boolean fromBack = position + count == mSize;
+        for (int i = 0; i < count; i++) {
+            removeSlot(slotOf(fromBack ? position + count - 1 - i : position));
+        }
+        compactIfNeeded();
+    }
+
+    public void clear() {
+        mKeys = null;
+        mSize = 0;
+        rebuild(INITIAL_CAPACITY, -1, null);
+    }
+
+    private int slotOf(int position) {
+        if (mTail - mHead == mSize) {
+            return mHead + position;
+        }
+        // smallest slot with position + 1 live slots up to it
+        int index = 0;
+        int remaining = position + 1;
+        for (int bit = Integer.highestOneBit(mTree.length - 1); bit > 0; bit >>= 1) {
+            int next = index + bit;
+            if (next < mTree.length && mTree[next] < remaining) {
+                index = next;
+                remaining -= mTree[next];
+            }
+        }
+        return index;
+    }
+
+    private int positionOf(int slot) {
+        if (mTail - mHead == mSize) {
+            return slot - mHead;
+        }
+        int count = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            count += mTree[i];
+        }
+        return count - 1;
+    }
+
+    private void addSlot(int slot, FriendlyMessage message) {
+        if ((mSize + 1) * 2 > mIndex.length) {
+            reindex(mSize + 1);
+        }
+        setSlot(slot, message);
+        if (mTree != null) {
+            updateTree(slot, 1);
+        }
+        mSize++;
+    }
+
+    private void setSlot(int slot, FriendlyMessage message) {
+        mKeys[slot] = message.getKey();
+        mTexts[slot] = message.getText();
+        mPhotoUrls[slot] = message.getPhotoUrl();
+        mThumbnailUrls[slot] = message.getThumbnailUrl();
+        mPhotoWidths[slot] = message.getPhotoWidth();
+        mPhotoHeights[slot] = message.getPhotoHeight();
+        mAuthorIds[slot] = mAuthors.intern(message.getName());
+        index(slot);
+    }
+
+    private void removeSlot(int slot) {
+        unindex(mKeys[slot]);
+        mKeys[slot] = null;
+        mTexts[slot] = null;
+        mPhotoUrls[slot] = null;
+        mThumbnailUrls[slot] = null;
+        if (mTree != null) {
+            updateTree(slot, -1);
+        }
+        mSize--;
+        // holes at either end are given back to the free space
+        while (mHead < mTail && mKeys[mHead] == null) {
+            mHead++;
+        }
+        while (mTail > mHead && mKeys[mTail - 1] == null) {
+            mTail--;
+        }
+        if (mTail - mHead == mSize) {
+            mTree = null;
+        } else if (mTree == null) {
+            buildTree();
+        }
+    }
+
+    private void compactIfNeeded() {
+        int holes = mTail - mHead - mSize;
+        if (holes > MAX_HOLES && holes > mSize) {
+            rebuild(mSize, -1, null);
+        }
+    }
+
+    private void updateTree(int slot, int delta) {
+        for (int i = slot + 1; i < mTree.length; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    // Copies the live rows into new columns sized for minSize rows, with free
+    // space on both sides, inserting the given messages at insertPosition
+    private void rebuild(int minSize, int insertPosition, List<FriendlyMessage> inserted) {
+        // half the slots free, and at least the rows being added free
+        // on either side of the old ones
+        int growth = minSize - (mKeys == null ? 0 : mSize);
+        int capacity = Math.max(INITIAL_CAPACITY, minSize + Math.max(minSize, growth));
+        String[] keys = new String[capacity];
+        String[] texts = new String[capacity];
+        String[] photoUrls = new String[capacity];
+        String[] thumbnailUrls = new String[capacity];
+        int[] photoWidths = new int[capacity];
+        int[] photoHeights = new int[capacity];
+        int[] authorIds = new int[capacity];
+        // center the rows, leaving room for appended and prepended pages
+        int rows = (mKeys == null ? 0 : mSize) + (inserted == null ? 0 : inserted.size());
+        int head = (capacity - rows) / 2;
+        int slot = head;
+        int position = 0;
+        boolean pending = inserted != null;
+        for (int old = mHead; mKeys != null && old < mTail; old++) {
+            if (mKeys[old] == null) {
+                continue;
+            }
+            if (pending && position == insertPosition) {
+                slot = copyInserted(inserted, slot, keys, texts, photoUrls, thumbnailUrls,
+                        photoWidths, photoHeights, authorIds);
+                pending = false;
+            }
+            keys[slot] = mKeys[old];
+            texts[slot] = mTexts[old];
+            photoUrls[slot] = mPhotoUrls[old];
+            thumbnailUrls[slot] = mThumbnailUrls[old];
+            photoWidths[slot] = mPhotoWidths[old];
+            photoHeights[slot] = mPhotoHeights[old];
+            authorIds[slot] = mAuthorIds[old];
+            slot++;
+            position++;
+        }
+        if (pending) {
+            slot = copyInserted(inserted, slot, keys, texts, photoUrls, thumbnailUrls,
+                    photoWidths, photoHeights, authorIds);
+        }
+        mKeys = keys;
+        mTexts = texts;
+        mPhotoUrls = photoUrls;
+        mThumbnailUrls = thumbnailUrls;
+        mPhotoWidths = photoWidths;
+        mPhotoHeights = photoHeights;
+        mAuthorIds = authorIds;
+        mHead = head;
+        mTail = slot;
+        mSize = slot - head;
+
+        reindex(mSize);
+        mTree = null;
+    }
+
+    private void buildTree() {
+        int capacity = mKeys.length;
+        mTree = new int[capacity + 1];
+        for (int slot = mHead; slot < mTail; slot++) {
+            if (mKeys[slot] != null) {
+                mTree[slot + 1] = 1;
+            }
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+
+    // Entry of the index holding key, or -1
+    private int findEntry(String key) {
+        int mask = mIndex.length - 1;
+        for (int entry = hash(key) & mask; mIndex[entry] != 0; entry = (entry + 1) & mask) {
+            if (mKeys[mIndex[entry] - 1].equals(key)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    // Indexes the key in the slot, the key must not be indexed yet
+    private void index(int slot) {
+        int mask = mIndex.length - 1;
+        int entry = hash(mKeys[slot]) & mask;
+        while (mIndex[entry] != 0) {
+            entry = (entry + 1) & mask;
+        }
+        mIndex[entry] = slot + 1;
+    }
+
+    private void unindex(String key) {
+        int entry = findEntry(key);
+        if (entry < 0) {
+            return;
+        }
+        // move later entries of the run back into the gap when their probe
+        // starts at or before it, so lookups never stop short of them
+        int mask = mIndex.length - 1;
+        for (int next = (entry + 1) & mask; mIndex[next] != 0; next = (next + 1) & mask) {
+            int home = hash(mKeys[mIndex[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - entry) & mask)) {
+                mIndex[entry] = mIndex[next];
+                entry = next;
+            }
+        }
+        mIndex[entry] = 0;
+    }
+
+    // Rebuilds the index for the live slots, sized for rows keys
+    private void reindex(int rows) {
+        int size = MIN_INDEX_SIZE;
+        while (rows * 2 > size) {
+            size *= 2;
+        }
+        mIndex = new int[size];
+        for (int slot = mHead; slot < mTail; slot++) {
+            if (mKeys[slot] != null) {
+                index(slot);
+            }
+        }
+    }
+
+    // push keys of a page share all but their last characters, spread them
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private int copyInserted(List<FriendlyMessage> inserted, int slot, String[] keys, String[] texts,
+                             String[] photoUrls, String[] thumbnailUrls, int[] photoWidths,
+                             int[] photoHeights, int[] authorIds) {
+        for (FriendlyMessage message : inserted) {
+            keys[slot] = message.getKey();
+            texts[slot] = message.getText();
+            photoUrls[slot] = message.getPhotoUrl();
+            thumbnailUrls[slot] = message.getThumbnailUrl();
+            photoWidths[slot] = message.getPhotoWidth();
+            photoHeights[slot] = message.getPhotoHeight();
+            authorIds[slot] = mAuthors.intern(message.getName());
+            slot++;
+        }
+        return slot;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
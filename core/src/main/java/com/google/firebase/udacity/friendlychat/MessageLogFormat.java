@@ -0,0 +1,152 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+// The records of the message log of LocalMessageStore, written and read
+// through DataOutput and DataInput so the format runs without the store.
+//
+// Log format: MAGIC, FORMAT_VERSION, then records of
+//   PUT:    type, key, flags, [text], [name], [photoUrl], [thumbnailUrl],
+//           [photoWidth, photoHeight]
+//   DELETE: type, key
+// sizes are varints, strings a varint byte length followed by the UTF-8 bytes.
+public final class MessageLogFormat {
+
+    public static final int RECORD_PUT = 1;
+    public static final int RECORD_DELETE = 2;
+    // readRecordType at the end of the log
+    public static final int END = -1;
+
+    private static final int MAGIC = 0x46434d53; // "FCMS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int FLAG_TEXT = 1;
+    private static final int FLAG_NAME = 1 << 1;
+    private static final int FLAG_PHOTO = 1 << 2;
+    private static final int FLAG_THUMBNAIL = 1 << 3;
+    private static final int FLAG_PHOTO_SIZE = 1 << 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // longer than any key, text or URL written, a longer length is a broken
+    // record and must not be allocated
+    static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private MessageLogFormat() {
+    }
+
+    public static void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+    }
+
+    // Returns false if the log was written in another format
+    public static boolean readHeader(DataInput in) throws IOException {
+        return in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION;
+    }
+
+    public static void writePut(DataOutput out, FriendlyMessage message) throws IOException {
+        boolean hasSize = message.getPhotoWidth() > 0 && message.getPhotoHeight() > 0;
+        int flags = (message.getText() != null ? FLAG_TEXT : 0)
+                | (message.getName() != null ? FLAG_NAME : 0)
+                | (message.getPhotoUrl() != null ? FLAG_PHOTO : 0)
+                | (message.getThumbnailUrl() != null ? FLAG_THUMBNAIL : 0)
+                | (hasSize ? FLAG_PHOTO_SIZE : 0);
+        out.writeByte(RECORD_PUT);
+        writeString(out, message.getKey());
+        out.writeByte(flags);
+        if (message.getText() != null) {
+            writeString(out, message.getText());
+        }
+        if (message.getName() != null) {
+            writeString(out, message.getName());
+        }
+        if (message.getPhotoUrl() != null) {
+            writeString(out, message.getPhotoUrl());
+        }
+        if (message.getThumbnailUrl() != null) {
+            writeString(out, message.getThumbnailUrl());
+        }
+        if (hasSize) {
+            writeVarInt(out, message.getPhotoWidth());
+            writeVarInt(out, message.getPhotoHeight());
+        }
+    }
+
+    public static void writeDelete(DataOutput out, String key) throws IOException {
+        out.writeByte(RECORD_DELETE);
+        writeString(out, key);
+    }
+
+    // Type of the next record, END if the log ends before it. Any other
+    // value is a broken record. The key and, for a put, the message follow.
+    public static int readRecordType(DataInput in) throws IOException {
+        try {
+            return in.readByte();
+        } catch (EOFException e) {
+            return END;
+        }
+    }
+
+    public static String readKey(DataInput in) throws IOException {
+        return readString(in);
+    }
+
+    public static FriendlyMessage readMessage(DataInput in, String key) throws IOException {
+        int flags = in.readByte();
+        String text = (flags & FLAG_TEXT) != 0 ? readString(in) : null;
+        String name = (flags & FLAG_NAME) != 0 ? readString(in) : null;
+        String photoUrl = (flags & FLAG_PHOTO) != 0 ? readString(in) : null;
+        FriendlyMessage message = new FriendlyMessage(text, name, photoUrl);
+        message.setKey(key);
+        if ((flags & FLAG_THUMBNAIL) != 0) {
+            message.setThumbnailUrl(readString(in));
+        }
+        if ((flags & FLAG_PHOTO_SIZE) != 0) {
+            message.setPhotoWidth(readVarInt(in));
+            message.setPhotoHeight(readVarInt(in));
+        }
+        return message;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    // varint: 7 bits per byte, high bit set when more bytes follow
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0 || shift > 35) {
+            throw new IOException("bad varint");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,404 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Loads the chat history a page at a time, ordered by push ID, and keeps
+// only a bounded window of pages around the viewport in the rows.
+// Older pages are fetched as the user scrolls up, pages far from the
+// viewport are evicted and fetched again when the user comes back. Under
+// memory pressure the window shrinks further, see trim().
+//
+// The pager only decides what to load and what to keep: pages come from a
+// Source, are shown by Rows within a Viewport and the newest ones are saved
+// to a Store. The app backs them with the database, the adapter, the layout
+// manager and LocalMessageStore; tests and benchmarks with plain lists.
+// Not thread safe, use it and call its callbacks on one thread.
+public class MessagePager {
+
+    public static final int PAGE_SIZE = 50;
+    // start fetching the next page when the viewport is this close to the edge
+    private static final int PREFETCH_DISTANCE = 10;
+    // pages kept in memory before the ones furthest from the viewport are evicted
+    private static final int MAX_WINDOW_PAGES = 6;
+    static final int MAX_WINDOW_SIZE = PAGE_SIZE * MAX_WINDOW_PAGES;
+
+    private static final Comparator<FriendlyMessage> KEY_ORDER = new Comparator<FriendlyMessage>() {
+        @Override
+        public int compare(FriendlyMessage a, FriendlyMessage b) {
+            return a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    public interface Callback {
+        // the newest message is in the window, live messages can be appended
+        // after newestKey, which is null if the room is empty
+        void onNewestLoaded(String newestKey);
+
+        // the newest messages were evicted, live messages must not be appended
+        void onNewestEvicted();
+
+        // the latest page could not be loaded, resume() asks for it again
+        void onLatestFailed();
+    }
+
+    // The messages of the room, in key order
+    public interface Source {
+        // the last limit messages
+        void loadLatest(int limit, PageCallback callback);
+
+        // up to limit messages before key, the closest ones
+        void loadBefore(String key, int limit, PageCallback callback);
+
+        // up to limit messages after key, the closest ones
+        void loadAfter(String key, int limit, PageCallback callback);
+    }
+
+    public interface PageCallback {
+        // page is in key order and holds fewer than limit messages only at an end of the room
+        void onLoaded(List<FriendlyMessage> page);
+
+        void onFailed();
+    }
+
+    // The window of messages shown, in key order, see MessageAdapter
+    public interface Rows {
+        int getItemCount();
+
+        String getKey(int position);
+
+        // replaces every row
+        void setMessages(List<FriendlyMessage> messages);
+
+        void addAll(int position, List<FriendlyMessage> messages);
+
+        // at its key order position
+        void insert(FriendlyMessage message);
+
+        // returns false if no row has the key of message
+        boolean update(FriendlyMessage message);
+
+        boolean remove(String key);
+
+        // after previousKey, or first if it is null
+        void move(FriendlyMessage message, String previousKey);
+
+        void removeRange(int position, int count);
+    }
+
+    // The rows on screen, see LinearLayoutManager
+    public interface Viewport {
+        int NO_POSITION = -1;
+
+        int findFirstVisibleItemPosition();
+
+        int findLastVisibleItemPosition();
+    }
+
+    // Keeps the newest messages for the next cold start, see LocalMessageStore
+    public interface Store {
+        void put(FriendlyMessage message);
+
+        void putAll(List<FriendlyMessage> messages);
+
+        // the latest page replaces the saved messages
+        void replaceNewest(List<FriendlyMessage> page);
+
+        void remove(String key);
+    }
+
+    private final Source mSource;
+    private final Rows mRows;
+    private final Viewport mViewport;
+    private final Store mStore;
+    private final Callback mCallback;
+
+    private boolean mHasOlder;
+    private boolean mHasNewer;
+    private boolean mLoadingLatest;
+    private boolean mLoadingOlder;
+    private boolean mLoadingNewer;
+    // the latest page was loaded at least once
+    private boolean mLatestLoaded;
+    // while paused the live listener is not handed over
+    private boolean mPaused;
+    // set when the pager is replaced, results still in flight are dropped
+    private boolean mReleased;
+
+    public MessagePager(Source source, Rows rows, Viewport viewport, Store store, Callback callback) {
+        this.mSource = source;
+        this.mRows = rows;
+        this.mViewport = viewport;
+        this.mStore = store;
+        this.mCallback = callback;
+    }
+
+    public void release() {
+        mReleased = true;
+    }
+
+    // Call when the live listener is detached, the loaded window is kept
+    public void pause() {
+        mPaused = true;
+    }
+
+    // Call when the screen is visible again, hands over to the live listener
+    // from the newest loaded key so only the messages sent meanwhile are fetched
+    public void resume() {
+        mPaused = false;
+        if (!mLatestLoaded) {
+            // the latest page failed, or is still loading
+            loadLatest();
+        } else if (!mHasNewer) {
+            mCallback.onNewestLoaded(getNewestKey());
+        } else {
+            // the rows below the viewport may have been trimmed meanwhile
+            onScrolled();
+        }
+    }
+
+    // Fetches the last page of the room and replaces the window with it
+    public void loadLatest() {
+        if (mLoadingLatest) {
+            return;
+        }
+        mLoadingLatest = true;
+        mSource.loadLatest(PAGE_SIZE, new PageCallback() {
+            @Override
+            public void onLoaded(List<FriendlyMessage> page) {
+                mLoadingLatest = false;
+                if (mReleased) {
+                    return;
+                }
+                EventLog.record("pager: latest page, %d messages", page.size());
+                mHasOlder = page.size() >= PAGE_SIZE;
+                mHasNewer = false;
+                // replaces the messages drawn from the local store
+                mRows.setMessages(page);
+                mStore.replaceNewest(page);
+                mLatestLoaded = true;
+                notifyNewestLoaded();
+            }
+
+            @Override
+            public void onFailed() {
+                mLoadingLatest = false;
+                if (mReleased) {
+                    return;
+                }
+                EventLog.record("pager: latest page failed");
+                mCallback.onLatestFailed();
+            }
+        });
+    }
+
+    // Call when the list scrolls, fetches the pages next to the viewport
+    public void onScrolled() {
+        int count = mRows.getItemCount();
+        if (count == 0) {
+            return;
+        }
+        if (mViewport.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+            loadOlder();
+        }
+        if (mViewport.findLastVisibleItemPosition() >= count - 1 - PREFETCH_DISTANCE) {
+            loadNewer();
+        }
+    }
+
+    // Appends a batch of messages received by the live listener or sent from
+    // the outbox. Messages that are not newer than the newest row are the
+    // echo of a row already shown, or were received after a message of ours
+    // was shown and go in before it.
+    public void appendLive(List<FriendlyMessage> messages) {
+        if (mHasNewer) {
+            // the tail of the window is not the tail of the room
+            return;
+        }
+        // live messages and sent messages may be interleaved
+        Collections.sort(messages, KEY_ORDER);
+        String newestKey = getNewestKey();
+        int from = 0;
+        while (newestKey != null && from < messages.size()
+                && newestKey.compareTo(messages.get(from).getKey()) >= 0) {
+            FriendlyMessage message = messages.get(from++);
+            boolean inWindow = !mHasOlder || mRows.getKey(0).compareTo(message.getKey()) < 0;
+            if (!mRows.update(message) && inWindow) {
+                mRows.insert(message);
+                mStore.put(message);
+            }
+        }
+        if (from == messages.size()) {
+            return;
+        }
+        List<FriendlyMessage> added = messages.subList(from, messages.size());
+        mRows.addAll(mRows.getItemCount(), added);
+        mStore.putAll(added);
+        evictOldest();
+    }
+
+    // Call when live messages were dropped instead of appended: the window
+    // no longer ends with the newest message, the missing ones are fetched
+    // by loadNewer as the user scrolls down
+    public void onLiveDropped() {
+        if (!mHasNewer) {
+            mHasNewer = true;
+            mCallback.onNewestEvicted();
+        }
+        onScrolled();
+    }
+
+    // Applies an edit received by the live listener
+    public void update(FriendlyMessage message) {
+        if (mRows.update(message)) {
+            mStore.put(message);
+        }
+    }
+
+    // Applies a deletion received by the live listener
+    public void remove(String key) {
+        mRows.remove(key);
+        mStore.remove(key);
+    }
+
+    public void move(FriendlyMessage message, String previousKey) {
+        mRows.move(message, previousKey);
+    }
+
+    private void notifyNewestLoaded() {
+        if (!mPaused) {
+            mCallback.onNewestLoaded(getNewestKey());
+        }
+    }
+
+    // null while the window is empty
+    public String getNewestKey() {
+        int count = mRows.getItemCount();
+        return count == 0 ? null : mRows.getKey(count - 1);
+    }
+
+    private void loadOlder() {
+        if (mLoadingOlder || !mHasOlder) {
+            return;
+        }
+        final String oldestKey = mRows.getKey(0);
+        mLoadingOlder = true;
+        mSource.loadBefore(oldestKey, PAGE_SIZE, new PageCallback() {
+            @Override
+            public void onLoaded(List<FriendlyMessage> page) {
+                mLoadingOlder = false;
+                if (mReleased || mRows.getItemCount() == 0 || !oldestKey.equals(mRows.getKey(0))) {
+                    // the window moved while the page was loading
+                    return;
+                }
+                EventLog.record("pager: older page, %d messages", page.size());
+                mHasOlder = page.size() >= PAGE_SIZE;
+                mRows.addAll(0, page);
+                evictNewest();
+            }
+
+            @Override
+            public void onFailed() {
+                mLoadingOlder = false;
+            }
+        });
+    }
+
+    private void loadNewer() {
+        if (mLoadingNewer || !mHasNewer) {
+            return;
+        }
+        final String newestKey = getNewestKey();
+        mLoadingNewer = true;
+        mSource.loadAfter(newestKey, PAGE_SIZE, new PageCallback() {
+            @Override
+            public void onLoaded(List<FriendlyMessage> page) {
+                mLoadingNewer = false;
+                if (mReleased || !newestKey.equals(getNewestKey())) {
+                    return;
+                }
+                EventLog.record("pager: newer page, %d messages", page.size());
+                mRows.addAll(mRows.getItemCount(), page);
+                mStore.putAll(page);
+                evictOldest();
+                if (page.size() < PAGE_SIZE) {
+                    // caught up with the room, hand over to the live listener
+                    mHasNewer = false;
+                    notifyNewestLoaded();
+                }
+            }
+
+            @Override
+            public void onFailed() {
+                mLoadingNewer = false;
+            }
+        });
+    }
+
+    // Shrinks the window to keep of its maximum size, dropping the rows
+    // furthest from the viewport first, evenly from both ends. Visible rows
+    // are never dropped.
+    public void trim(float keep) {
+        int count = mRows.getItemCount();
+        int first = mViewport.findFirstVisibleItemPosition();
+        int last = mViewport.findLastVisibleItemPosition();
+        int excess = count - (int) (MAX_WINDOW_SIZE * keep);
+        if (excess <= 0 || first == Viewport.NO_POSITION) {
+            return;
+        }
+        int above = first;
+        int below = count - 1 - last;
+        while (excess > 0 && above + below > 0) {
+            if (above >= below) {
+                above--;
+            } else {
+                below--;
+            }
+            excess--;
+        }
+        int dropBelow = count - 1 - last - below;
+        int dropAbove = first - above;
+        EventLog.record("pager: trimmed %d oldest and %d newest messages", dropAbove, dropBelow);
+        if (dropBelow > 0) {
+            mRows.removeRange(count - dropBelow, dropBelow);
+            if (!mHasNewer) {
+                mHasNewer = true;
+                mCallback.onNewestEvicted();
+            }
+        }
+        if (dropAbove > 0) {
+            mRows.removeRange(0, dropAbove);
+            mHasOlder = true;
+        }
+    }
+
+    // Drops the oldest messages above the viewport once the window is full
+    private void evictOldest() {
+        int excess = mRows.getItemCount() - MAX_WINDOW_SIZE;
+        // never evict rows the user may scroll back to right away
+        int evictable = mViewport.findFirstVisibleItemPosition() - PAGE_SIZE;
+        int count = Math.min(excess, evictable);
+        if (count > 0) {
+            EventLog.record("pager: evicted %d oldest messages", count);
+            mRows.removeRange(0, count);
+            mHasOlder = true;
+        }
+    }
+
+    // Drops the newest messages below the viewport once the window is full
+    private void evictNewest() {
+        int total = mRows.getItemCount();
+        int excess = total - MAX_WINDOW_SIZE;
+        int evictable = total - 1 - mViewport.findLastVisibleItemPosition() - PAGE_SIZE;
+        int count = Math.min(excess, evictable);
+        if (count > 0) {
+            EventLog.record("pager: evicted %d newest messages", count);
+            mRows.removeRange(total - count, count);
+            if (!mHasNewer) {
+                mHasNewer = true;
+                mCallback.onNewestEvicted();
+            }
+        }
+    }
+}
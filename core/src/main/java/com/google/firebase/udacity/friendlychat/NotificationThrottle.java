@@ -0,0 +1,104 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The pacing of ChatNotifier: a burst of messages collapses into one
+// notification listing the newest MAX_LINES. It is updated at most once per
+// MIN_UPDATE_INTERVAL_MS, the messages arriving meanwhile are added by the
+// next update, and alerts at most once per MIN_ALERT_INTERVAL_MS. While in
+// the foreground nothing is shown, and going to the foreground clears it,
+// as does dismissing the notification.
+//
+// Only used on one thread, the one Timer posts to.
+public class NotificationThrottle {
+
+    public interface Display {
+        // lines newest last, count the messages since the notification was cleared
+        void show(List<String> lines, int count, boolean alert);
+
+        void cancel();
+    }
+
+    static final long MIN_UPDATE_INTERVAL_MS = 3000;
+    static final long MIN_ALERT_INTERVAL_MS = 60 * 1000;
+    static final int MAX_LINES = 5;
+
+    private final Timer mTimer;
+    private final Display mDisplay;
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mUpdateScheduled = false;
+            update();
+        }
+    };
+
+    // newest last
+    private final List<String> mLines = new ArrayList<>();
+    // messages in the notification
+    private int mCount;
+    private long mLastUpdateAt;
+    private long mLastAlertAt;
+    private boolean mUpdateScheduled;
+    private boolean mForeground;
+
+    public NotificationThrottle(Timer timer, Display display) {
+        this.mTimer = timer;
+        this.mDisplay = display;
+    }
+
+    // While in the foreground nothing is shown
+    public void setForeground(boolean foreground) {
+        mForeground = foreground;
+        if (foreground) {
+            clear();
+        }
+    }
+
+    // Adds the line of a message, shown now or by the next update
+    public void add(String line) {
+        if (mForeground) {
+            return;
+        }
+        mLines.add(line);
+        if (mLines.size() > MAX_LINES) {
+            mLines.remove(0);
+        }
+        mCount++;
+        if (mUpdateScheduled) {
+            return;
+        }
+        long wait = mLastUpdateAt + MIN_UPDATE_INTERVAL_MS - mTimer.elapsedRealtime();
+        if (mLastUpdateAt == 0 || wait <= 0) {
+            update();
+        } else {
+            mUpdateScheduled = true;
+            mTimer.postDelayed(mUpdateRunnable, wait);
+        }
+    }
+
+    private void update() {
+        if (mCount == 0) {
+            return;
+        }
+        long now = mTimer.elapsedRealtime();
+        boolean alert = mLastAlertAt == 0 || now - mLastAlertAt >= MIN_ALERT_INTERVAL_MS;
+        if (alert) {
+            mLastAlertAt = now;
+        }
+        mLastUpdateAt = now;
+        mDisplay.show(Collections.unmodifiableList(mLines), mCount, alert);
+        EventLog.record("notifier: %d messages, alert %d", mCount, alert ? 1 : 0);
+    }
+
+    // Starts the next notification over, e.g. once this one was dismissed
+    public void clear() {
+        mTimer.removeCallbacks(mUpdateRunnable);
+        mUpdateScheduled = false;
+        mLines.clear();
+        mCount = 0;
+        mDisplay.cancel();
+    }
+}
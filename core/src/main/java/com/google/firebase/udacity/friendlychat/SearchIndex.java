@@ -0,0 +1,404 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Inverted index over the text and the author name of the messages of
+// every room.
+//
+// Every message is a document numbered in the order it was indexed. A
+// document keeps only the room and the push key of its message, the
+// callers read the messages of the results where they are stored. Terms
+// map to the postings of the documents holding them, in a TreeMap so the
+// terms starting with a prefix are a range. A query matches the messages
+// holding every query term, each term as a word prefix, and ranks them by
+// the rarity of the matched terms, exact words before prefixes and names
+// before text, newest first on ties. Only the postings of the query terms
+// are read, the messages are never scanned.
+//
+// At most maxDocuments messages are indexed, the earliest indexed leave
+// first. Replacing or removing a message only marks its document deleted;
+// the postings are renumbered without the deleted documents once those are
+// the majority, or when the index is trimmed. Not thread safe,
+// MessageSearch confines it to one thread.
+public class SearchIndex {
+
+    // A message matching a query
+    public static final class Hit {
+        public final String room;
+        public final String key;
+
+        Hit(String room, String key) {
+            this.room = room;
+            this.key = key;
+        }
+    }
+
+    // a few months of a busy room
+    static final int MAX_DOCUMENTS = 20000;
+    // shorter query terms only match whole words, a one letter prefix
+    // would read the postings of a large part of the vocabulary
+    static final int MIN_PREFIX_LENGTH = 2;
+    // a prefix match counts for less than the whole word
+    private static final float PREFIX_WEIGHT = 0.5f;
+    // a term in the author name counts as this many occurrences in the text
+    private static final float NAME_WEIGHT = 2f;
+    private static final int MIN_COMPACT_SIZE = 1024;
+    // posting weight: occurrences in the text in the low bits, this bit if in the name
+    private static final int IN_NAME = 1 << 16;
+    private static final int MAX_TEXT_COUNT = IN_NAME - 1;
+    // push keys are 20 characters, see MemorySizes
+    private static final int DOCUMENT_SIZE = MemorySizes.STRING_OVERHEAD + 2 * 20 + 64;
+    private static final int TERM_SIZE = MemorySizes.STRING_OVERHEAD + 2 * 8 + 96;
+    private static final int POSTING_SIZE = 8;
+
+    private final int mMaxDocuments;
+    // key and room of every document, the key is null once deleted
+    private final ArrayList<String> mKeys = new ArrayList<>();
+    private final ArrayList<String> mRooms = new ArrayList<>();
+    // hash of the text and name, to skip messages indexed unchanged
+    private int[] mContentHashes = new int[16];
+    private final HashMap<String, Integer> mDocIds = new HashMap<>();
+    private final TreeMap<String, Postings> mTerms = new TreeMap<>();
+    private int mDeletedCount;
+    // no live document before this one
+    private int mOldest;
+    private long mPostingCount;
+
+    // per query state, indexed by document, reset after each query
+    private float[] mScores = new float[0];
+    // number of query terms matched so far
+    private int[] mMatchedTerms = new int[0];
+
+    public SearchIndex() {
+        this(MAX_DOCUMENTS);
+    }
+
+    SearchIndex(int maxDocuments) {
+        this.mMaxDocuments = maxDocuments;
+    }
+
+    // Indexes the message of room, replacing the one with the same key
+    public void put(String room, FriendlyMessage message) {
+        String key = message.getKey();
+        if (key == null) {
+            return;
+        }
+        int contentHash = contentHash(message);
+        Integer previous = mDocIds.get(key);
+        if (previous != null) {
+            // a hash collision would keep an edit out of the index, a one in 2^32 chance
+            if (mContentHashes[previous] == contentHash && room.equals(mRooms.get(previous))) {
+                return;
+            }
+            delete(previous);
+        }
+        int doc = mKeys.size();
+        mKeys.add(key);
+        mRooms.add(room);
+        if (doc == mContentHashes.length) {
+            mContentHashes = Arrays.copyOf(mContentHashes, doc * 2);
+        }
+        mContentHashes[doc] = contentHash;
+        mDocIds.put(key, doc);
+
+        Map<String, Integer> weights = new HashMap<>();
+        for (String term : tokenize(message.getText())) {
+            Integer weight = weights.get(term);
+            weights.put(term, weight == null ? 1 : Math.min(MAX_TEXT_COUNT, weight + 1));
+        }
+        for (String term : tokenize(message.getName())) {
+            Integer weight = weights.get(term);
+            weights.put(term, (weight == null ? 0 : weight) | IN_NAME);
+        }
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            Postings postings = mTerms.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                mTerms.put(entry.getKey(), postings);
+            }
+            postings.add(doc, entry.getValue());
+        }
+        mPostingCount += weights.size();
+
+        while (mDocIds.size() > mMaxDocuments) {
+            deleteOldest();
+        }
+        if (mDeletedCount >= MIN_COMPACT_SIZE && mDeletedCount > mDocIds.size()) {
+            compact();
+        }
+    }
+
+    public void remove(String key) {
+        Integer doc = mDocIds.get(key);
+        if (doc != null) {
+            delete(doc);
+        }
+        if (mDeletedCount >= MIN_COMPACT_SIZE && mDeletedCount > mDocIds.size()) {
+            compact();
+        }
+    }
+
+    public void clear() {
+        mKeys.clear();
+        mRooms.clear();
+        mDocIds.clear();
+        mTerms.clear();
+        mDeletedCount = 0;
+        mOldest = 0;
+        mPostingCount = 0;
+    }
+
+    // Keeps at most keep, 0 to 1, of maxDocuments, the earliest indexed leave first
+    public void trim(float keep) {
+        int target = (int) (mMaxDocuments * keep);
+        if (target == 0) {
+            clear();
+            return;
+        }
+        while (mDocIds.size() > target) {
+            deleteOldest();
+        }
+        if (mDeletedCount > 0) {
+            compact();
+        }
+    }
+
+    // Messages indexed, the replaced and removed ones excluded
+    public int size() {
+        return mDocIds.size();
+    }
+
+    // Number of distinct terms
+    public int getTermCount() {
+        return mTerms.size();
+    }
+
+    // Approximate bytes held, deleted documents included until compacted
+    public long getMemorySize() {
+        return (long) mKeys.size() * DOCUMENT_SIZE + (long) mTerms.size() * TERM_SIZE
+                + mPostingCount * POSTING_SIZE;
+    }
+
+    // The best limit messages matching every term of query, best first
+    public List<Hit> search(String query, int limit) {
+        List<String> terms = new ArrayList<>();
+        for (String term : tokenize(query)) {
+            if (!terms.contains(term)) {
+                terms.add(term);
+            }
+        }
+        if (terms.isEmpty() || limit <= 0 || mDocIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (mScores.length < mKeys.size()) {
+            mScores = new float[mKeys.size()];
+            mMatchedTerms = new int[mKeys.size()];
+        }
+
+        // the rarest term first, the later ones only narrow its documents down
+        final List<SortedMap<String, Postings>> ranges = new ArrayList<>(terms.size());
+        final int[] postingCounts = new int[terms.size()];
+        List<Integer> order = new ArrayList<>(terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            SortedMap<String, Postings> range = term.length() >= MIN_PREFIX_LENGTH
+                    ? mTerms.subMap(term, term + Character.MAX_VALUE)
+                    : exactly(term);
+            for (Postings postings : range.values()) {
+                postingCounts[i] += postings.size;
+            }
+            ranges.add(range);
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return postingCounts[a] - postingCounts[b];
+            }
+        });
+
+        Postings candidates = new Postings();
+        for (int i = 0; i < order.size(); i++) {
+            int termIndex = order.get(i);
+            int termLength = terms.get(termIndex).length();
+            for (Map.Entry<String, Postings> match : ranges.get(termIndex).entrySet()) {
+                Postings postings = match.getValue();
+                float termWeight = (float) Math.log(1 + (double) size() / postings.size)
+                        * (match.getKey().length() == termLength ? 1f : PREFIX_WEIGHT);
+                for (int p = 0; p < postings.size; p++) {
+                    int doc = postings.docs[p];
+                    int matched = mMatchedTerms[doc];
+                    // only documents matching the previous terms, maybe already
+                    // matched by another word starting with this term
+                    if (matched != i && matched != i + 1 || mKeys.get(doc) == null) {
+                        continue;
+                    }
+                    if (i == 0 && matched == 0) {
+                        candidates.add(doc, 0);
+                    }
+                    mMatchedTerms[doc] = i + 1;
+                    mScores[doc] += termWeight * score(postings.weights[p]);
+                }
+            }
+        }
+
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareRank(a, b);
+            }
+        });
+        for (int c = 0; c < candidates.size; c++) {
+            int doc = candidates.docs[c];
+            if (mMatchedTerms[doc] == terms.size()) {
+                best.add(doc);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<Hit> results = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            int doc = best.poll();
+            results.add(new Hit(mRooms.get(doc), mKeys.get(doc)));
+        }
+        Collections.reverse(results);
+
+        for (int c = 0; c < candidates.size; c++) {
+            int doc = candidates.docs[c];
+            mScores[doc] = 0;
+            mMatchedTerms[doc] = 0;
+        }
+        return results;
+    }
+
+    // Lower rank first: lower score, then older message
+    private int compareRank(int a, int b) {
+        int byScore = Float.compare(mScores[a], mScores[b]);
+        return byScore != 0 ? byScore : mKeys.get(a).compareTo(mKeys.get(b));
+    }
+
+    private static float score(int weight) {
+        int textCount = weight & MAX_TEXT_COUNT;
+        float score = textCount == 0 ? 0 : 1 + (float) Math.log(textCount);
+        return (weight & IN_NAME) != 0 ? score + NAME_WEIGHT : score;
+    }
+
+    private SortedMap<String, Postings> exactly(String term) {
+        return mTerms.subMap(term, term + '\0');
+    }
+
+    private void delete(int doc) {
+        mDocIds.remove(mKeys.get(doc));
+        mKeys.set(doc, null);
+        mRooms.set(doc, null);
+        mDeletedCount++;
+    }
+
+    private void deleteOldest() {
+        while (mKeys.get(mOldest) == null) {
+            mOldest++;
+        }
+        delete(mOldest);
+    }
+
+    // Numbers the live documents again, in the same order, and drops the
+    // postings of the deleted ones
+    private void compact() {
+        int[] renumbered = new int[mKeys.size()];
+        int live = 0;
+        for (int doc = 0; doc < mKeys.size(); doc++) {
+            if (mKeys.get(doc) == null) {
+                renumbered[doc] = -1;
+            } else {
+                mKeys.set(live, mKeys.get(doc));
+                mRooms.set(live, mRooms.get(doc));
+                mContentHashes[live] = mContentHashes[doc];
+                mDocIds.put(mKeys.get(live), live);
+                renumbered[doc] = live++;
+            }
+        }
+        mKeys.subList(live, mKeys.size()).clear();
+        mRooms.subList(live, mRooms.size()).clear();
+
+        mPostingCount = 0;
+        for (Iterator<Postings> terms = mTerms.values().iterator(); terms.hasNext(); ) {
+            Postings postings = terms.next();
+            int size = 0;
+            for (int p = 0; p < postings.size; p++) {
+                int doc = renumbered[postings.docs[p]];
+                if (doc >= 0) {
+                    postings.docs[size] = doc;
+                    postings.weights[size] = postings.weights[p];
+                    size++;
+                }
+            }
+            postings.size = size;
+            mPostingCount += size;
+            if (size == 0) {
+                terms.remove();
+            }
+        }
+        mDeletedCount = 0;
+        mOldest = 0;
+    }
+
+    // Lower case words, split on anything that is not a letter or a digit
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    private static int contentHash(FriendlyMessage message) {
+        String text = message.getText();
+        String name = message.getName();
+        return 31 * (text == null ? 0 : text.hashCode()) + (name == null ? 0 : name.hashCode());
+    }
+
+    // documents holding a term, in increasing order, with their weights
+    private static class Postings {
+        int[] docs = new int[2];
+        int[] weights = new int[2];
+        int size;
+
+        void add(int doc, int weight) {
+            if (size == docs.length) {
+                int[] grownDocs = new int[size * 2];
+                int[] grownWeights = new int[size * 2];
+                System.arraycopy(docs, 0, grownDocs, 0, size);
+                System.arraycopy(weights, 0, grownWeights, 0, size);
+                docs = grownDocs;
+                weights = grownWeights;
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.io.File;
+
+// Where chat photos are uploaded. Implementations call back later on the
+// main thread, never from within upload() or lookup().
+public interface StorageBackend {
+
+    interface UploadCallback {
+        // the upload can be resumed by passing sessionUri back to upload()
+        void onSessionStarted(String sessionUri);
+
+        void onProgress(long bytesTransferred, long totalBytes);
+
+        void onSuccess(String downloadUrl);
+
+        void onFailure(Exception e);
+    }
+
+    interface LookupCallback {
+        void onFound(String downloadUrl);
+
+        void onNotFound();
+
+        void onFailure(Exception e);
+    }
+
+    // Uploads file to path, resuming the session if sessionUri is not null
+    void upload(String path, File file, String sessionUri, UploadCallback callback);
+
+    // Looks up the download url of an object already at path
+    void lookup(String path, LookupCallback callback);
+}
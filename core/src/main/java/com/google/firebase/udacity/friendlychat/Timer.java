@@ -0,0 +1,16 @@
+package com.google.firebase.udacity.friendlychat;
+
+// The clock and the handler of the thread a class is used on, the main
+// Handler in the app. Tests run the same classes against TestClock.
+public interface Timer {
+
+    void postDelayed(Runnable task, long delayMs);
+
+    void removeCallbacks(Runnable task);
+
+    // wall clock, for times that are saved
+    long currentTimeMillis();
+
+    // milliseconds of a monotonic clock, see SystemClock.elapsedRealtime()
+    long elapsedRealtime();
+}
@@ -0,0 +1,298 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Runs the uploads of PhotoUploadQueue once their files are in app storage:
+// at most MAX_PARALLEL_UPLOADS at a time, the thumbnail before the display
+// version, and failed attempts retried with jittered exponential backoff,
+// resuming the storage session they started. A session that keeps failing
+// is dropped for a new one, and an upload that keeps failing is dropped.
+//
+// Parts named by their content are looked up in storage first, and a copy
+// found there is used instead of uploading.
+//
+// Only used on one thread, the one Timer posts to and the backend calls
+// back on.
+public class UploadScheduler {
+
+    public interface Callback {
+        // the saved state of the uploads changed
+        void onUploadsChanged();
+
+        // an upload started, progressed or ended
+        void onProgress();
+
+        // both parts are in storage, the upload is no longer queued
+        void onUploaded(Upload upload, String downloadUrl);
+
+        // the attempt failed and is retried in delayMs
+        void onRetry(Upload upload, Exception e, long delayMs);
+
+        // the upload failed MAX_ATTEMPTS times and is no longer queued
+        void onDropped(Upload upload, Exception e);
+    }
+
+    public static final int MAX_PARALLEL_UPLOADS = 2;
+    static final int MAX_ATTEMPTS = 10;
+    static final long INITIAL_BACKOFF_MS = 2000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    // a session that keeps failing may have expired, start a new one
+    static final int ATTEMPTS_PER_SESSION = 3;
+
+    private final StorageBackend mBackend;
+    private final Timer mTimer;
+    private final Random mRandom;
+    private final Callback mCallback;
+    private final List<Upload> mUploads = new ArrayList<>();
+    private final Runnable mPumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+        }
+    };
+
+    // metrics
+    private long mBytesUploaded;
+    private long mUploadTimeMs;
+    private int mCompletedCount;
+    private int mFailedAttemptCount;
+    private int mDroppedCount;
+    // parts found in storage instead of uploaded
+    private int mReusedCount;
+    private long mBytesSaved;
+
+    public UploadScheduler(StorageBackend backend, Timer timer, Random random, Callback callback) {
+        this.mBackend = backend;
+        this.mTimer = timer;
+        this.mRandom = random;
+        this.mCallback = callback;
+    }
+
+    // Queues the upload and starts it if a slot is free
+    public void add(Upload upload) {
+        mUploads.add(upload);
+        pump();
+    }
+
+    public List<Upload> getUploads() {
+        return Collections.unmodifiableList(mUploads);
+    }
+
+    // Uploads waiting, running or backing off
+    public int getPendingCount() {
+        return mUploads.size();
+    }
+
+    public int getRunningCount() {
+        int running = 0;
+        for (Upload upload : mUploads) {
+            if (upload.running) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    // Progress of the running uploads, from 0 to 1
+    public float getProgress() {
+        long transferred = 0;
+        long total = 0;
+        for (Upload upload : mUploads) {
+            if (upload.running) {
+                transferred += upload.bytesTransferred;
+                total += upload.totalBytes;
+            }
+        }
+        return total == 0 ? 0f : (float) transferred / total;
+    }
+
+    // Average upload speed of the completed parts, in bytes per second
+    public long getThroughput() {
+        return mUploadTimeMs == 0 ? 0 : mBytesUploaded * 1000 / mUploadTimeMs;
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    public int getFailedAttemptCount() {
+        return mFailedAttemptCount;
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public int getReusedCount() {
+        return mReusedCount;
+    }
+
+    public long getBytesSaved() {
+        return mBytesSaved;
+    }
+
+    // Starts the uploads that are due, up to MAX_PARALLEL_UPLOADS
+    private void pump() {
+        mTimer.removeCallbacks(mPumpRunnable);
+        long now = mTimer.currentTimeMillis();
+        long nextAttempt = Long.MAX_VALUE;
+        int running = getRunningCount();
+        for (Upload upload : mUploads) {
+            if (running >= MAX_PARALLEL_UPLOADS) {
+                return;
+            }
+            if (upload.running) {
+                continue;
+            }
+            if (upload.notBefore > now) {
+                nextAttempt = Math.min(nextAttempt, upload.notBefore);
+                continue;
+            }
+            start(upload);
+            running++;
+        }
+        if (nextAttempt != Long.MAX_VALUE) {
+            mTimer.postDelayed(mPumpRunnable, nextAttempt - now);
+        }
+    }
+
+    private void start(final Upload upload) {
+        upload.running = true;
+        upload.bytesTransferred = 0;
+        final boolean thumbnailStage = upload.thumbnailPath != null && upload.thumbnailUrl == null;
+        final String storagePath = thumbnailStage ? upload.thumbnailStoragePath : upload.storagePath;
+        final String filePath = thumbnailStage ? upload.thumbnailPath : upload.filePath;
+        if (upload.sessionUri != null || upload.hash == null) {
+            transfer(upload, thumbnailStage, storagePath, filePath);
+            return;
+        }
+        // the object is named by its content, if it is there it is this photo
+        mBackend.lookup(storagePath, new StorageBackend.LookupCallback() {
+            @Override
+            public void onFound(String downloadUrl) {
+                mReusedCount++;
+                mBytesSaved += new File(filePath).length();
+                onStageUploaded(upload, thumbnailStage, downloadUrl);
+            }
+
+            @Override
+            public void onNotFound() {
+                transfer(upload, thumbnailStage, storagePath, filePath);
+            }
+
+            // uploading again is harmless, the content is the same
+            @Override
+            public void onFailure(Exception e) {
+                transfer(upload, thumbnailStage, storagePath, filePath);
+            }
+        });
+        mCallback.onProgress();
+    }
+
+    private void transfer(final Upload upload, final boolean thumbnailStage, String storagePath, String filePath) {
+        final long startTime = mTimer.elapsedRealtime();
+        mBackend.upload(storagePath, new File(filePath), upload.sessionUri,
+                new StorageBackend.UploadCallback() {
+                    @Override
+                    public void onSessionStarted(String sessionUri) {
+                        upload.sessionUri = sessionUri;
+                        mCallback.onUploadsChanged();
+                    }
+
+                    @Override
+                    public void onProgress(long bytesTransferred, long totalBytes) {
+                        upload.bytesTransferred = bytesTransferred;
+                        upload.totalBytes = totalBytes;
+                        mCallback.onProgress();
+                    }
+
+                    @Override
+                    public void onSuccess(String downloadUrl) {
+                        mBytesUploaded += upload.totalBytes;
+                        mUploadTimeMs += mTimer.elapsedRealtime() - startTime;
+                        onStageUploaded(upload, thumbnailStage, downloadUrl);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        mFailedAttemptCount++;
+                        upload.running = false;
+                        upload.attempts++;
+                        if (upload.attempts >= MAX_ATTEMPTS) {
+                            mDroppedCount++;
+                            mUploads.remove(upload);
+                            mCallback.onDropped(upload, e);
+                            finish();
+                            return;
+                        }
+                        if (upload.attempts % ATTEMPTS_PER_SESSION == 0) {
+                            upload.sessionUri = null;
+                        }
+                        long delay = backoff(upload.attempts);
+                        upload.notBefore = mTimer.currentTimeMillis() + delay;
+                        mCallback.onRetry(upload, e, delay);
+                        finish();
+                    }
+                });
+        mCallback.onProgress();
+    }
+
+    private void onStageUploaded(Upload upload, boolean thumbnailStage, String downloadUrl) {
+        if (thumbnailStage) {
+            // go on with the display version in the same slot
+            upload.thumbnailUrl = downloadUrl;
+            upload.sessionUri = null;
+            mCallback.onUploadsChanged();
+            start(upload);
+            return;
+        }
+        mCompletedCount++;
+        mUploads.remove(upload);
+        mCallback.onUploaded(upload, downloadUrl);
+        finish();
+    }
+
+    // After an upload ended or failed an attempt
+    private void finish() {
+        mCallback.onUploadsChanged();
+        mCallback.onProgress();
+        pump();
+    }
+
+    // Exponential backoff with half of the delay jittered, so uploads that
+    // failed together do not retry together
+    private long backoff(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempts - 1, 16));
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+    public static class Upload {
+        String id;
+        // SHA-256 of the picked file, null for uploads queued before content naming
+        String hash;
+        String filePath;
+        String storagePath;
+        String messagesPath;
+        String author;
+        // the thumbnail is uploaded first, null if the photo could not be processed
+        String thumbnailPath;
+        String thumbnailStoragePath;
+        String thumbnailUrl;
+        int width;
+        int height;
+        // session of the part being uploaded
+        String sessionUri;
+        int attempts;
+        // wall clock time before which the upload is not retried
+        long notBefore;
+
+        // not saved
+        boolean running;
+        long bytesTransferred;
+        long totalBytes;
+    }
+}
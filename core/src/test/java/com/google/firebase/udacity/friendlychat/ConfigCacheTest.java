@@ -0,0 +1,171 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigCacheTest {
+
+    private static final long TTL_MS = 12 * 60 * 60 * 1000;
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+
+    // a wall clock, not 0
+    private static final long START = 1527000000000L;
+
+    private TestClock mClock;
+    private Backend mBackend;
+    private Events mEvents;
+    private ConfigCache mCache;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(START);
+        mBackend = new Backend(mClock);
+        mEvents = new Events();
+        mCache = new ConfigCache(mBackend, TTL_MS, mClock, new Random(0), mEvents);
+    }
+
+    // The app resumed every 10 minutes for two days: a round trip per TTL
+    // instead of one per resume
+    @Test
+    public void resumesFetchOncePerTtl() {
+        resumeEvery(10 * MINUTE_MS, 48 * HOUR_MS);
+
+        assertEquals(48 * HOUR_MS / TTL_MS, mCache.getFetchCount());
+        assertEquals(0, mCache.getFailedFetchCount());
+        // saved after each fetch only
+        assertEquals(mCache.getFetchCount(), mEvents.stateChanges);
+        assertEquals("140", mCache.getValues().get("max_msg_length"));
+    }
+
+    @Test
+    public void listenersAreOnlyToldOfChanges() {
+        resumeEvery(HOUR_MS, 48 * HOUR_MS);
+        assertEquals(1, mEvents.valuesChanged);
+
+        mBackend.values = Collections.singletonMap("max_msg_length", "280");
+        resumeEvery(HOUR_MS, 24 * HOUR_MS);
+
+        assertEquals(2, mEvents.valuesChanged);
+        assertEquals("280", mCache.getValues().get("max_msg_length"));
+    }
+
+    // Offline for a day while resumed every minute: retries back off to
+    // MAX_BACKOFF_MS, half of each delay jittered, and the resumes in
+    // between do not fetch
+    @Test
+    public void failuresBackOff() {
+        mBackend.failing = true;
+        resumeEvery(MINUTE_MS, 24 * HOUR_MS);
+
+        List<Long> delays = mEvents.retryDelays;
+        assertEquals(mCache.getFetchCount(), delays.size());
+        long delay = ConfigCache.INITIAL_BACKOFF_MS;
+        for (long actual : delays) {
+            assertTrue(actual >= delay / 2 && actual <= delay);
+            delay = Math.min(ConfigCache.MAX_BACKOFF_MS, delay * 2);
+        }
+        assertTrue(mCache.getFetchCount() < 20);
+
+        // back online, the retry pending picks the values up
+        mBackend.failing = false;
+        mClock.runUntil(mClock.now + ConfigCache.MAX_BACKOFF_MS);
+        assertEquals("140", mCache.getValues().get("max_msg_length"));
+        assertEquals(0, mCache.getFailures());
+    }
+
+    // A restart restores the values and the backoff: no round trip at
+    // startup while they are fresh or a retry is pending
+    @Test
+    public void restoredStateIsHonored() {
+        Map<String, String> saved = Collections.singletonMap("max_msg_length", "200");
+        mCache.restore(saved, mClock.now - HOUR_MS, 0, 0);
+        mCache.refresh();
+        assertEquals(0, mCache.getFetchCount());
+        assertEquals("200", mCache.getValues().get("max_msg_length"));
+
+        mCache.restore(saved, mClock.now - TTL_MS, 3, mClock.now + 10 * MINUTE_MS);
+        mCache.refresh();
+        assertEquals(0, mCache.getFetchCount());
+        mClock.runUntil(mClock.now + 10 * MINUTE_MS);
+        assertEquals(1, mCache.getFetchCount());
+    }
+
+    // values fetched before the wall clock was set back are not fresh forever
+    @Test
+    public void clockSetBackFetches() {
+        mCache.restore(Collections.<String, String>emptyMap(), mClock.now + HOUR_MS, 0, 0);
+        mCache.refresh();
+        mClock.runAll();
+
+        assertEquals(1, mCache.getFetchCount());
+    }
+
+    private void resumeEvery(long intervalMs, long durationMs) {
+        long end = mClock.now + durationMs;
+        while (mClock.now < end) {
+            mCache.refresh();
+            mClock.runUntil(mClock.now + intervalMs);
+        }
+    }
+
+    // Answers after a round trip of LATENCY_MS
+    static class Backend implements ConfigBackend {
+
+        static final long LATENCY_MS = 300;
+
+        private final TestClock mClock;
+        Map<String, String> values = Collections.singletonMap("max_msg_length", "140");
+        boolean failing;
+
+        Backend(TestClock clock) {
+            this.mClock = clock;
+        }
+
+        @Override
+        public void fetch(final FetchCallback callback) {
+            mClock.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (failing) {
+                        callback.onFailure(new Exception("offline"));
+                    } else {
+                        callback.onFetched(new HashMap<>(values));
+                    }
+                }
+            }, LATENCY_MS);
+        }
+    }
+
+    static class Events implements ConfigCache.Callback {
+
+        final List<Long> retryDelays = new ArrayList<>();
+        int stateChanges;
+        int valuesChanged;
+
+        @Override
+        public void onStateChanged() {
+            stateChanges++;
+        }
+
+        @Override
+        public void onValuesChanged() {
+            valuesChanged++;
+        }
+
+        @Override
+        public void onFetchFailed(Exception e, long delayMs) {
+            retryDelays.add(delayMs);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ContentHashTest {
+
+    @Test
+    public void isTheSha256InHex() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                ContentHash.of("abc".getBytes(Charset.forName("US-ASCII"))));
+    }
+
+    // A content provider may hand the bytes over in reads of any size
+    @Test
+    public void copyHashesTheBytesItCopies() throws IOException {
+        byte[] photo = photo(0, 300 * 1024);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        String hash = ContentHash.copy(new ShortReads(photo), copy);
+
+        assertArrayEquals(photo, copy.toByteArray());
+        assertEquals(ContentHash.of(photo), hash);
+    }
+
+    @Test
+    public void namesDependOnlyOnTheContent() throws IOException {
+        byte[] photo = photo(1, 64 * 1024);
+        byte[] edited = Arrays.copyOf(photo, photo.length);
+        edited[edited.length / 2] ^= 1;
+
+        assertEquals(copy(photo), copy(Arrays.copyOf(photo, photo.length)));
+        assertFalse(copy(photo).equals(copy(edited)));
+    }
+
+    private static String copy(byte[] content) throws IOException {
+        return ContentHash.copy(new ByteArrayInputStream(content), new ByteArrayOutputStream());
+    }
+
+    private static byte[] photo(long seed, int size) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Returns between 1 and 1000 bytes per read
+    private static class ShortReads extends InputStream {
+
+        private final byte[] mBytes;
+        private final Random mRandom = new Random(0);
+        private int mPosition;
+
+        ShortReads(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPosition == mBytes.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 1 + mRandom.nextInt(1000)), mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, buffer, offset, count);
+            mPosition += count;
+            return count;
+        }
+    }
+}
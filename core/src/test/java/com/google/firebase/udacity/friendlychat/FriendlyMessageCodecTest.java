@@ -0,0 +1,125 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.assertSameRow;
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.photo;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FriendlyMessageCodecTest {
+
+    @Test
+    public void decodesWhatItEncodes() {
+        FriendlyMessage photo = photo(1, "Ana", 1024, 768);
+        photo.setTimestamp(1527000000000L);
+        photo.setSentAt(1526999999500L);
+
+        FriendlyMessage decoded = FriendlyMessageCodec.decode(photo.getKey(), asStored(FriendlyMessageCodec.encode(photo)));
+
+        assertSameRow(photo, decoded);
+        assertEquals(photo.getTimestamp(), decoded.getTimestamp());
+        assertEquals(photo.getSentAt(), decoded.getSentAt());
+    }
+
+    // Messages written by the bean mapper before the codec, and read by
+    // clients that still use it, name their fields after the getters
+    @Test
+    public void fieldsAreTheBeanProperties() {
+        FriendlyMessage photo = photo(1, "Ana", 1024, 768);
+        photo.setText("caption");
+        photo.setTimestamp(1527000000000L);
+        photo.setSentAt(1526999999500L);
+
+        assertEquals(beanProperties(), new TreeSet<>(FriendlyMessageCodec.encode(photo).keySet()));
+    }
+
+    @Test
+    public void newMessageIsWrittenWithTheServerTimestamp() {
+        FriendlyMessage message = text(1, "hello", "Ana");
+
+        Map<String, Object> fields = FriendlyMessageCodec.encode(message);
+
+        assertSame(FriendlyMessageCodec.SERVER_TIMESTAMP, fields.get(FriendlyMessageCodec.FIELD_TIMESTAMP));
+        // the placeholder is not a time, it decodes as none
+        assertEquals(0, FriendlyMessageCodec.decode(message.getKey(), fields).getTimestamp());
+    }
+
+    @Test
+    public void textMessageCarriesNoPhotoFields() {
+        Map<String, Object> fields = FriendlyMessageCodec.encode(text(1, "hello", "Ana"));
+
+        assertFalse(fields.containsKey(FriendlyMessageCodec.FIELD_PHOTO_URL));
+        assertFalse(fields.containsKey(FriendlyMessageCodec.FIELD_PHOTO_WIDTH));
+        assertFalse(fields.containsKey(FriendlyMessageCodec.FIELD_SENT_AT));
+    }
+
+    // Push payloads carry every field as a string
+    @Test
+    public void decodesNumbersSentAsStrings() {
+        Map<String, String> data = new HashMap<>();
+        data.put(FriendlyMessageCodec.FIELD_NAME, "Bob");
+        data.put(FriendlyMessageCodec.FIELD_PHOTO_URL, "https://example.com/p");
+        data.put(FriendlyMessageCodec.FIELD_PHOTO_WIDTH, "640");
+        data.put(FriendlyMessageCodec.FIELD_PHOTO_HEIGHT, "480");
+        data.put(FriendlyMessageCodec.FIELD_TIMESTAMP, "1527000000000");
+        data.put(FriendlyMessageCodec.FIELD_SENT_AT, "not a number");
+
+        FriendlyMessage message = FriendlyMessageCodec.decode(key(2), data);
+
+        assertEquals(640, message.getPhotoWidth());
+        assertEquals(480, message.getPhotoHeight());
+        assertEquals(1527000000000L, message.getTimestamp());
+        assertEquals(0, message.getSentAt());
+        assertNull(message.getText());
+    }
+
+    @Test
+    public void decodesNumbersWrittenAsDoubles() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FriendlyMessageCodec.FIELD_PHOTO_WIDTH, 640.0);
+
+        assertEquals(640, FriendlyMessageCodec.decode(key(3), fields).getPhotoWidth());
+    }
+
+    @Test
+    public void valueThatIsNotAMessageDecodesAsNull() {
+        assertNull(FriendlyMessageCodec.decode(key(4), "text"));
+        assertNull(FriendlyMessageCodec.decode(key(4), null));
+    }
+
+    // The database hands every integer back as a Long
+    private static Map<String, Object> asStored(Map<String, Object> fields) {
+        Map<String, Object> stored = new HashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            Object value = field.getValue();
+            stored.put(field.getKey(), value instanceof Integer ? Long.valueOf((Integer) value) : value);
+        }
+        return stored;
+    }
+
+    // getX() of FriendlyMessage as "x", the key is the node name and not a field
+    private static Set<String> beanProperties() {
+        Set<String> properties = new TreeSet<>();
+        for (Method method : FriendlyMessage.class.getMethods()) {
+            String name = method.getName();
+            if (name.startsWith("get") && method.getParameterTypes().length == 0
+                    && !Modifier.isStatic(method.getModifiers()) && method.getDeclaringClass() != Object.class
+                    && !name.equals("getKey")) {
+                properties.add(Character.toLowerCase(name.charAt(3)) + name.substring(4));
+            }
+        }
+        return properties;
+    }
+}
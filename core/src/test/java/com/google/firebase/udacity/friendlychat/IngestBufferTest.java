@@ -0,0 +1,98 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IngestBufferTest {
+
+    @Test
+    public void drainsInArrivalOrderByBatches() {
+        IngestBuffer buffer = new IngestBuffer();
+        for (int i = 0; i < 250; i++) {
+            assertTrue(buffer.add(text(i, "m" + i, "Ana"), 1000 + i));
+        }
+        List<FriendlyMessage> batch = new ArrayList<>();
+        long[] receivedAt = new long[300];
+
+        assertEquals(100, buffer.drainTo(batch, 100, receivedAt, 0));
+        assertEquals(100, buffer.drainTo(batch, 100, receivedAt, 100));
+        assertEquals(50, buffer.drainTo(batch, 100, receivedAt, 200));
+
+        assertTrue(buffer.isEmpty());
+        for (int i = 0; i < 250; i++) {
+            assertEquals(key(i), batch.get(i).getKey());
+            assertEquals(1000 + i, receivedAt[i]);
+        }
+    }
+
+    // A message sent by this device and its echo from the database
+    @Test
+    public void sameKeyReplacesTheBufferedMessage() {
+        IngestBuffer buffer = new IngestBuffer();
+        buffer.add(text(1, "one", "Ana"), 10);
+        buffer.add(text(2, "two", "Bob"), 20);
+        FriendlyMessage echo = text(1, "one", "Ana");
+
+        assertFalse(buffer.add(echo, 30));
+
+        assertEquals(2, buffer.size());
+        List<FriendlyMessage> batch = new ArrayList<>();
+        long[] receivedAt = new long[2];
+        buffer.drainTo(batch, 10, receivedAt, 0);
+        assertSame(echo, batch.get(0));
+        assertEquals(key(2), batch.get(1).getKey());
+        // the first arrival counts for the latency
+        assertArrayEquals(new long[]{10, 20}, receivedAt);
+    }
+
+    @Test
+    public void keyDrainedCanBeBufferedAgain() {
+        IngestBuffer buffer = new IngestBuffer();
+        buffer.add(text(1, "one", "Ana"), 10);
+        buffer.drainTo(new ArrayList<FriendlyMessage>(), 10, new long[1], 0);
+
+        assertTrue(buffer.add(text(1, "one (edited)", "Ana"), 20));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void updateAndRemoveOnlyTouchBufferedKeys() {
+        IngestBuffer buffer = new IngestBuffer();
+        buffer.add(text(1, "one", "Ana"), 10);
+        buffer.add(text(2, "two", "Bob"), 20);
+        buffer.add(text(3, "three", "Ana"), 30);
+
+        assertFalse(buffer.update(text(4, "four", "Bob")));
+        assertFalse(buffer.remove(key(4)));
+        assertTrue(buffer.update(text(3, "three (edited)", "Ana")));
+        assertTrue(buffer.remove(key(2)));
+
+        List<FriendlyMessage> batch = new ArrayList<>();
+        long[] receivedAt = new long[2];
+        buffer.drainTo(batch, 10, receivedAt, 0);
+        assertEquals(2, batch.size());
+        assertEquals("three (edited)", batch.get(1).getText());
+        assertArrayEquals(new long[]{10, 30}, receivedAt);
+        assertFalse(buffer.remove(key(1)));
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        IngestBuffer buffer = new IngestBuffer();
+        buffer.add(text(1, "one", "Ana"), 10);
+        buffer.clear();
+
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.add(text(1, "one", "Ana"), 20));
+    }
+}
@@ -0,0 +1,78 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "ms");
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "ms");
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(5, histogram.getPercentile(0.5));
+        assertEquals(9, histogram.getPercentile(0.9));
+        assertEquals(10, histogram.getPercentile(1));
+        assertEquals(5, histogram.getMean());
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "us");
+        for (int value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+
+        assertWithinResolution(50000, histogram.getPercentile(0.50));
+        assertWithinResolution(90000, histogram.getPercentile(0.90));
+        assertWithinResolution(99000, histogram.getPercentile(0.99));
+        assertEquals(100000, histogram.getPercentile(1));
+        assertEquals(100000, histogram.getMax());
+    }
+
+    @Test
+    public void bucketsHoldTheirValues() {
+        for (long value = 0; value < 1 << 20; value += 1 + value / 64) {
+            long upperEdge = LatencyHistogram.upperEdgeOf(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " above " + upperEdge, upperEdge >= value);
+            assertTrue(value + " far below " + upperEdge, upperEdge - value <= value / 16);
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "ms");
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void resetForgetsTheValues() {
+        LatencyHistogram histogram = new LatencyHistogram("test", "ms");
+        histogram.record(100);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    // reported as the upper edge of a bucket at most 1/16 wide
+    private static void assertWithinResolution(long expected, long actual) {
+        assertTrue(actual + " instead of " + expected, actual >= expected && actual - expected <= expected / 16);
+    }
+}
@@ -0,0 +1,130 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.assertSameRow;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MessageDiffTest {
+
+    @Test
+    public void sameListNotifiesNothing() {
+        List<FriendlyMessage> messages = Arrays.asList(text(1, "a", "Ana"), text(2, "b", "Bob"));
+        Rows rows = new Rows(messages);
+
+        MessageDiff.calculate(list(messages), messages).dispatchTo(rows);
+
+        assertEquals(0, rows.notifications);
+    }
+
+    @Test
+    public void newerPageIsOneInsertion() {
+        List<FriendlyMessage> old = Arrays.asList(text(1, "a", "Ana"), text(2, "b", "Bob"));
+        List<FriendlyMessage> newer = Arrays.asList(text(1, "a", "Ana"), text(2, "b", "Bob"),
+                text(3, "c", "Ana"), text(4, "d", "Bob"));
+        Rows rows = new Rows(old);
+
+        MessageDiff.calculate(list(old), newer).dispatchTo(rows);
+
+        assertEquals(1, rows.notifications);
+        rows.assertShows(newer);
+    }
+
+    // Random removals, insertions and edits of key ordered lists, applied as
+    // a RecyclerView applies the notifications
+    @Test
+    public void applyingTheDiffGivesTheNewList() {
+        for (int seed = 0; seed < 2000; seed++) {
+            Random random = new Random(seed);
+            List<FriendlyMessage> old = new ArrayList<>();
+            List<FriendlyMessage> updated = new ArrayList<>();
+            int size = random.nextInt(60);
+            for (int i = 0; i < size; i++) {
+                int change = random.nextInt(6);
+                FriendlyMessage message = text(i, "text " + i, "Ana");
+                if (change != 0) {
+                    old.add(message);
+                }
+                if (change == 1) {
+                    updated.add(text(i, "edited " + i, "Ana"));
+                } else if (change != 2) {
+                    updated.add(message);
+                }
+            }
+            Rows rows = new Rows(old);
+
+            MessageDiff.calculate(list(old), updated).dispatchTo(rows);
+
+            rows.assertShows(updated);
+        }
+    }
+
+    @Test
+    public void listsOutOfKeyOrderAreReplaced() {
+        List<FriendlyMessage> old = Arrays.asList(text(2, "b", "Bob"), text(1, "a", "Ana"));
+        List<FriendlyMessage> updated = Collections.singletonList(text(1, "a", "Ana"));
+        Rows rows = new Rows(old);
+
+        MessageDiff.calculate(list(old), updated).dispatchTo(rows);
+
+        rows.assertShows(updated);
+    }
+
+    private static MessageList list(List<FriendlyMessage> messages) {
+        MessageList list = new MessageList("Ana");
+        list.addAll(0, messages);
+        return list;
+    }
+
+    // The rows of a RecyclerView: moved by the notifications, rebound from
+    // the new list when inserted or changed
+    private static class Rows implements MessageDiff.Callback {
+
+        // null for a row to bind from the new list
+        final List<FriendlyMessage> bound;
+        int notifications;
+
+        Rows(List<FriendlyMessage> messages) {
+            bound = new ArrayList<>(messages);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            bound.addAll(position, Collections.<FriendlyMessage>nCopies(count, null));
+            notifications++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            bound.subList(position, position + count).clear();
+            notifications++;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            for (int i = position; i < position + count; i++) {
+                assertFalse("changed row already rebound", bound.get(i) == null);
+                bound.set(i, null);
+            }
+            notifications++;
+        }
+
+        // Rows kept as they were must already show the new message
+        void assertShows(List<FriendlyMessage> messages) {
+            assertEquals(messages.size(), bound.size());
+            for (int i = 0; i < messages.size(); i++) {
+                if (bound.get(i) != null) {
+                    assertSameRow(messages.get(i), bound.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIngestorTest {
+
+    private Frames mFrames;
+    private Sink mSink;
+    private LatencyHistogram mReceiveToDraw;
+    private MessageIngestor mIngestor;
+
+    @Before
+    public void setUp() {
+        mFrames = new Frames();
+        mSink = new Sink();
+        mReceiveToDraw = new LatencyHistogram("receive->draw", "ms");
+        mIngestor = new MessageIngestor(mFrames, mSink, mReceiveToDraw);
+        mFrames.ingestor = mIngestor;
+    }
+
+    @Test
+    public void messagesOfAFrameAreAppliedTogether() {
+        for (int i = 0; i < 5; i++) {
+            mIngestor.add(text(i, "m" + i, "Ana"));
+        }
+        assertTrue(mSink.keys.isEmpty());
+
+        mFrames.nextFrame();
+
+        assertEquals(Arrays.asList(5), mSink.batches);
+        assertEquals(Arrays.asList(key(0), key(1), key(2), key(3), key(4)), mSink.keys);
+        assertEquals(0, mFrames.posted.size());
+    }
+
+    @Test
+    public void burstDrainsABoundedBatchPerFrame() {
+        for (int i = 0; i < 250; i++) {
+            mIngestor.add(text(i, "m" + i, "Ana"));
+        }
+
+        mFrames.nextFrame();
+        mFrames.nextFrame();
+        mFrames.nextFrame();
+        mFrames.nextFrame();
+
+        assertEquals(Arrays.asList(MessageIngestor.MAX_BATCH_SIZE, MessageIngestor.MAX_BATCH_SIZE, 50),
+                mSink.batches);
+        assertEquals(250, mSink.keys.size());
+    }
+
+    @Test
+    public void echoOfAPendingMessageReplacesIt() {
+        mIngestor.add(text(1, "sending", "Ana"));
+        mIngestor.add(text(1, "sent", "Ana"));
+
+        mFrames.nextFrame();
+
+        assertEquals(Arrays.asList(1), mSink.batches);
+        assertEquals("sent", mSink.texts.get(0));
+    }
+
+    @Test
+    public void flushAppliesEverythingNow() {
+        for (int i = 0; i < 250; i++) {
+            mIngestor.add(text(i, "m" + i, "Ana"));
+        }
+
+        mIngestor.flush();
+
+        assertEquals(250, mSink.keys.size());
+        assertEquals(0, mFrames.posted.size());
+    }
+
+    @Test
+    public void cancelDropsThePendingMessages() {
+        mIngestor.add(text(1, "m", "Ana"));
+
+        mIngestor.cancel();
+        mFrames.nextFrame();
+
+        assertTrue(mSink.keys.isEmpty());
+        assertEquals(0, mFrames.posted.size());
+    }
+
+    // 100,000 messages at 1,000 msg/s against 16 ms frames: the list is
+    // updated once per frame instead of once per message, and a message
+    // waits for the next frame at most
+    @Test
+    public void steadyStreamIsAppliedOncePerFrame() {
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            mFrames.advanceTo(i);
+            mIngestor.add(text(i, "m", "Ana"));
+        }
+        mFrames.nextFrame();
+
+        assertEquals(count, mSink.keys.size());
+        assertEquals(count / Frames.FRAME_MS, mSink.batches.size());
+        assertEquals(count, mReceiveToDraw.getCount());
+        assertTrue(mReceiveToDraw.getMax() <= Frames.FRAME_MS);
+    }
+
+    // 1,000 msg/s while the user is scrolled up: nothing reaches the list,
+    // the marker counts every message, and past MAX_BACKLOG the backlog is
+    // dropped once and counted on
+    @Test
+    public void heldStreamOnlyCountsAndOverflowsOnce() {
+        mIngestor.setHeld(true);
+        int count = 3000;
+        for (int i = 0; i < count; i++) {
+            mFrames.advanceTo(i);
+            mIngestor.add(text(i, "m", "Ana"));
+        }
+        mFrames.nextFrame();
+
+        assertTrue(mSink.batches.isEmpty());
+        assertEquals(Arrays.asList(MessageIngestor.MAX_BACKLOG + 1), mSink.overflows);
+        assertEquals(count, mIngestor.getBacklogCount());
+        assertEquals(count, (int) mSink.backlogs.get(mSink.backlogs.size() - 1));
+
+        // back at the bottom: the messages after the overflow, a batch per frame
+        mIngestor.setHeld(false);
+        int left = count - MessageIngestor.MAX_BACKLOG - 1;
+        for (int i = 0; i < left / MessageIngestor.MAX_BATCH_SIZE + 1; i++) {
+            mFrames.nextFrame();
+        }
+
+        assertEquals(0, (int) mSink.backlogs.get(mSink.backlogs.size() - 1));
+        assertEquals(left, mSink.keys.size());
+        assertEquals(key(MessageIngestor.MAX_BACKLOG + 1), mSink.keys.get(0));
+        for (int batch : mSink.batches) {
+            assertTrue(batch <= MessageIngestor.MAX_BATCH_SIZE);
+        }
+        assertEquals(0, mFrames.posted.size());
+    }
+
+    @Test
+    public void editsAndDeletesWhileHeldApplyToTheBacklog() {
+        mIngestor.setHeld(true);
+        for (int i = 0; i < 10; i++) {
+            mIngestor.add(text(i, "m" + i, "Ana"));
+        }
+
+        assertTrue(mIngestor.updatePending(text(3, "edited", "Ana")));
+        assertTrue(mIngestor.removePending(key(5)));
+        assertEquals(9, (int) mSink.backlogs.get(mSink.backlogs.size() - 1));
+        mIngestor.setHeld(false);
+        mFrames.nextFrame();
+
+        assertEquals(Arrays.asList(9), mSink.batches);
+        assertEquals("edited", mSink.texts.get(3));
+        assertTrue(!mSink.keys.contains(key(5)));
+    }
+
+    // 1,000 msg/s held for MAX_BACKLOG ms, then released, into a real
+    // MessageList: no frame applies more than MAX_BATCH_SIZE messages, and
+    // the list work of the slowest frame, pauses of the test JVM included,
+    // fits in a frame
+    @Test
+    public void releasedBacklogKeepsFramesShort() {
+        final MessageList list = new MessageList("Ana");
+        final long[] slowestNs = new long[1];
+        MessageIngestor ingestor = new MessageIngestor(mFrames, new Sink() {
+            @Override
+            public void onBatch(List<FriendlyMessage> batch) {
+                long start = System.nanoTime();
+                list.addAll(list.size(), batch);
+                slowestNs[0] = Math.max(slowestNs[0], System.nanoTime() - start);
+                super.onBatch(batch);
+            }
+        }, mReceiveToDraw);
+        mFrames.ingestor = ingestor;
+        // warm up the list code so the first frames are not timed interpreted
+        for (int round = 0; round < 50; round++) {
+            List<FriendlyMessage> warmUp = new ArrayList<>();
+            for (int i = 0; i < MessageIngestor.MAX_BATCH_SIZE * 4; i++) {
+                warmUp.add(text(-1 - i, "w", "Ana"));
+            }
+            list.addAll(0, warmUp);
+            list.clear();
+        }
+
+        ingestor.setHeld(true);
+        for (int i = 0; i < MessageIngestor.MAX_BACKLOG; i++) {
+            mFrames.advanceTo(i);
+            ingestor.add(text(i, "m", "Ana"));
+        }
+        ingestor.setHeld(false);
+        while (!mFrames.posted.isEmpty()) {
+            mFrames.nextFrame();
+        }
+
+        assertEquals(MessageIngestor.MAX_BACKLOG, list.size());
+        assertEquals(MessageIngestor.MAX_BACKLOG / MessageIngestor.MAX_BATCH_SIZE, ingestor.getBatchCount());
+        assertTrue("slowest frame " + slowestNs[0] + " ns", slowestNs[0] < Frames.FRAME_MS * 1000000L);
+    }
+
+    // A frame clock run by hand, frames every FRAME_MS, each followed by a draw
+    static class Frames implements MessageIngestor.Frames {
+
+        static final int FRAME_MS = 16;
+
+        final List<Runnable> posted = new ArrayList<>();
+        MessageIngestor ingestor;
+        long now;
+
+        // Runs the frames due until time
+        void advanceTo(long time) {
+            for (long frame = (now / FRAME_MS + 1) * FRAME_MS; frame <= time; frame += FRAME_MS) {
+                now = frame;
+                runFrame();
+            }
+            now = time;
+        }
+
+        void nextFrame() {
+            advanceTo((now / FRAME_MS + 1) * FRAME_MS);
+        }
+
+        private void runFrame() {
+            List<Runnable> frame = new ArrayList<>(posted);
+            posted.clear();
+            for (Runnable runnable : frame) {
+                runnable.run();
+            }
+            ingestor.onDraw();
+        }
+
+        @Override
+        public void postFrame(Runnable frame) {
+            if (!posted.contains(frame)) {
+                posted.add(frame);
+            }
+        }
+
+        @Override
+        public void removeFrame(Runnable frame) {
+            posted.remove(frame);
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+    }
+
+    static class Sink implements MessageIngestor.Sink {
+
+        final List<Integer> batches = new ArrayList<>();
+        final List<String> keys = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        final List<Integer> backlogs = new ArrayList<>();
+        final List<Integer> overflows = new ArrayList<>();
+
+        @Override
+        public void onBatch(List<FriendlyMessage> batch) {
+            batches.add(batch.size());
+            for (FriendlyMessage message : batch) {
+                keys.add(message.getKey());
+                texts.add(message.getText());
+            }
+        }
+
+        @Override
+        public void onBacklogChanged(int count) {
+            backlogs.add(count);
+        }
+
+        @Override
+        public void onOverflow(int dropped) {
+            overflows.add(dropped);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.photo;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertTrue;
+
+// Heap per message of MessageList against the list of FriendlyMessage it
+// replaced, measured with JOL on the JVM running the test. The keys, texts
+// and photo URLs are the same strings in both and left out; what is counted
+// is the rows around them, and the author names, which each decoded message
+// used to bring along. Bytes differ on ART, the comparison should not.
+public class MessageListFootprintTest {
+
+    private static final String[] AUTHORS = {"Ana", "Bob", "Chen", "Dara", "Eli", "Fatima", "Gus", "Hiro"};
+
+    @Test
+    public void windowTakesAFifthLessThanMessageObjects() {
+        assertSmaller(MessagePager.MAX_WINDOW_SIZE);
+    }
+
+    @Test
+    public void largeHistoryTakesAFifthLessThanMessageObjects() {
+        assertSmaller(100000);
+    }
+
+    private static void assertSmaller(int count) {
+        List<FriendlyMessage> messages = messages(count);
+        Set<Object> shared = sharedStrings(messages);
+
+        List<FriendlyMessage> objects = new ArrayList<>();
+        MessageList list = new MessageList(AUTHORS[0]);
+        // pages prepended as they are scrolled into, as MessagePager does
+        for (int to = count; to > 0; to -= MessagePager.PAGE_SIZE) {
+            List<FriendlyMessage> page = messages.subList(Math.max(0, to - MessagePager.PAGE_SIZE), to);
+            objects.addAll(0, page);
+            list.addAll(0, page);
+        }
+
+        long before = bytesPerMessage(objects, shared, count);
+        long after = bytesPerMessage(list, shared, count);
+        assertTrue(count + " messages: " + after + " bytes per message, was " + before,
+                after * 5 < before * 4);
+    }
+
+    // Like the database hands them over: every message its own name string
+    private static List<FriendlyMessage> messages(int count) {
+        List<FriendlyMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = new String(AUTHORS[i % AUTHORS.length]);
+            messages.add(i % 10 == 0 ? photo(i, name, 640, 480) : text(i, "message number " + i, name));
+        }
+        return messages;
+    }
+
+    private static Set<Object> sharedStrings(List<FriendlyMessage> messages) {
+        Set<Object> shared = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (FriendlyMessage message : messages) {
+            shared.add(message.getKey());
+            shared.add(message.getText());
+            shared.add(message.getPhotoUrl());
+            shared.add(message.getThumbnailUrl());
+        }
+        shared.remove(null);
+        return shared;
+    }
+
+    private static long bytesPerMessage(Object root, Set<Object> shared, int count) {
+        long size = GraphLayout.parseInstance(root).totalSize()
+                - GraphLayout.parseInstance(shared.toArray()).totalSize();
+        return size / count;
+    }
+}
@@ -0,0 +1,147 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.assertSameRow;
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.photo;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageListTest {
+
+    private static final String[] NAMES = {"Ana", "Bob", "Chen", null};
+
+    @Test
+    public void appendsAndPrependsPages() {
+        MessageList list = new MessageList("Ana");
+        list.addAll(0, Arrays.asList(text(10, "ten", "Ana"), text(11, "eleven", "Bob")));
+        list.addAll(0, Arrays.asList(text(8, "eight", "Bob"), text(9, "nine", "Ana")));
+        list.addAll(list.size(), Collections.singletonList(photo(12, "Chen", 640, 480)));
+
+        assertEquals(5, list.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(key(8 + i), list.getKey(i));
+            assertEquals(i, list.indexOf(key(8 + i)));
+        }
+        assertTrue(list.isOwnMessage(1));
+        assertFalse(list.isOwnMessage(0));
+        assertEquals(640, list.getPhotoWidth(4));
+        assertEquals(-1, list.indexOf(key(7)));
+    }
+
+    @Test
+    public void editReplacesTheRowInPlace() {
+        MessageList list = new MessageList("Ana");
+        list.addAll(0, Arrays.asList(text(1, "one", "Ana"), text(2, "two", "Bob")));
+        FriendlyMessage edited = text(2, "two (edited)", "Bob");
+
+        assertFalse(list.sameContent(1, edited));
+        list.set(1, edited);
+
+        assertTrue(list.sameContent(1, edited));
+        assertSameRow(edited, list.get(1));
+        assertEquals(1, list.indexOf(key(2)));
+    }
+
+    // A key already in the list, or twice in a page, would leave a row the
+    // index no longer finds
+    @Test
+    public void duplicateKeysAreRejected() {
+        MessageList list = new MessageList("Ana");
+        List<FriendlyMessage> rows = Arrays.asList(text(1, "one", "Ana"), text(2, "two", "Bob"));
+        list.addAll(0, rows);
+
+        assertRejected(list, list.size(), Arrays.asList(text(3, "three", "Ana"), text(2, "two again", "Bob")));
+        assertRejected(list, 0, Collections.singletonList(text(1, "one again", "Ana")));
+        assertRejected(list, 1, Arrays.asList(text(5, "five", "Bob"), text(4, "four", "Ana"), text(5, "five", "Bob")));
+        try {
+            list.set(0, text(2, "two", "Bob"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertSameList(rows, list);
+        assertEquals(-1, list.indexOf(key(3)));
+    }
+
+    private static void assertRejected(MessageList list, int position, List<FriendlyMessage> messages) {
+        try {
+            list.addAll(position, messages);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Random inserts, removals and edits, checked against an ArrayList after every step
+    @Test
+    public void randomOperationsMatchAnArrayList() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            MessageList list = new MessageList("Ana");
+            List<FriendlyMessage> expected = new ArrayList<>();
+            int nextKey = 0;
+            for (int step = 0; step < 500; step++) {
+                int operation = random.nextInt(10);
+                if (operation < 4 || expected.isEmpty()) {
+                    int count = 1 + random.nextInt(operation == 0 ? 100 : 5);
+                    List<FriendlyMessage> added = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        added.add(randomMessage(random, nextKey++));
+                    }
+                    // the pager appends and prepends, moves insert in the middle
+                    int position = random.nextBoolean() ? expected.size()
+                            : random.nextBoolean() ? 0 : random.nextInt(expected.size() + 1);
+                    list.addAll(position, added);
+                    expected.addAll(position, added);
+                } else if (operation < 6) {
+                    int position = random.nextInt(expected.size());
+                    list.remove(position);
+                    expected.remove(position);
+                } else if (operation < 7) {
+                    int position = random.nextInt(expected.size());
+                    int count = 1 + random.nextInt(expected.size() - position);
+                    list.removeRange(position, count);
+                    expected.subList(position, position + count).clear();
+                } else if (operation < 9) {
+                    int position = random.nextInt(expected.size());
+                    FriendlyMessage edited = randomMessage(random, 0);
+                    edited.setKey(expected.get(position).getKey());
+                    list.set(position, edited);
+                    expected.set(position, edited);
+                } else if (random.nextInt(20) == 0) {
+                    list.clear();
+                    expected.clear();
+                }
+                assertSameList(expected, list);
+            }
+        }
+    }
+
+    private static FriendlyMessage randomMessage(Random random, int index) {
+        String name = NAMES[random.nextInt(NAMES.length)];
+        return random.nextInt(5) == 0
+                ? photo(index, name, 1 + random.nextInt(2000), 1 + random.nextInt(2000))
+                : text(index, "text " + random.nextInt(), name);
+    }
+
+    private static void assertSameList(List<FriendlyMessage> expected, MessageList list) {
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            FriendlyMessage message = expected.get(i);
+            assertEquals(i, list.indexOf(message.getKey()));
+            assertTrue(list.sameContent(i, message));
+            assertSameRow(message, list.get(i));
+            assertEquals("Ana".equals(message.getName()), list.isOwnMessage(i));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.assertSameRow;
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.photo;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageLogFormatTest {
+
+    @Test
+    public void recordsReadBackAsWritten() throws IOException {
+        List<FriendlyMessage> messages = Arrays.asList(
+                text(1, "hello", "Ana"),
+                text(2, "h\u00e9llo \u4f60\u597d \ud83d\ude00", "Bob"),
+                text(3, null, null),
+                photo(4, "Chen", 1024, 768),
+                photo(5, "Dara", 0, 0));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        for (FriendlyMessage message : messages) {
+            MessageLogFormat.writePut(out, message);
+        }
+        MessageLogFormat.writeDelete(out, key(1));
+
+        DataInputStream in = input(bytes);
+        assertTrue(MessageLogFormat.readHeader(in));
+        for (FriendlyMessage message : messages) {
+            assertEquals(MessageLogFormat.RECORD_PUT, MessageLogFormat.readRecordType(in));
+            String key = MessageLogFormat.readKey(in);
+            assertSameRow(message, MessageLogFormat.readMessage(in, key));
+        }
+        assertEquals(MessageLogFormat.RECORD_DELETE, MessageLogFormat.readRecordType(in));
+        assertEquals(key(1), MessageLogFormat.readKey(in));
+        assertEquals(MessageLogFormat.END, MessageLogFormat.readRecordType(in));
+    }
+
+    @Test
+    public void lastRecordOfAKeyWins() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        MessageLogFormat.writePut(out, text(1, "first", "Ana"));
+        MessageLogFormat.writePut(out, text(2, "second", "Bob"));
+        MessageLogFormat.writePut(out, text(1, "edited", "Ana"));
+        MessageLogFormat.writeDelete(out, key(2));
+
+        TreeMap<String, FriendlyMessage> messages = replay(input(bytes));
+
+        assertEquals(1, messages.size());
+        assertEquals("edited", messages.get(key(1)).getText());
+    }
+
+    @Test
+    public void otherFormatIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x46434d53);
+        out.writeInt(1);
+
+        assertFalse(MessageLogFormat.readHeader(input(bytes)));
+    }
+
+    // An interrupted write leaves part of a record
+    @Test(expected = EOFException.class)
+    public void truncatedRecordFails() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        MessageLogFormat.writePut(out, text(1, "hello", "Ana"));
+        byte[] log = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 2);
+
+        replay(new DataInputStream(new ByteArrayInputStream(log)));
+    }
+
+    // A corrupt length fails the replay instead of allocating it
+    @Test(expected = IOException.class)
+    public void brokenStringLengthFails() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        MessageLogFormat.writeHeader(out);
+        out.writeByte(MessageLogFormat.RECORD_PUT);
+        MessageLogFormat.writeVarInt(out, Integer.MAX_VALUE);
+
+        replay(input(bytes));
+    }
+
+    @Test
+    public void varIntsRoundTrip() throws IOException {
+        int[] values = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            MessageLogFormat.writeVarInt(out, value);
+        }
+        // one byte up to 127, two up to 16383, five for the largest
+        assertEquals(1 + 1 + 1 + 2 + 2 + 2 + 3 + 5, bytes.size());
+
+        DataInputStream in = input(bytes);
+        for (int value : values) {
+            assertEquals(value, MessageLogFormat.readVarInt(in));
+        }
+    }
+
+    // As LocalMessageStore reads its log
+    private static TreeMap<String, FriendlyMessage> replay(DataInputStream in) throws IOException {
+        TreeMap<String, FriendlyMessage> messages = new TreeMap<>();
+        assertTrue(MessageLogFormat.readHeader(in));
+        for (int type; (type = MessageLogFormat.readRecordType(in)) != MessageLogFormat.END; ) {
+            String key = MessageLogFormat.readKey(in);
+            if (type == MessageLogFormat.RECORD_PUT) {
+                messages.put(key, MessageLogFormat.readMessage(in, key));
+            } else {
+                messages.remove(key);
+            }
+        }
+        return messages;
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,496 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessagePagerTest {
+
+    private static final int PAGE_SIZE = MessagePager.PAGE_SIZE;
+    private static final int ROOM_SIZE = 1000;
+    // rows on screen
+    private static final int SCREEN = 10;
+
+    private Room mRoom;
+    private Rows mRows;
+    private Screen mScreen;
+    private Store mStore;
+    private Events mEvents;
+    private MessagePager mPager;
+
+    @Before
+    public void setUp() {
+        mRoom = new Room(ROOM_SIZE);
+        mRows = new Rows();
+        mScreen = new Screen();
+        mStore = new Store();
+        mEvents = new Events();
+        mPager = new MessagePager(mRoom, mRows, mScreen, mStore, mEvents);
+    }
+
+    @Test
+    public void latestPageFillsTheWindow() {
+        mPager.loadLatest();
+        mRoom.deliverAll();
+
+        mRows.assertShows(ROOM_SIZE - PAGE_SIZE, ROOM_SIZE);
+        assertEquals(PAGE_SIZE, mStore.messages.size());
+        assertEquals(Collections.singletonList(key(ROOM_SIZE - 1)), mEvents.newestLoaded);
+    }
+
+    @Test
+    public void emptyRoomHandsOverWithoutAKey() {
+        mRoom = new Room(0);
+        mPager = new MessagePager(mRoom, mRows, mScreen, mStore, mEvents);
+
+        mPager.loadLatest();
+        mRoom.deliverAll();
+        mPager.onScrolled();
+
+        assertEquals(0, mRows.getItemCount());
+        assertEquals(1, mEvents.newestLoaded.size());
+        assertNull(mEvents.newestLoaded.get(0));
+        assertTrue(mRoom.pending.isEmpty());
+    }
+
+    @Test
+    public void scrollingUpLoadsOlderPagesInABoundedWindow() {
+        showLatest();
+
+        int oldest = scrollToTop();
+
+        assertEquals(0, oldest);
+        assertTrue(mRows.getItemCount() <= MessagePager.MAX_WINDOW_SIZE);
+        mRows.assertShows(0, mRows.getItemCount());
+        // the newest rows were evicted, live messages stop
+        assertEquals(1, mEvents.newestEvicted);
+        // only the latest page is saved for the next cold start
+        assertEquals(PAGE_SIZE, mStore.messages.size());
+    }
+
+    @Test
+    public void scrollingBackDownHandsOverToTheLiveListener() {
+        showLatest();
+        scrollToTop();
+
+        scrollToBottom();
+
+        mRows.assertShows(ROOM_SIZE - mRows.getItemCount(), ROOM_SIZE);
+        assertTrue(mRows.getItemCount() <= MessagePager.MAX_WINDOW_SIZE);
+        assertEquals(Arrays.asList(key(ROOM_SIZE - 1), key(ROOM_SIZE - 1)), mEvents.newestLoaded);
+        assertEquals(key(ROOM_SIZE - 1), mPager.getNewestKey());
+    }
+
+    @Test
+    public void liveMessagesAreAppendedAfterEchoesAndLateOnes() {
+        showLatest();
+        FriendlyMessage edited = text(ROOM_SIZE - 1, "edited", "Bob");
+        FriendlyMessage late = text(ROOM_SIZE - 2, "late", "Bob");
+        mRows.remove(late.getKey());
+        FriendlyMessage newer = text(ROOM_SIZE, "newer", "Ana");
+
+        mPager.appendLive(new ArrayList<>(Arrays.asList(newer, late, edited)));
+
+        mRows.assertShows(ROOM_SIZE - PAGE_SIZE, ROOM_SIZE + 1);
+        assertEquals("edited", mRows.messages.get(PAGE_SIZE - 1).getText());
+        assertEquals("late", mRows.messages.get(PAGE_SIZE - 2).getText());
+        assertTrue(mStore.messages.containsKey(newer.getKey()));
+        assertTrue(mStore.messages.containsKey(late.getKey()));
+    }
+
+    @Test
+    public void liveMessagesWaitWhileTheNewestAreEvicted() {
+        showLatest();
+        scrollToTop();
+        int count = mRows.getItemCount();
+
+        mPager.appendLive(new ArrayList<>(Collections.singletonList(text(ROOM_SIZE, "newer", "Ana"))));
+
+        assertEquals(count, mRows.getItemCount());
+    }
+
+    @Test
+    public void pageOfAMovedWindowIsDropped() {
+        showLatest();
+        mScreen.show(0);
+        mPager.onScrolled();
+        assertEquals(1, mRoom.pending.size());
+
+        // the oldest row is deleted while the page loads
+        mRoom.messages.remove(key(ROOM_SIZE - PAGE_SIZE));
+        mPager.remove(key(ROOM_SIZE - PAGE_SIZE));
+        mRoom.deliverAll();
+
+        mRows.assertShows(ROOM_SIZE - PAGE_SIZE + 1, ROOM_SIZE);
+        // and is asked again from the new oldest row
+        mPager.onScrolled();
+        mRoom.deliverAll();
+        assertEquals(2 * PAGE_SIZE - 1, mRows.getItemCount());
+        assertEquals(key(ROOM_SIZE - 2 * PAGE_SIZE), mRows.getKey(0));
+        assertEquals(key(ROOM_SIZE - PAGE_SIZE - 1), mRows.getKey(PAGE_SIZE - 1));
+        assertEquals(key(ROOM_SIZE - PAGE_SIZE + 1), mRows.getKey(PAGE_SIZE));
+    }
+
+    @Test
+    public void failedPageIsAskedAgain() {
+        showLatest();
+        mScreen.show(0);
+        mRoom.failing = true;
+        mPager.onScrolled();
+        mRoom.deliverAll();
+        mRoom.failing = false;
+
+        mPager.onScrolled();
+        mRoom.deliverAll();
+
+        mRows.assertShows(ROOM_SIZE - 2 * PAGE_SIZE, ROOM_SIZE);
+    }
+
+    // e.g. the first query cancelled: reported, and asked again once on resume
+    @Test
+    public void failedLatestPageIsAskedAgainOnResume() {
+        mRoom.failing = true;
+        mPager.loadLatest();
+        mRoom.deliverAll();
+        assertEquals(1, mEvents.latestFailed);
+        assertTrue(mEvents.newestLoaded.isEmpty());
+        mRoom.failing = false;
+
+        mPager.pause();
+        mPager.resume();
+        mPager.resume();
+        assertEquals(1, mRoom.pending.size());
+        mRoom.deliverAll();
+
+        mRows.assertShows(ROOM_SIZE - PAGE_SIZE, ROOM_SIZE);
+        assertEquals(Collections.singletonList(key(ROOM_SIZE - 1)), mEvents.newestLoaded);
+    }
+
+    @Test
+    public void oneRequestAtATimePerDirection() {
+        showLatest();
+        mScreen.show(0);
+
+        mPager.onScrolled();
+        mPager.onScrolled();
+
+        assertEquals(1, mRoom.pending.size());
+    }
+
+    @Test
+    public void releasedPagerIgnoresPages() {
+        mPager.loadLatest();
+        mPager.release();
+        mRoom.deliverAll();
+
+        assertEquals(0, mRows.getItemCount());
+        assertTrue(mEvents.newestLoaded.isEmpty());
+    }
+
+    @Test
+    public void trimKeepsTheVisibleRows() {
+        showLatest();
+        mScreen.show(20);
+
+        mPager.trim(0);
+
+        mRows.assertShows(ROOM_SIZE - PAGE_SIZE + 20, ROOM_SIZE - PAGE_SIZE + 20 + SCREEN);
+        assertEquals(1, mEvents.newestEvicted);
+    }
+
+    @Test
+    public void pausedPagerHandsOverOnResume() {
+        mPager.pause();
+        mPager.loadLatest();
+        mRoom.deliverAll();
+        assertTrue(mEvents.newestLoaded.isEmpty());
+
+        mPager.resume();
+
+        assertEquals(Collections.singletonList(key(ROOM_SIZE - 1)), mEvents.newestLoaded);
+    }
+
+    private void showLatest() {
+        mPager.loadLatest();
+        mRoom.deliverAll();
+        mScreen.show(mRows.getItemCount() - SCREEN);
+    }
+
+    // Keeps the first row on screen until there is nothing older, the rows
+    // on screen stay in place as pages are added above them, as in a
+    // RecyclerView. Returns the index of the oldest row reached.
+    private int scrollToTop() {
+        for (int step = 0; step < ROOM_SIZE; step++) {
+            mScreen.show(0);
+            mPager.onScrolled();
+            if (mRoom.pending.isEmpty()) {
+                break;
+            }
+            String first = mRows.getKey(0);
+            mRoom.deliverAll();
+            mScreen.show(mRows.indexOf(first));
+            mRows.assertContiguous();
+        }
+        return mRoom.indexOf(mRows.getKey(0));
+    }
+
+    private void scrollToBottom() {
+        for (int step = 0; step < ROOM_SIZE; step++) {
+            mScreen.show(mRows.getItemCount() - SCREEN);
+            mPager.onScrolled();
+            if (mRoom.pending.isEmpty()) {
+                break;
+            }
+            String last = mRows.getKey(mRows.getItemCount() - 1);
+            mRoom.deliverAll();
+            mScreen.show(mRows.indexOf(last) - SCREEN + 1);
+            mRows.assertContiguous();
+        }
+    }
+
+    // The messages of the room, by key, answered when deliverAll is called
+    private static class Room implements MessagePager.Source {
+
+        final TreeMap<String, FriendlyMessage> messages = new TreeMap<>();
+        final Queue<Runnable> pending = new ArrayDeque<>();
+        boolean failing;
+
+        Room(int size) {
+            for (int i = 0; i < size; i++) {
+                messages.put(key(i), text(i, "message " + i, i % 3 == 0 ? "Ana" : "Bob"));
+            }
+        }
+
+        int indexOf(String key) {
+            return Integer.parseInt(key.substring(3));
+        }
+
+        void deliverAll() {
+            while (!pending.isEmpty()) {
+                pending.remove().run();
+            }
+        }
+
+        @Override
+        public void loadLatest(int limit, MessagePager.PageCallback callback) {
+            answer(last(messages, limit), callback);
+        }
+
+        @Override
+        public void loadBefore(String key, int limit, MessagePager.PageCallback callback) {
+            answer(last(messages.headMap(key, false), limit), callback);
+        }
+
+        @Override
+        public void loadAfter(String key, int limit, MessagePager.PageCallback callback) {
+            List<FriendlyMessage> page = new ArrayList<>();
+            for (FriendlyMessage message : messages.tailMap(key, false).values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(message);
+            }
+            answer(page, callback);
+        }
+
+        private static List<FriendlyMessage> last(NavigableMap<String, FriendlyMessage> messages, int limit) {
+            List<FriendlyMessage> page = new ArrayList<>();
+            for (FriendlyMessage message : messages.descendingMap().values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(message);
+            }
+            Collections.reverse(page);
+            return page;
+        }
+
+        private void answer(final List<FriendlyMessage> page, final MessagePager.PageCallback callback) {
+            final boolean fail = failing;
+            pending.add(new Runnable() {
+                @Override
+                public void run() {
+                    if (fail) {
+                        callback.onFailed();
+                    } else {
+                        callback.onLoaded(page);
+                    }
+                }
+            });
+        }
+    }
+
+    private static class Rows implements MessagePager.Rows {
+
+        final List<FriendlyMessage> messages = new ArrayList<>();
+
+        int indexOf(String key) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getKey().equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Shows key(from) to key(to - 1)
+        void assertShows(int from, int to) {
+            assertEquals(to - from, messages.size());
+            for (int i = from; i < to; i++) {
+                assertEquals(key(i), messages.get(i - from).getKey());
+            }
+        }
+
+        void assertContiguous() {
+            int first = Integer.parseInt(messages.get(0).getKey().substring(3));
+            assertShows(first, first + messages.size());
+        }
+
+        @Override
+        public int getItemCount() {
+            return messages.size();
+        }
+
+        @Override
+        public String getKey(int position) {
+            return messages.get(position).getKey();
+        }
+
+        @Override
+        public void setMessages(List<FriendlyMessage> page) {
+            messages.clear();
+            messages.addAll(page);
+        }
+
+        @Override
+        public void addAll(int position, List<FriendlyMessage> page) {
+            messages.addAll(position, page);
+        }
+
+        @Override
+        public void insert(FriendlyMessage message) {
+            int position = 0;
+            while (position < messages.size() && getKey(position).compareTo(message.getKey()) < 0) {
+                position++;
+            }
+            messages.add(position, message);
+        }
+
+        @Override
+        public boolean update(FriendlyMessage message) {
+            int position = indexOf(message.getKey());
+            if (position < 0) {
+                return false;
+            }
+            messages.set(position, message);
+            return true;
+        }
+
+        @Override
+        public boolean remove(String key) {
+            int position = indexOf(key);
+            if (position < 0) {
+                return false;
+            }
+            messages.remove(position);
+            return true;
+        }
+
+        @Override
+        public void move(FriendlyMessage message, String previousKey) {
+            remove(message.getKey());
+            messages.add(previousKey == null ? 0 : indexOf(previousKey) + 1, message);
+        }
+
+        @Override
+        public void removeRange(int position, int count) {
+            messages.subList(position, position + count).clear();
+        }
+    }
+
+    private class Screen implements MessagePager.Viewport {
+
+        int first = NO_POSITION;
+
+        // Shows SCREEN rows from first, as far as there are rows
+        void show(int first) {
+            this.first = Math.max(0, first);
+        }
+
+        @Override
+        public int findFirstVisibleItemPosition() {
+            return mRows.getItemCount() == 0 ? NO_POSITION : first;
+        }
+
+        @Override
+        public int findLastVisibleItemPosition() {
+            return mRows.getItemCount() == 0 ? NO_POSITION : Math.min(first + SCREEN, mRows.getItemCount()) - 1;
+        }
+    }
+
+    private static class Store implements MessagePager.Store {
+
+        final TreeMap<String, FriendlyMessage> messages = new TreeMap<>();
+
+        @Override
+        public void put(FriendlyMessage message) {
+            messages.put(message.getKey(), message);
+        }
+
+        @Override
+        public void putAll(List<FriendlyMessage> page) {
+            for (FriendlyMessage message : page) {
+                put(message);
+            }
+        }
+
+        @Override
+        public void replaceNewest(List<FriendlyMessage> page) {
+            if (!page.isEmpty()) {
+                messages.tailMap(page.get(0).getKey()).clear();
+            }
+            putAll(page);
+        }
+
+        @Override
+        public void remove(String key) {
+            messages.remove(key);
+        }
+    }
+
+    private static class Events implements MessagePager.Callback {
+
+        final List<String> newestLoaded = new ArrayList<>();
+        int newestEvicted;
+        int latestFailed;
+
+        @Override
+        public void onNewestLoaded(String newestKey) {
+            newestLoaded.add(newestKey);
+        }
+
+        @Override
+        public void onNewestEvicted() {
+            newestEvicted++;
+        }
+
+        @Override
+        public void onLatestFailed() {
+            latestFailed++;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationThrottleTest {
+
+    // elapsedRealtime() is never 0 on a device
+    private static final long START = 1000;
+
+    private TestClock mClock;
+    private Shade mShade;
+    private NotificationThrottle mThrottle;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(START);
+        mShade = new Shade();
+        mThrottle = new NotificationThrottle(mClock, mShade);
+    }
+
+    @Test
+    public void firstMessageIsShownRightAway() {
+        mThrottle.add("Ana: hi");
+
+        assertEquals(1, mShade.shown.size());
+        assertEquals(Arrays.asList("Ana: hi"), mShade.shown.get(0).lines);
+        assertTrue(mShade.shown.get(0).alert);
+    }
+
+    // 100 pushes in a second: one notification now, one update with all of
+    // them when the interval is over, a single alert
+    @Test
+    public void burstCollapsesIntoOneUpdate() {
+        for (int i = 0; i < 100; i++) {
+            mClock.runUntil(START + i * 10);
+            mThrottle.add("m" + i);
+            // the throttle posts one task at a time
+            assertTrue(mClock.getPendingCount() <= 1);
+        }
+        mClock.runUntil(START + 60 * 1000);
+
+        assertEquals(2, mShade.shown.size());
+        Shown last = mShade.shown.get(1);
+        assertEquals(START + NotificationThrottle.MIN_UPDATE_INTERVAL_MS, last.time);
+        assertEquals(100, last.count);
+        assertEquals(Arrays.asList("m95", "m96", "m97", "m98", "m99"), last.lines);
+        assertFalse(last.alert);
+    }
+
+    // A message every 500 ms for 10 minutes: an update per interval at
+    // most, an alert per minute at most, and every message counted
+    @Test
+    public void steadyStreamIsRateLimited() {
+        int count = 1200;
+        for (int i = 0; i < count; i++) {
+            mClock.runUntil(START + i * 500L);
+            mThrottle.add("m" + i);
+        }
+        mClock.runUntil(START + count * 500L + NotificationThrottle.MIN_UPDATE_INTERVAL_MS);
+
+        int alerts = 0;
+        for (int i = 0; i < mShade.shown.size(); i++) {
+            Shown shown = mShade.shown.get(i);
+            if (i > 0) {
+                assertTrue(shown.time - mShade.shown.get(i - 1).time >= NotificationThrottle.MIN_UPDATE_INTERVAL_MS);
+            }
+            if (shown.alert) {
+                alerts++;
+            }
+        }
+        assertEquals(count * 500L / NotificationThrottle.MIN_UPDATE_INTERVAL_MS + 1, mShade.shown.size());
+        assertEquals(count * 500L / NotificationThrottle.MIN_ALERT_INTERVAL_MS + 1, alerts);
+        assertEquals(count, mShade.shown.get(mShade.shown.size() - 1).count);
+    }
+
+    @Test
+    public void foregroundClearsAndShowsNothing() {
+        mThrottle.add("m0");
+        mClock.runUntil(START + 1000);
+        mThrottle.add("m1");
+
+        mThrottle.setForeground(true);
+        mThrottle.add("m2");
+        mClock.runUntil(START + 60 * 1000);
+
+        assertEquals(1, mShade.shown.size());
+        assertEquals(1, mShade.cancels);
+        assertEquals(0, mClock.getPendingCount());
+
+        mThrottle.setForeground(false);
+        mThrottle.add("m3");
+        Shown last = mShade.shown.get(mShade.shown.size() - 1);
+        assertEquals(Arrays.asList("m3"), last.lines);
+        assertEquals(1, last.count);
+    }
+
+    // A dismissed notification does not come back with the messages it showed
+    @Test
+    public void clearStartsOver() {
+        mThrottle.add("m0");
+        mClock.runUntil(START + 1000);
+        mThrottle.add("m1");
+
+        mThrottle.clear();
+        mClock.runUntil(START + 60 * 1000);
+        assertEquals(1, mShade.shown.size());
+        assertEquals(1, mShade.cancels);
+
+        mThrottle.add("m2");
+        Shown last = mShade.shown.get(mShade.shown.size() - 1);
+        assertEquals(Arrays.asList("m2"), last.lines);
+        assertEquals(1, last.count);
+    }
+
+    static class Shown {
+        final long time;
+        final List<String> lines;
+        final int count;
+        final boolean alert;
+
+        Shown(long time, List<String> lines, int count, boolean alert) {
+            this.time = time;
+            this.lines = lines;
+            this.count = count;
+            this.alert = alert;
+        }
+    }
+
+    class Shade implements NotificationThrottle.Display {
+
+        final List<Shown> shown = new ArrayList<>();
+        int cancels;
+
+        @Override
+        public void show(List<String> lines, int count, boolean alert) {
+            shown.add(new Shown(mClock.now, new ArrayList<>(lines), count, alert));
+        }
+
+        @Override
+        public void cancel() {
+            cancels++;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.firebase.udacity.friendlychat.TestMessages.key;
+import static com.google.firebase.udacity.friendlychat.TestMessages.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    @Test
+    public void matchesEveryTermAsAWordPrefix() {
+        SearchIndex index = new SearchIndex();
+        index.put("general", text(1, "Lunch at noon?", "Ana"));
+        index.put("general", text(2, "lunchtime tomorrow", "Bob"));
+        index.put("android", text(3, "noon works", "Chen"));
+
+        assertEquals(keys(1, 2), keysOf(index.search("lunch", 10)));
+        assertEquals(keys(1), keysOf(index.search("LUNCH noon", 10)));
+        assertEquals(keys(3, 1), keysOf(index.search("noon", 10)));
+        assertTrue(index.search("dinner", 10).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void hitsNameTheRoomOfTheirMessage() {
+        SearchIndex index = new SearchIndex();
+        index.put("android", text(1, "release build", "Ana"));
+
+        SearchIndex.Hit hit = index.search("release", 10).get(0);
+
+        assertEquals("android", hit.room);
+        assertEquals(key(1), hit.key);
+    }
+
+    @Test
+    public void ranksWholeWordsAndNamesFirst() {
+        SearchIndex index = new SearchIndex();
+        index.put("general", text(1, "builder", "Ana"));
+        index.put("general", text(2, "build", "Ana"));
+        index.put("general", text(3, "hello", "Build Bot"));
+
+        assertEquals(keys(3, 2, 1), keysOf(index.search("build", 10)));
+        assertEquals(keys(3), keysOf(index.search("build", 1)));
+    }
+
+    @Test
+    public void oneLetterMatchesWholeWordsOnly() {
+        SearchIndex index = new SearchIndex();
+        index.put("general", text(1, "a plan", "Ana"));
+        index.put("general", text(2, "another", "Bob"));
+
+        assertEquals(keys(1), keysOf(index.search("a", 10)));
+    }
+
+    @Test
+    public void editsAndRemovalsLeaveTheResults() {
+        SearchIndex index = new SearchIndex();
+        index.put("general", text(1, "coffee later", "Ana"));
+        index.put("general", text(2, "coffee now", "Bob"));
+
+        index.put("general", text(1, "tea later", "Ana"));
+        index.remove(key(2));
+
+        assertTrue(index.search("coffee", 10).isEmpty());
+        assertEquals(keys(1), keysOf(index.search("tea", 10)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void earliestIndexedLeaveAboveTheCap() {
+        SearchIndex index = new SearchIndex(100);
+        for (int i = 0; i < 5000; i++) {
+            index.put("general", text(i, "message number" + i, "Ana"));
+        }
+
+        assertEquals(100, index.size());
+        assertTrue(index.search("number4899", 10).isEmpty());
+        assertEquals(keys(4900), keysOf(index.search("number4900", 10)));
+        assertEquals(100, index.search("message", 1000).size());
+    }
+
+    @Test
+    public void compactionKeepsTheLiveDocuments() {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 3000; i++) {
+            index.put("general", text(i, "word" + (i % 10) + " n" + i, "Ana"));
+        }
+        // more deleted documents than live ones
+        for (int i = 0; i < 3000; i += 3) {
+            index.remove(key(i));
+            index.remove(key(i + 1));
+        }
+
+        assertEquals(1000, index.size());
+        List<SearchIndex.Hit> hits = index.search("word2", 1000);
+        assertEquals(100, hits.size());
+        for (SearchIndex.Hit hit : hits) {
+            int i = Integer.parseInt(hit.key.substring(3));
+            assertEquals(2, i % 3);
+            assertEquals(2, i % 10);
+        }
+    }
+
+    @Test
+    public void trimKeepsTheLatestShare() {
+        SearchIndex index = new SearchIndex(1000);
+        for (int i = 0; i < 1000; i++) {
+            index.put("general", text(i, "n" + i, "Ana"));
+        }
+        long fullSize = index.getMemorySize();
+
+        index.trim(0.25f);
+
+        assertEquals(250, index.size());
+        assertTrue(index.getMemorySize() < fullSize / 2);
+        assertEquals(keys(999), keysOf(index.search("n999", 10)));
+        assertTrue(index.search("n749", 10).isEmpty());
+
+        index.trim(0);
+        assertEquals(0, index.size());
+        assertEquals(0, index.getMemorySize());
+    }
+
+    private static List<String> keys(int... indices) {
+        List<String> keys = new ArrayList<>();
+        for (int index : indices) {
+            keys.add(key(index));
+        }
+        return keys;
+    }
+
+    private static List<String> keysOf(List<SearchIndex.Hit> hits) {
+        List<String> keys = new ArrayList<>();
+        for (SearchIndex.Hit hit : hits) {
+            keys.add(hit.key);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,80 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+// A Timer for the tests: runs the posted tasks in time order, advancing the
+// time to each. Both clocks read the same time.
+final class TestClock implements Timer {
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private long mSequence;
+    long now;
+
+    TestClock(long start) {
+        this.now = start;
+    }
+
+    void runUntil(long time) {
+        while (!mTasks.isEmpty() && mTasks.peek().time <= time) {
+            Task task = mTasks.poll();
+            now = task.time;
+            task.runnable.run();
+        }
+        now = Math.max(now, time);
+    }
+
+    // until nothing is left to run, the time is that of the last task
+    void runAll() {
+        while (!mTasks.isEmpty()) {
+            Task task = mTasks.poll();
+            now = task.time;
+            task.runnable.run();
+        }
+    }
+
+    int getPendingCount() {
+        return mTasks.size();
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        mTasks.add(new Task(now + delayMs, mSequence++, task));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        for (Task posted : new ArrayList<>(mTasks)) {
+            if (posted.runnable == task) {
+                mTasks.remove(posted);
+            }
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return now;
+    }
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
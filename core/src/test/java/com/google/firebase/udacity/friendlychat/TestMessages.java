@@ -0,0 +1,43 @@
+package com.google.firebase.udacity.friendlychat;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+// Messages for the tests, with push-ID-like keys in key order
+final class TestMessages {
+
+    private TestMessages() {
+    }
+
+    static String key(int index) {
+        return String.format(Locale.US, "-Lk%017d", index);
+    }
+
+    static FriendlyMessage text(int index, String text, String name) {
+        FriendlyMessage message = new FriendlyMessage(text, name, null);
+        message.setKey(key(index));
+        return message;
+    }
+
+    static FriendlyMessage photo(int index, String name, int width, int height) {
+        String url = "https://example.com/chat_photos/" + key(index);
+        FriendlyMessage message = new FriendlyMessage(null, name, url);
+        message.setKey(key(index));
+        message.setThumbnailUrl(url + "_thumb");
+        message.setPhotoWidth(width);
+        message.setPhotoHeight(height);
+        return message;
+    }
+
+    // The fields a row shows, FriendlyMessage has no equals
+    static void assertSameRow(FriendlyMessage expected, FriendlyMessage actual) {
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getText(), actual.getText());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getPhotoUrl(), actual.getPhotoUrl());
+        assertEquals(expected.getThumbnailUrl(), actual.getThumbnailUrl());
+        assertEquals(expected.getPhotoWidth(), actual.getPhotoWidth());
+        assertEquals(expected.getPhotoHeight(), actual.getPhotoHeight());
+    }
+}
@@ -0,0 +1,385 @@
+package com.google.firebase.udacity.friendlychat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadSchedulerTest {
+
+    private static final int PHOTO_SIZE = 200 * 1024;
+    private static final int THUMBNAIL_SIZE = 16 * 1024;
+    // bytes per millisecond, about 1.6 Mbit/s
+    private static final int LINK_SPEED = 200;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestClock mClock;
+    private Storage mStorage;
+    private Events mEvents;
+    private UploadScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(0);
+        mStorage = new Storage(mClock);
+        mEvents = new Events();
+        mScheduler = new UploadScheduler(mStorage, mClock, new Random(0), mEvents);
+    }
+
+    @Test
+    public void uploadsTwoAtATimeThumbnailFirst() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            mScheduler.add(upload("photo" + i));
+        }
+        assertEquals(2, mScheduler.getRunningCount());
+
+        mClock.runAll();
+
+        assertEquals(5, mScheduler.getCompletedCount());
+        assertEquals(0, mScheduler.getPendingCount());
+        assertEquals(2, mStorage.maxRunning);
+        for (int i = 0; i < 5; i++) {
+            List<String> log = mStorage.uploaded;
+            assertTrue(log.indexOf("thumbnails/photo" + i) < log.indexOf("photo" + i));
+            assertEquals(mStorage.urlOf("photo" + i), mEvents.uploaded.get("photo" + i));
+        }
+    }
+
+    @Test
+    public void retriesWithBackoffResumingTheSession() throws IOException {
+        mStorage.failures.put("photo", 2);
+        mScheduler.add(upload("photo"));
+
+        mClock.runAll();
+
+        assertEquals(1, mScheduler.getCompletedCount());
+        assertEquals(2, mScheduler.getFailedAttemptCount());
+        // half of the delay is jittered
+        assertEquals(2, mEvents.retryDelays.size());
+        assertBetween(UploadScheduler.INITIAL_BACKOFF_MS / 2, UploadScheduler.INITIAL_BACKOFF_MS,
+                mEvents.retryDelays.get(0));
+        assertBetween(UploadScheduler.INITIAL_BACKOFF_MS, 2 * UploadScheduler.INITIAL_BACKOFF_MS,
+                mEvents.retryDelays.get(1));
+        // every attempt after the first resumed the session, no byte was sent twice
+        List<String> sessions = mStorage.sessionsGiven.get("photo");
+        assertNull(sessions.get(0));
+        assertTrue(sessions.get(1) != null && sessions.get(1).equals(sessions.get(2)));
+        assertEquals(PHOTO_SIZE, (long) mStorage.bytesSent.get("photo"));
+    }
+
+    @Test
+    public void startsANewSessionAfterRepeatedFailures() throws IOException {
+        mStorage.failures.put("photo", UploadScheduler.ATTEMPTS_PER_SESSION);
+        mScheduler.add(upload("photo"));
+
+        mClock.runAll();
+
+        List<String> sessions = mStorage.sessionsGiven.get("photo");
+        assertEquals(UploadScheduler.ATTEMPTS_PER_SESSION + 1, sessions.size());
+        assertNull(sessions.get(UploadScheduler.ATTEMPTS_PER_SESSION));
+        assertEquals(1, mScheduler.getCompletedCount());
+    }
+
+    @Test
+    public void dropsAnUploadThatKeepsFailing() throws IOException {
+        mStorage.failures.put("photo", Integer.MAX_VALUE);
+        mScheduler.add(upload("photo"));
+        mScheduler.add(upload("other"));
+
+        mClock.runAll();
+
+        assertEquals(1, mScheduler.getDroppedCount());
+        assertEquals("photo", mEvents.dropped.get(0).id);
+        assertEquals(UploadScheduler.MAX_ATTEMPTS, mStorage.sessionsGiven.get("photo").size());
+        assertEquals(1, mScheduler.getCompletedCount());
+        assertEquals(0, mScheduler.getPendingCount());
+        // the delays double up to MAX_BACKOFF_MS
+        long total = 0;
+        for (long delay : mEvents.retryDelays) {
+            assertTrue(delay <= UploadScheduler.MAX_BACKOFF_MS);
+            total += delay;
+        }
+        assertTrue(total > UploadScheduler.MAX_BACKOFF_MS);
+    }
+
+    @Test
+    public void usesPartsAlreadyInStorage() throws IOException {
+        mStorage.objects.put("thumbnails/photo", "https://storage/thumbnails/photo");
+        mStorage.objects.put("photo", "https://storage/photo");
+        UploadScheduler.Upload upload = upload("photo");
+        mScheduler.add(upload);
+
+        mClock.runAll();
+
+        assertTrue(mStorage.uploaded.isEmpty());
+        assertEquals(2, mScheduler.getReusedCount());
+        assertEquals(PHOTO_SIZE + THUMBNAIL_SIZE, mScheduler.getBytesSaved());
+        assertEquals("https://storage/thumbnails/photo", upload.thumbnailUrl);
+        assertEquals("https://storage/photo", mEvents.uploaded.get("photo"));
+    }
+
+    // Sent again, e.g. from another device without this one's UploadedPhotoIndex
+    @Test
+    public void resendingAPhotoUploadsNothing() throws IOException {
+        mScheduler.add(upload("photo"));
+        mClock.runAll();
+        long sent = mStorage.totalBytesSent();
+
+        UploadScheduler.Upload again = upload("photo", "again");
+        mScheduler.add(again);
+        mClock.runAll();
+
+        assertEquals(PHOTO_SIZE + THUMBNAIL_SIZE, sent);
+        assertEquals(sent, mStorage.totalBytesSent());
+        assertEquals(PHOTO_SIZE + THUMBNAIL_SIZE, mScheduler.getBytesSaved());
+        assertEquals(mStorage.urlOf("photo"), mEvents.uploaded.get("again"));
+    }
+
+    @Test
+    public void reportsProgressAndThroughput() throws IOException {
+        mScheduler.add(upload("photo"));
+        // two lookups, the thumbnail and half of the photo
+        mClock.runUntil(Storage.LATENCY_MS * 5 + (THUMBNAIL_SIZE + PHOTO_SIZE / 2) / LINK_SPEED);
+
+        assertBetween(40, 60, (long) (mScheduler.getProgress() * 100));
+        mClock.runAll();
+        assertEquals(0f, mScheduler.getProgress(), 0f);
+        // the latency of each part counts against it
+        assertBetween(LINK_SPEED * 1000 * 3 / 4, LINK_SPEED * 1000, mScheduler.getThroughput());
+    }
+
+    // As restored after the process was killed mid-upload
+    @Test
+    public void resumesARestoredSession() throws IOException {
+        UploadScheduler.Upload upload = upload("photo");
+        upload.thumbnailUrl = "https://storage/thumbnails/photo";
+        upload.sessionUri = mStorage.startSession("photo", PHOTO_SIZE / 2);
+        upload.attempts = 1;
+        mScheduler.add(upload);
+
+        mClock.runAll();
+
+        assertTrue(mStorage.lookedUp.isEmpty());
+        assertEquals(upload.sessionUri, mStorage.sessionsGiven.get("photo").get(0));
+        assertEquals(PHOTO_SIZE / 2, (long) mStorage.bytesSent.get("photo"));
+        assertEquals(1, mScheduler.getCompletedCount());
+    }
+
+    // Twenty photos over a link where a third of the attempts fail midway
+    @Test
+    public void flakyLinkDeliversEveryPhoto() throws IOException {
+        mStorage.failureRate = 3;
+        for (int i = 0; i < 20; i++) {
+            mScheduler.add(upload("photo" + i));
+        }
+
+        mClock.runAll();
+
+        assertEquals(20, mScheduler.getCompletedCount());
+        assertEquals(0, mScheduler.getDroppedCount());
+        assertEquals(20, mEvents.uploaded.size());
+        assertEquals(2, mStorage.maxRunning);
+        assertTrue(mScheduler.getFailedAttemptCount() > 0);
+    }
+
+    private UploadScheduler.Upload upload(String hash) throws IOException {
+        return upload(hash, hash);
+    }
+
+    private UploadScheduler.Upload upload(String hash, String id) throws IOException {
+        UploadScheduler.Upload upload = new UploadScheduler.Upload();
+        upload.id = id;
+        upload.hash = hash;
+        upload.storagePath = hash;
+        upload.filePath = file(id, PHOTO_SIZE).getPath();
+        upload.thumbnailStoragePath = "thumbnails/" + hash;
+        upload.thumbnailPath = file(id + "_thumb", THUMBNAIL_SIZE).getPath();
+        return upload;
+    }
+
+    private File file(String name, int size) throws IOException {
+        File file = mFolder.newFile(name);
+        RandomAccessFile content = new RandomAccessFile(file, "rw");
+        try {
+            content.setLength(size);
+        } finally {
+            content.close();
+        }
+        return file;
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+
+    // Storage behind a link of LINK_SPEED, calling back through the clock.
+    // Sessions keep the bytes received, failures cut an attempt halfway.
+    static class Storage implements StorageBackend {
+
+        static final long LATENCY_MS = 50;
+        private static final long PROGRESS_MS = 100;
+
+        private final TestClock mClock;
+        final Map<String, String> objects = new HashMap<>();
+        // path -> attempts left to fail
+        final Map<String, Integer> failures = new HashMap<>();
+        // fail one attempt in this many, picked at random, if not 0
+        int failureRate;
+        private final Random mRandom = new Random(0);
+        // session -> bytes received
+        private final Map<String, Long> mSessions = new HashMap<>();
+        private final Set<String> mRunning = new HashSet<>();
+
+        final List<String> uploaded = new ArrayList<>();
+        final List<String> lookedUp = new ArrayList<>();
+        final Map<String, List<String>> sessionsGiven = new HashMap<>();
+        final Map<String, Long> bytesSent = new HashMap<>();
+        int maxRunning;
+
+        Storage(TestClock clock) {
+            mClock = clock;
+        }
+
+        String urlOf(String path) {
+            return "https://storage/" + path;
+        }
+
+        long totalBytesSent() {
+            long total = 0;
+            for (long sent : bytesSent.values()) {
+                total += sent;
+            }
+            return total;
+        }
+
+        String startSession(String path, long received) {
+            String session = "session/" + path + "/" + mSessions.size();
+            mSessions.put(session, received);
+            return session;
+        }
+
+        @Override
+        public void upload(final String path, File file, String sessionUri, final UploadCallback callback) {
+            List<String> given = sessionsGiven.get(path);
+            if (given == null) {
+                given = new ArrayList<>();
+                sessionsGiven.put(path, given);
+            }
+            given.add(sessionUri);
+            mRunning.add(path);
+            maxRunning = Math.max(maxRunning, mRunning.size());
+
+            final long total = file.length();
+            final String session = sessionUri != null && mSessions.containsKey(sessionUri)
+                    ? sessionUri : startSession(path, 0);
+            final boolean fail = failNext(path);
+            final long start = mSessions.get(session);
+            final long end = fail ? start + (total - start) / 2 : total;
+            mClock.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onSessionStarted(session);
+                }
+            }, LATENCY_MS);
+            for (long sent = start; sent < end; ) {
+                final long from = sent;
+                final long to = Math.min(end, sent + LINK_SPEED * PROGRESS_MS);
+                mClock.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSessions.put(session, to);
+                        Long before = bytesSent.get(path);
+                        bytesSent.put(path, (before == null ? 0 : before) + to - from);
+                        callback.onProgress(to, total);
+                    }
+                }, LATENCY_MS + (to - start) / LINK_SPEED);
+                sent = to;
+            }
+            mClock.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mRunning.remove(path);
+                    if (fail) {
+                        callback.onFailure(new IOException("connection reset"));
+                    } else {
+                        uploaded.add(path);
+                        objects.put(path, urlOf(path));
+                        callback.onSuccess(urlOf(path));
+                    }
+                }
+            }, LATENCY_MS * 2 + (end - start) / LINK_SPEED);
+        }
+
+        @Override
+        public void lookup(final String path, final LookupCallback callback) {
+            lookedUp.add(path);
+            mClock.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    String url = objects.get(path);
+                    if (url != null) {
+                        callback.onFound(url);
+                    } else {
+                        callback.onNotFound();
+                    }
+                }
+            }, LATENCY_MS);
+        }
+
+        private boolean failNext(String path) {
+            Integer left = failures.get(path);
+            if (left != null && left > 0) {
+                failures.put(path, left - 1);
+                return true;
+            }
+            return failureRate != 0 && mRandom.nextInt(failureRate) == 0;
+        }
+    }
+
+    static class Events implements UploadScheduler.Callback {
+
+        final Map<String, String> uploaded = new HashMap<>();
+        final List<Long> retryDelays = new ArrayList<>();
+        final List<UploadScheduler.Upload> dropped = new ArrayList<>();
+
+        @Override
+        public void onUploadsChanged() {
+        }
+
+        @Override
+        public void onProgress() {
+        }
+
+        @Override
+        public void onUploaded(UploadScheduler.Upload upload, String downloadUrl) {
+            uploaded.put(upload.id, downloadUrl);
+        }
+
+        @Override
+        public void onRetry(UploadScheduler.Upload upload, Exception e, long delayMs) {
+            retryDelays.add(delayMs);
+        }
+
+        @Override
+        public void onDropped(UploadScheduler.Upload upload, Exception e) {
+            dropped.add(upload);
+        }
+    }
+}